@@ -4,6 +4,8 @@ import org.micromodules.control.graph.GraphRenderer;
 import org.micromodules.control.graph.ModulesGraph;
 import org.micromodules.control.report.ModulesReport;
 import org.micromodules.control.scan.ClasspathRelations;
+import org.micromodules.control.scan.ScanBackend;
+import org.micromodules.control.scan.ScanSettings;
 import org.micromodules.control.spec.ModulesSpecification;
 import org.micromodules.setup.Contract;
 
@@ -18,9 +20,19 @@ import java.io.IOException;
 @Contract(__modules__.CliModule.class)
 public class Main {
     public static void main(final String... args)  {
-        final ClasspathRelations classpathRelations = ClasspathRelations.createFrom(Thread.currentThread().getContextClassLoader(), args);
-        final ModulesSpecification modulesSpecification = ModulesSpecification.createFrom(classpathRelations);
-        final ModulesGraph modulesGraph = ModulesGraph.createFrom(classpathRelations, modulesSpecification);
+        final File outputDir = new File(System.getProperty("micromodules.output_dir", ".micro-report"));
+        final ScanSettings scanSettings = readScanSettings(outputDir);
+        final String snapshotPath = System.getProperty("micromodules.graph_snapshot");
+        final File snapshotFile = snapshotPath != null ? new File(snapshotPath) : null;
+        final ModulesGraph modulesGraph;
+        if (snapshotFile != null && snapshotFile.isFile()) {
+            modulesGraph = ModulesGraph.openSnapshot(snapshotFile, Thread.currentThread().getContextClassLoader());
+        } else {
+            modulesGraph = createModulesGraph(scanSettings, args);
+            if (snapshotFile != null) {
+                modulesGraph.writeSnapshot(snapshotFile);
+            }
+        }
         final GraphRenderer graphRenderer = Boolean.parseBoolean(System.getProperty("micro.render_graph_to_png", "false"))
                 ? GraphRenderer.createDonAndSvgRenderer()
                 : GraphRenderer.createDonOnlyRenderer();
@@ -28,7 +40,7 @@ public class Main {
 
         final File reportIndexFile;
         try {
-            reportIndexFile = modulesReport.generateReportTo(new File(System.getProperty("micromodules.output_dir", ".micro-report")));
+            reportIndexFile = modulesReport.generateReportTo(outputDir);
         } catch (final IOException e) {
             throw new RuntimeException(e);
         }
@@ -42,4 +54,30 @@ public class Main {
             }
         }
     }
+
+    private static ModulesGraph createModulesGraph(final ScanSettings scanSettings, final String... args) {
+        if (Boolean.parseBoolean(System.getProperty("micromodules.scan_streaming", "false"))) {
+            return ModulesGraph.createStreaming(scanSettings, Thread.currentThread().getContextClassLoader(), args);
+        } else {
+            final ClasspathRelations classpathRelations = ClasspathRelations.createFrom(scanSettings, Thread.currentThread().getContextClassLoader(), args);
+            System.out.println(classpathRelations.getScanMemoryReport());
+            final ModulesSpecification modulesSpecification = ModulesSpecification.createFrom(classpathRelations);
+            return ModulesGraph.createFrom(classpathRelations, modulesSpecification);
+        }
+    }
+
+    static ScanSettings readScanSettings(final File outputDir) {
+        final ScanSettings scanSettings = ScanSettings.defaults()
+                .withParallelism(Integer.parseInt(System.getProperty("micromodules.scan_parallelism", "1")))
+                .withLoaderFree(Boolean.parseBoolean(System.getProperty("micromodules.scan_loader_free", "false")))
+                .withBackend(ScanBackend.valueOf(System.getProperty("micromodules.scan_backend", ScanBackend.ConstantPool.name())))
+                .withParserMemoryLimit(Long.parseLong(System.getProperty("micromodules.scan_parser_memory_limit_mb", "32")) * 1024 * 1024)
+                .withCacheFile(Boolean.parseBoolean(System.getProperty("micromodules.scan_cache", "false"))
+                        ? new File(outputDir.getAbsoluteFile().getParentFile(), outputDir.getName() + ".scan-cache")
+                        : null);
+        if (System.getProperty("micromodules.scan_parser_memory_limit_mb") != null && scanSettings.getBackend() != ScanBackend.Javassist) {
+            System.out.println("Parser memory limit has no effect with " + scanSettings.getBackend() + " scan backend");
+        }
+        return scanSettings;
+    }
 }
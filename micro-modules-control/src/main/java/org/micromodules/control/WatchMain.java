@@ -0,0 +1,53 @@
+package org.micromodules.control;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Sets;
+import org.micromodules.control.analyze.ModulesAnalyzer;
+import org.micromodules.control.graph.ModulesGraph;
+import org.micromodules.control.scan.ClasspathRelations;
+import org.micromodules.control.scan.ClasspathWatcher;
+import org.micromodules.control.scan.ScanSettings;
+import org.micromodules.control.spec.ModulesSpecification;
+import org.micromodules.setup.Contract;
+
+import java.io.File;
+
+/**
+ * Long running check: class directories of classpath are watched and after every compilation
+ * new and resolved rule violations are printed. Only changed classes are parsed again
+ * and only modules affected by changed classes are analysed again.
+ * Module classes are loaded once, so changes of module setup code need a restart.
+ */
+@Contract(__modules__.CliModule.class)
+public class WatchMain {
+    public static void main(final String... args) throws InterruptedException {
+        final ScanSettings scanSettings = Main.readScanSettings(new File(System.getProperty("micromodules.output_dir", ".micro-report")))
+                .withLoaderFree(true)
+                .withRecordsRetained(true);
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        try (final ClasspathWatcher watcher = ClasspathWatcher.open(classLoader)) {
+            ClasspathRelations classpathRelations = ClasspathRelations.createFrom(scanSettings, classLoader, args);
+            ModulesGraph modulesGraph = ModulesGraph.createFrom(classpathRelations, ModulesSpecification.createFrom(classpathRelations));
+            ImmutableSortedSet<String> violations = findViolations(modulesGraph);
+            violations.forEach(violation -> System.out.println("Violation: " + violation));
+            System.out.println("Watching for changes, " + violations.size() + " violations");
+            while (!Thread.currentThread().isInterrupted()) {
+                final ImmutableSet<String> changedClassNames = watcher.awaitChangedClassNames();
+                final long startTime = System.currentTimeMillis();
+                classpathRelations = classpathRelations.rescan(changedClassNames);
+                modulesGraph = modulesGraph.update(classpathRelations, ModulesSpecification.createFrom(classpathRelations), changedClassNames);
+                final ImmutableSortedSet<String> newViolations = findViolations(modulesGraph);
+                Sets.difference(newViolations, violations).forEach(violation -> System.out.println("New violation: " + violation));
+                Sets.difference(violations, newViolations).forEach(violation -> System.out.println("Resolved violation: " + violation));
+                System.out.println(changedClassNames.size() + " classes changed, " + newViolations.size() + " violations, " +
+                        "checked in " + (System.currentTimeMillis() - startTime) + "ms");
+                violations = newViolations;
+            }
+        }
+    }
+
+    private static ImmutableSortedSet<String> findViolations(final ModulesGraph modulesGraph) {
+        return ModulesAnalyzer.createFrom(modulesGraph).getViolations();
+    }
+}
@@ -1,5 +1,6 @@
 package org.micromodules.control;
 
+import org.micromodules.control.analyze.__modules__.AnalyzeModule;
 import org.micromodules.control.graph.__modules__.ModulesGraphModule;
 import org.micromodules.control.report.__modules__.ReportModule;
 import org.micromodules.control.scan.__modules__.ClasspathModule;
@@ -31,7 +32,8 @@ public interface  __modules__ {
                     .dependencies().grant(ReportModule.class)
                     .dependencies().grant(SpecificationModule.class)
                     .dependencies().grant(ClasspathModule.class)
-                    .dependencies().grant(ModulesGraphModule.class);
+                    .dependencies().grant(ModulesGraphModule.class)
+                    .dependencies().grant(AnalyzeModule.class);
         }
     }
 }
\ No newline at end of file
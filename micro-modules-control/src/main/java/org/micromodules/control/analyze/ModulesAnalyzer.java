@@ -1,11 +1,17 @@
 package org.micromodules.control.analyze;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Maps;
 import org.micromodules.control.graph.GraphDomain.Node;
 import org.micromodules.control.graph.GraphQuery.GraphPathFinish;
 import org.micromodules.control.graph.ModulesGraph;
+import org.micromodules.control.graph.QueryPlan;
 import org.micromodules.setup.Contract;
 
+import java.util.Collection;
+
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Predicates.in;
 import static com.google.common.base.Predicates.not;
@@ -19,6 +25,28 @@ import static org.micromodules.control.util.Predicates2.and;
  */
 @Contract(__modules__.AnalyzeModule.class)
 public class ModulesAnalyzer {
+    private static final QueryPlan SUPER_MODULES = QueryPlan.start().backward().by(SubModule).to(ModuleNode).recursive().compile();
+    private static final QueryPlan SUB_MODULES = QueryPlan.start().forward().by(SubModule).to(ModuleNode).recursive().compile();
+    private static final QueryPlan RELATED_MODULES = QueryPlan.start().forward().by(Dependency).to(ModuleNode).single()
+            .useStart().then().backward().by(Dependency).to(ModuleNode).single().compile();
+    private static final QueryPlan CONTRACT_CLASSES = QueryPlan.start().forward().by(ContractClass).to(CodeNode).single().compile();
+    private static final QueryPlan IMPLEMENTATION_CLASSES = QueryPlan.start().forward().by(ImplementationClass).to(CodeNode).single().compile();
+    private static final QueryPlan ALL_CLASSES = QueryPlan.start().forward().by(ContractClass.or(ImplementationClass)).to(CodeNode).single().compile();
+    private static final QueryPlan DIRECT_DEPENDENCIES = QueryPlan.start().forward().by(Dependency).to(ModuleNode).single().compile();
+    private static final QueryPlan HIERARCHY_DEPENDENCIES = QueryPlan.start().forward().by(SubModule).to(ModuleNode).recursive()
+            .then().forward().by(Dependency).to(ModuleNode).single().compile();
+    private static final QueryPlan USED_BY = QueryPlan.start().backward().by(Dependency).to(ModuleNode).single().compile();
+    private static final QueryPlan JAR_DEPENDENCIES = QueryPlan.start().forward().by(ImplementationClass).by(ContractClass).to(CodeNode).single()
+            .useFinish().then().forward().by(UsesClass).to(JarNode).single().compile();
+    private static final QueryPlan NOT_ALLOWED_DEPENDENCIES = QueryPlan.start().forward().by(Dependency.and(NotAllowed)).to(ModuleNode).single().compile();
+    private static final QueryPlan HIERARCHY_GRANTED = QueryPlan.start().backward().by(SubModule).to(ModuleNode).recursive()
+            .then().forward().by(Granted).to(ModuleNode).single().useFinish().compile();
+    private static final QueryPlan GRANTED = QueryPlan.start().forward().by(Granted).to(ModuleNode).single().useFinish().compile();
+    private static final QueryPlan CLASSES_OF_SUPER_MODULE = QueryPlan.start().forward().by(RuleSuperModuleMustNotContainClasses).to(CodeNode).single()
+            .useFinish().compile();
+    private static final QueryPlan PROBLEMS = QueryPlan.start().forward().by(HasProblem).to(ProblemNode).single().useFinish().compile();
+    private static final QueryPlan DIRECT_SUB_MODULES = QueryPlan.start().forward().by(SubModule).to(ModuleNode).single().useFinish().compile();
+
     private final ModulesGraph graph;
 
     public static ModulesAnalyzer createFrom(final ModulesGraph graph) {
@@ -31,46 +59,95 @@ public class ModulesAnalyzer {
     }
 
     public GraphPathFinish getSuperModules(final Node module) {
-        return graph.query().from(module).backward().by(SubModule).to(ModuleNode).recursive();
+        return graph.query().from(module).execute(SUPER_MODULES);
     }
 
     public GraphPathFinish getSubModules(final Node module) {
-        return graph.query().from(module).forward().by(SubModule).to(ModuleNode).recursive();
+        return graph.query().from(module).execute(SUB_MODULES);
     }
 
     public GraphPathFinish getRelatedModules(final Node module) {
-        return graph.query().from(module).forward().by(Dependency).to(ModuleNode).single()
-                .useStart().then().backward().by(Dependency).to(ModuleNode).single();
+        return graph.query().from(module).execute(RELATED_MODULES);
     }
 
     public GraphPathFinish getModuleContractClasses(final Node module) {
-        return graph.query().from(module).forward().by(ContractClass).to(CodeNode).single();
+        return graph.query().from(module).execute(CONTRACT_CLASSES);
     }
 
     public GraphPathFinish getModuleImplementationClasses(final Node module) {
-        return graph.query().from(module).forward().by(ImplementationClass).to(CodeNode).single();
+        return graph.query().from(module).execute(IMPLEMENTATION_CLASSES);
     }
 
     public GraphPathFinish getModuleAllClasses(final Node module) {
-        return graph.query().from(module).forward().by(ContractClass.or(ImplementationClass)).to(CodeNode).single();
+        return graph.query().from(module).execute(ALL_CLASSES);
     }
 
     public GraphPathFinish getModuleDirectDependencies(final Node module) {
-        return graph.query().from(module).forward().by(Dependency).to(ModuleNode).single();
+        return graph.query().from(module).execute(DIRECT_DEPENDENCIES);
     }
 
     public GraphPathFinish getModuleHierarchyDependencies(final Node module) {
-        return getSubModules(module).then().forward().by(Dependency).to(ModuleNode).single();
+        return graph.query().from(module).execute(HIERARCHY_DEPENDENCIES);
     }
 
     public GraphPathFinish getModuleUsedBy(final Node module) {
-        return graph.query().from(module).backward().by(Dependency).to(ModuleNode).single();
+        return graph.query().from(module).execute(USED_BY);
     }
 
     public GraphPathFinish getModuleJarDependencies(final Node module) {
-        return graph.query()
-                .from(module).forward().by(ImplementationClass).by(ContractClass).to(CodeNode).single()
-                .useFinish().then().forward().by(UsesClass).to(JarNode).single();
+        return graph.query().from(module).execute(JAR_DEPENDENCIES);
+    }
+
+    /*
+     * Same queries for many modules at once, every query is made in a single sweep of graph for all modules.
+     */
+
+    public ImmutableMap<Node, GraphPathFinish> getSuperModules(final Collection<Node> modules) {
+        return graph.query().executeEach(modules, SUPER_MODULES);
+    }
+
+    public ImmutableMap<Node, GraphPathFinish> getSubModules(final Collection<Node> modules) {
+        return graph.query().executeEach(modules, SUB_MODULES);
+    }
+
+    public ImmutableMap<Node, GraphPathFinish> getModuleContractClasses(final Collection<Node> modules) {
+        return graph.query().executeEach(modules, CONTRACT_CLASSES);
+    }
+
+    public ImmutableMap<Node, GraphPathFinish> getModuleImplementationClasses(final Collection<Node> modules) {
+        return graph.query().executeEach(modules, IMPLEMENTATION_CLASSES);
+    }
+
+    public ImmutableMap<Node, GraphPathFinish> getModuleAllClasses(final Collection<Node> modules) {
+        return graph.query().executeEach(modules, ALL_CLASSES);
+    }
+
+    public ImmutableMap<Node, GraphPathFinish> getModuleDirectDependencies(final Collection<Node> modules) {
+        return graph.query().executeEach(modules, DIRECT_DEPENDENCIES);
+    }
+
+    public ImmutableMap<Node, GraphPathFinish> getModuleHierarchyDependencies(final Collection<Node> modules) {
+        return graph.query().executeEach(modules, HIERARCHY_DEPENDENCIES);
+    }
+
+    public ImmutableMap<Node, GraphPathFinish> getModuleUsedBy(final Collection<Node> modules) {
+        return graph.query().executeEach(modules, USED_BY);
+    }
+
+    public ImmutableMap<Node, GraphPathFinish> getModuleJarDependencies(final Collection<Node> modules) {
+        return graph.query().executeEach(modules, JAR_DEPENDENCIES);
+    }
+
+    /**
+     * Finish sets are the same as {@link #getModuleDirectlyGrantedDependencies(Node)} gives,
+     * path also holds steps to super modules.
+     */
+    public ImmutableMap<Node, GraphPathFinish> getModuleDirectlyGrantedDependencies(final Collection<Node> modules) {
+        return graph.query().executeEach(modules, HIERARCHY_GRANTED);
+    }
+
+    public ImmutableSet<Node> filterSuperModules(final Collection<Node> modules) {
+        return ImmutableSet.copyOf(Maps.filterValues(graph.query().executeEach(modules, DIRECT_SUB_MODULES), subModules -> subModules.set().size() > 0).keySet());
     }
 
 
@@ -93,12 +170,12 @@ public class ModulesAnalyzer {
                             )
                     ).single().backtrace();
         } else {
-            return graph.query().from(module).forward().by(Dependency.and(NotAllowed)).to(ModuleNode).single();
+            return graph.query().from(module).execute(NOT_ALLOWED_DEPENDENCIES);
         }
     }
     public GraphPathFinish getModuleDirectlyGrantedDependencies(final Node module){
         final ImmutableSet<Node> superModulesSet = getSuperModules(module).set(ModuleNode);
-        return graph.query().from(superModulesSet).forward().by(Granted).to(ModuleNode).single().useFinish();
+        return graph.query().from(superModulesSet).execute(GRANTED);
     }
 
 
@@ -117,7 +194,33 @@ public class ModulesAnalyzer {
                 .backtrace();
     }
     
+    /**
+     * @return rule violations of all modules in a human readable form, same rules as report lists.
+     */
+    public ImmutableSortedSet<String> getViolations() {
+        final ImmutableSortedSet.Builder<String> result = ImmutableSortedSet.naturalOrder();
+        final ImmutableSet<Node> modules = graph.query().from(ModuleNode).getStartSet();
+        final ImmutableMap<Node, GraphPathFinish> classesOfSuperModules = graph.query().executeEach(modules, CLASSES_OF_SUPER_MODULE);
+        final ImmutableMap<Node, GraphPathFinish> problems = graph.query().executeEach(modules, PROBLEMS);
+        for (final Node module : modules) {
+            addViolations(result, module, "Dependency rule violation", getModuleDependencyRuleViolation(module));
+            addViolations(result, module, "Contract rule violation", getModuleContractRuleViolation(module));
+            addViolations(result, module, "Collision rule violation", getModuleCollisionRuleViolation(module));
+            classesOfSuperModules.get(module).set()
+                    .forEach(code -> result.add(module + ": Super module must not contain classes: " + code));
+            problems.get(module).set()
+                    .forEach(problem -> result.add(module + ": " + problem.getName()));
+        }
+        return result.build();
+    }
+
+    private static void addViolations(final ImmutableSortedSet.Builder<String> result, final Node module, final String rule, final GraphPathFinish violation) {
+        violation.graph().vertexSet().stream()
+                .filter(and(not(module), ModuleNode)::apply)
+                .forEach(otherModule -> result.add(module + ": " + rule + ": " + otherModule));
+    }
+
     public boolean isSuperModule(final Node module){
-        return graph.query().from(module).forward().by(SubModule).to(ModuleNode).single().useFinish().set().size()>0;
+        return graph.query().from(module).execute(DIRECT_SUB_MODULES).set().size()>0;
     }
 }
@@ -0,0 +1,432 @@
+package org.micromodules.control.graph;
+
+import org.jgrapht.DirectedGraph;
+import org.jgrapht.graph.DefaultDirectedGraph;
+import org.micromodules.control.graph.GraphDomain.EdgeType;
+import org.micromodules.control.graph.GraphDomain.Node;
+import org.micromodules.control.graph.GraphDomain.NodeEdge;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Frozen graph in compressed sparse row layout. Nodes have dense int ids in order of addition,
+ * outgoing edges of a node take a contiguous range of edge ids, sorted by target,
+ * incoming edges are listed the same way through reverse offsets. There is no per-node container
+ * and no hash lookup on traversal. Graph is built by {@link Builder} or wrapped over a {@link GraphSnapshot}
+ * and never changes, so it could be read concurrently. jgrapht view of a part of graph is created on demand
+ * by {@link #toDirectedGraph(Set, Predicate)}.
+ */
+final class CompactGraph {
+    static final int NO_ID = -1;
+
+    private final Node[] nodes;
+    /**
+     * Node id by {@link Node#getOrdinal()}, instead of a hash map.
+     */
+    private final int[] idsByOrdinal;
+    /**
+     * Int arrays are kept as buffers, so graph could be read from a memory mapped snapshot as is.
+     */
+    private final IntBuffer outgoingOffsets;
+    private final IntBuffer edgeSources;
+    private final IntBuffer edgeTargets;
+    private final IntBuffer edgeTypeMasks;
+    private final IntBuffer incomingOffsets;
+    private final IntBuffer incomingEdgeIds;
+
+    private CompactGraph(final Node[] nodes, final int[] idsByOrdinal, final int[] outgoingOffsets,
+                         final int[] edgeSources, final int[] edgeTargets, final int[] edgeTypeMasks) {
+        final int[] incomingOffsets = new int[nodes.length + 1];
+        final int[] incomingEdgeIds = new int[edgeTargets.length];
+        for (final int target : edgeTargets) {
+            incomingOffsets[target + 1]++;
+        }
+        for (int node = 0; node < nodes.length; node++) {
+            incomingOffsets[node + 1] += incomingOffsets[node];
+        }
+        final int[] fill = Arrays.copyOf(incomingOffsets, nodes.length);
+        for (int edge = 0; edge < edgeTargets.length; edge++) {
+            incomingEdgeIds[fill[edgeTargets[edge]]++] = edge;
+        }
+        this.nodes = nodes;
+        this.idsByOrdinal = idsByOrdinal;
+        this.outgoingOffsets = IntBuffer.wrap(outgoingOffsets);
+        this.edgeSources = IntBuffer.wrap(edgeSources);
+        this.edgeTargets = IntBuffer.wrap(edgeTargets);
+        this.edgeTypeMasks = IntBuffer.wrap(edgeTypeMasks);
+        this.incomingOffsets = IntBuffer.wrap(incomingOffsets);
+        this.incomingEdgeIds = IntBuffer.wrap(incomingEdgeIds);
+    }
+
+    private CompactGraph(final Node[] nodes, final IntBuffer outgoingOffsets, final IntBuffer edgeSources, final IntBuffer edgeTargets,
+                         final IntBuffer edgeTypeMasks, final IntBuffer incomingOffsets, final IntBuffer incomingEdgeIds) {
+        this.nodes = nodes;
+        this.idsByOrdinal = new int[ordinalsCount(Arrays.asList(nodes))];
+        Arrays.fill(idsByOrdinal, NO_ID);
+        for (int node = 0; node < nodes.length; node++) {
+            idsByOrdinal[nodes[node].getOrdinal()] = node;
+        }
+        this.outgoingOffsets = outgoingOffsets;
+        this.edgeSources = edgeSources;
+        this.edgeTargets = edgeTargets;
+        this.edgeTypeMasks = edgeTypeMasks;
+        this.incomingOffsets = incomingOffsets;
+        this.incomingEdgeIds = incomingEdgeIds;
+    }
+
+    /**
+     * Graph over buffers as {@link #writeTo} writes them, buffers are used as is, not copied.
+     */
+    static CompactGraph wrap(final Node[] nodes, final IntBuffer outgoingOffsets, final IntBuffer edgeSources, final IntBuffer edgeTargets,
+                             final IntBuffer edgeTypeMasks, final IntBuffer incomingOffsets, final IntBuffer incomingEdgeIds) {
+        checkState(outgoingOffsets.limit() == nodes.length + 1 && incomingOffsets.limit() == nodes.length + 1, "Offsets do not match nodes");
+        checkState(edgeSources.limit() == edgeTargets.limit() && edgeTypeMasks.limit() == edgeTargets.limit()
+                && incomingEdgeIds.limit() == edgeTargets.limit(), "Edge arrays do not match");
+        return new CompactGraph(nodes, outgoingOffsets, edgeSources, edgeTargets, edgeTypeMasks, incomingOffsets, incomingEdgeIds);
+    }
+
+    /**
+     * Writes int arrays of graph in order {@link #wrap} takes them: outgoing offsets, edge sources, targets, type masks,
+     * incoming offsets and incoming edge ids.
+     */
+    void writeTo(final DataOutput out) throws IOException {
+        for (final IntBuffer buffer : new IntBuffer[]{outgoingOffsets, edgeSources, edgeTargets, edgeTypeMasks, incomingOffsets, incomingEdgeIds}) {
+            for (int index = 0; index < buffer.limit(); index++) {
+                out.writeInt(buffer.get(index));
+            }
+        }
+    }
+
+    int nodeCount() {
+        return nodes.length;
+    }
+
+    Node node(final int id) {
+        return nodes[id];
+    }
+
+    /**
+     * @return id of node or {@link #NO_ID} if there is no such node in graph.
+     */
+    int id(final Node node) {
+        return idOf(idsByOrdinal, node);
+    }
+
+    boolean containsNode(final Node node) {
+        return id(node) != NO_ID;
+    }
+
+    /**
+     * @return length of ordinal index covering given nodes.
+     */
+    private static int ordinalsCount(final Collection<Node> nodes) {
+        int result = 0;
+        for (final Node node : nodes) {
+            result = Math.max(result, node.getOrdinal() + 1);
+        }
+        return result;
+    }
+
+    private static int idOf(final int[] idsByOrdinal, final Node node) {
+        final int ordinal = node.getOrdinal();
+        return ordinal < idsByOrdinal.length ? idsByOrdinal[ordinal] : NO_ID;
+    }
+
+    int edgeCount() {
+        return edgeTargets.limit();
+    }
+
+    /**
+     * @return new edge object, graph keeps edges as ids only; edges are compared by value.
+     */
+    NodeEdge edge(final int edgeId) {
+        return new NodeEdge(edgeTypeMask(edgeId), nodes[edgeSource(edgeId)], nodes[edgeTarget(edgeId)]);
+    }
+
+    int edgeSource(final int edgeId) {
+        return edgeSources.get(edgeId);
+    }
+
+    int edgeTarget(final int edgeId) {
+        return edgeTargets.get(edgeId);
+    }
+
+    /**
+     * @return types of edge as bits of {@link EdgeType#mask()}.
+     */
+    int edgeTypeMask(final int edgeId) {
+        return edgeTypeMasks.get(edgeId);
+    }
+
+    /**
+     * Outgoing edges of node are edge ids from this one to {@link #outgoingEnd(int)} exclusively.
+     */
+    int outgoingStart(final int nodeId) {
+        return outgoingOffsets.get(nodeId);
+    }
+
+    int outgoingEnd(final int nodeId) {
+        return outgoingOffsets.get(nodeId + 1);
+    }
+
+    /**
+     * Incoming edges of node are {@link #incomingEdge(int)} of indexes from this one to {@link #incomingEnd(int)} exclusively.
+     */
+    int incomingStart(final int nodeId) {
+        return incomingOffsets.get(nodeId);
+    }
+
+    int incomingEnd(final int nodeId) {
+        return incomingOffsets.get(nodeId + 1);
+    }
+
+    int incomingEdge(final int index) {
+        return incomingEdgeIds.get(index);
+    }
+
+    /**
+     * @return id of edge or {@link #NO_ID} if nodes are not connected.
+     */
+    int findEdge(final int sourceId, final int targetId) {
+        int low = outgoingStart(sourceId);
+        int high = outgoingEnd(sourceId) - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int middleTarget = edgeTarget(middle);
+            if (middleTarget < targetId) {
+                low = middle + 1;
+            } else if (middleTarget > targetId) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return NO_ID;
+    }
+
+    /**
+     * @return jgrapht graph of given nodes and edges between them, nodes are kept in order of this graph.
+     */
+    DirectedGraph<Node, NodeEdge> toDirectedGraph(final Set<Node> nodeSet, final Predicate<NodeEdge> edgeFilter) {
+        final BitSet ids = new BitSet();
+        for (final Node node : nodeSet) {
+            final int id = id(node);
+            if (id != NO_ID) {
+                ids.set(id);
+            }
+        }
+        final DirectedGraph<Node, NodeEdge> result = new DefaultDirectedGraph<>(NodeEdge.class);
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            result.addVertex(nodes[id]);
+        }
+        //only edges going out of given nodes are visited, so cost is proportional to result, not to this graph:
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            final int edgesEnd = outgoingEnd(id);
+            for (int edgeId = outgoingStart(id); edgeId < edgesEnd; edgeId++) {
+                if (ids.get(edgeTarget(edgeId))) {
+                    final NodeEdge edge = edge(edgeId);
+                    if (edgeFilter.test(edge)) {
+                        result.addEdge(edge.getSource(), edge.getTarget(), edge);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return builder holding nodes and edges of this graph, so a changed copy of graph could be frozen.
+     * This graph is not changed.
+     */
+    Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    /**
+     * Collects nodes and edges, edge of the same nodes added several times gets all given types.
+     * Edges are kept as flat int arrays until graph is frozen.
+     */
+    static final class Builder {
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private final List<Node> nodes;
+        private int[] idsByOrdinal;
+        private boolean nodesRemoved = false;
+        private int[] sources;
+        private int[] targets;
+        private int[] typeMasks;
+        private int edgesCount;
+
+        Builder() {
+            this.nodes = new ArrayList<>();
+            this.idsByOrdinal = new int[0];
+            this.sources = new int[INITIAL_CAPACITY];
+            this.targets = new int[INITIAL_CAPACITY];
+            this.typeMasks = new int[INITIAL_CAPACITY];
+            this.edgesCount = 0;
+        }
+
+        private Builder(final CompactGraph graph) {
+            this.edgesCount = graph.edgeCount();
+            final int capacity = Math.max(INITIAL_CAPACITY, edgesCount * 2);
+            this.nodes = new ArrayList<>(Arrays.asList(graph.nodes));
+            this.idsByOrdinal = graph.idsByOrdinal.clone();
+            this.sources = new int[capacity];
+            this.targets = new int[capacity];
+            this.typeMasks = new int[capacity];
+            graph.edgeSources.duplicate().get(sources, 0, edgesCount);
+            graph.edgeTargets.duplicate().get(targets, 0, edgesCount);
+            graph.edgeTypeMasks.duplicate().get(typeMasks, 0, edgesCount);
+        }
+
+        void addNode(final Node node) {
+            checkNotNull(node, "node required");
+            if (!containsNode(node)) {
+                if (node.getOrdinal() >= idsByOrdinal.length) {
+                    final int oldLength = idsByOrdinal.length;
+                    idsByOrdinal = Arrays.copyOf(idsByOrdinal, Math.max(node.getOrdinal() + 1, oldLength * 2));
+                    Arrays.fill(idsByOrdinal, oldLength, idsByOrdinal.length, NO_ID);
+                }
+                idsByOrdinal[node.getOrdinal()] = nodes.size();
+                nodes.add(node);
+            }
+        }
+
+        /**
+         * Removes node with all its edges.
+         */
+        void removeNode(final Node node) {
+            final int id = idOf(idsByOrdinal, node);
+            if (id != NO_ID) {
+                idsByOrdinal[node.getOrdinal()] = NO_ID;
+                nodes.set(id, null);
+                nodesRemoved = true;
+            }
+        }
+
+        boolean containsNode(final Node node) {
+            return idOf(idsByOrdinal, node) != NO_ID;
+        }
+
+        void addEdge(final Node source, final EdgeType type, final Node target) {
+            final int sourceId = idOf(idsByOrdinal, source);
+            final int targetId = idOf(idsByOrdinal, target);
+            checkState(sourceId != NO_ID, "No source node in graph: %s", source);
+            checkState(targetId != NO_ID, "No target node in graph: %s", target);
+            if (edgesCount == sources.length) {
+                sources = Arrays.copyOf(sources, edgesCount * 2);
+                targets = Arrays.copyOf(targets, edgesCount * 2);
+                typeMasks = Arrays.copyOf(typeMasks, edgesCount * 2);
+            }
+            sources[edgesCount] = sourceId;
+            targets[edgesCount] = targetId;
+            typeMasks[edgesCount] = type.mask();
+            edgesCount++;
+        }
+
+        /**
+         * Takes given types off outgoing or incoming edges of nodes, edge left without types is dropped on freeze.
+         */
+        void removeEdgeTypes(final Collection<Node> ofNodes, final boolean outgoing, final int typeMask) {
+            final boolean[] selected = new boolean[nodes.size()];
+            ofNodes.forEach(node -> {
+                final int id = idOf(idsByOrdinal, node);
+                if (id != NO_ID) {
+                    selected[id] = true;
+                }
+            });
+            final int[] ends = outgoing ? sources : targets;
+            for (int edge = 0; edge < edgesCount; edge++) {
+                if (selected[ends[edge]]) {
+                    typeMasks[edge] &= ~typeMask;
+                }
+            }
+        }
+
+        /**
+         * Builder could be used further, next freeze takes all changes made since.
+         */
+        CompactGraph freeze() {
+            if (nodesRemoved) {
+                compactNodes();
+            }
+            final int nodesCount = nodes.size();
+            //counting sort by source, then targets of every node are sorted and merged:
+            final int[] offsets = new int[nodesCount + 1];
+            for (int edge = 0; edge < edgesCount; edge++) {
+                offsets[sources[edge] + 1]++;
+            }
+            for (int node = 0; node < nodesCount; node++) {
+                offsets[node + 1] += offsets[node];
+            }
+            final int[] fill = Arrays.copyOf(offsets, nodesCount);
+            final long[] targetAndMasks = new long[edgesCount];
+            for (int edge = 0; edge < edgesCount; edge++) {
+                targetAndMasks[fill[sources[edge]]++] = (long) targets[edge] << 32 | typeMasks[edge];
+            }
+            int mergedCount = 0;
+            final int[] mergedOffsets = new int[nodesCount + 1];
+            for (int node = 0; node < nodesCount; node++) {
+                Arrays.sort(targetAndMasks, offsets[node], offsets[node + 1]);
+                for (int index = offsets[node]; index < offsets[node + 1]; index++) {
+                    final int target = (int) (targetAndMasks[index] >>> 32);
+                    final int typeMask = (int) targetAndMasks[index];
+                    if (typeMask == 0) {
+                        continue;
+                    }
+                    if (mergedCount > mergedOffsets[node] && targets[mergedCount - 1] == target) {
+                        typeMasks[mergedCount - 1] |= typeMask;
+                    } else {
+                        sources[mergedCount] = node;
+                        targets[mergedCount] = target;
+                        typeMasks[mergedCount] = typeMask;
+                        mergedCount++;
+                    }
+                }
+                mergedOffsets[node + 1] = mergedCount;
+            }
+            edgesCount = mergedCount;
+            //ordinal index of builder grows by doubling, frozen graph keeps just ordinals of its nodes:
+            return new CompactGraph(nodes.toArray(new Node[nodesCount]), Arrays.copyOf(idsByOrdinal, ordinalsCount(nodes)), mergedOffsets,
+                    Arrays.copyOf(sources, edgesCount), Arrays.copyOf(targets, edgesCount), Arrays.copyOf(typeMasks, edgesCount));
+        }
+
+        private void compactNodes() {
+            final int[] newIds = new int[nodes.size()];
+            final List<Node> keptNodes = new ArrayList<>(nodes.size());
+            for (int id = 0; id < nodes.size(); id++) {
+                final Node node = nodes.get(id);
+                newIds[id] = node != null ? keptNodes.size() : NO_ID;
+                if (node != null) {
+                    idsByOrdinal[node.getOrdinal()] = keptNodes.size();
+                    keptNodes.add(node);
+                }
+            }
+            int keptEdgesCount = 0;
+            for (int edge = 0; edge < edgesCount; edge++) {
+                if (newIds[sources[edge]] != NO_ID && newIds[targets[edge]] != NO_ID) {
+                    sources[keptEdgesCount] = newIds[sources[edge]];
+                    targets[keptEdgesCount] = newIds[targets[edge]];
+                    typeMasks[keptEdgesCount] = typeMasks[edge];
+                    keptEdgesCount++;
+                }
+            }
+            edgesCount = keptEdgesCount;
+            nodes.clear();
+            nodes.addAll(keptNodes);
+            nodesRemoved = false;
+        }
+    }
+}
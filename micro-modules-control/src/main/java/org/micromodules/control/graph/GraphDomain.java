@@ -1,22 +1,24 @@
 package org.micromodules.control.graph;
 
 import com.google.common.base.Joiner;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
 import com.googlecode.jatl.Html;
 import org.jgraph.graph.AttributeMap;
 import org.jgraph.graph.Edge;
-import org.jgrapht.DirectedGraph;
+import org.micromodules.control.util.Predicates2;
 import org.micromodules.control.util.Predicates2.BooleanMixin;
 import org.micromodules.setup.Contract;
 import org.micromodules.setup.Module;
 
 import java.util.Collection;
+import java.util.EnumSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
-import java.util.function.Predicate;
 
 import static com.google.common.base.Preconditions.checkNotNull;
-import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Predicates.not;
 
 /**
  * @author dmitry.mamonov
@@ -24,15 +26,18 @@ import static com.google.common.base.Preconditions.checkState;
  */
 @Contract(__modules__.ModulesGraphModule.class)
 public final class GraphDomain {
-    public enum NodeType implements Predicate<Node>, BooleanMixin<Node> {
+    public enum NodeType implements java.util.function.Predicate<Node>, BooleanMixin<Node> {
         CodeNode,
         PackageNode,
         ModuleNode,
         JarNode,
         ProblemNode;
 
+        /**
+         * @return the only node of this type with given name, see {@link NodeRegistry}.
+         */
         public Node named(final String name) {
-            return new Node(name, this);
+            return NodeRegistry.intern(this, name);
         }
 
         @Override
@@ -71,39 +76,176 @@ public final class GraphDomain {
             this.allowLoopDependency = allowLoopDependency;
         }
 
-        public final void createEdge(final DirectedGraph<Node, NodeEdge> dg, final Node source, final Node target) {
+        final void createEdge(final CompactGraph.Builder builder, final Node source, final Node target) {
             if (!source.equals(target) || allowLoopDependency) {
-                checkState(dg.containsVertex(source), "No source node in graph: %s", source);
-                checkState(dg.containsVertex(target), "No target node in graph: %s", target);
-                final NodeEdge existingEdge = dg.getEdge(source, target);
-                if (existingEdge!=null){
-                    existingEdge.getTypes().add(this);
-                } else {
-                    dg.addEdge(source, target, new NodeEdge(this, source, target));
+                builder.addEdge(source, this, target);
+            }
+        }
+
+        /**
+         * @return bit of this type in edge type mask.
+         */
+        public int mask() {
+            return 1 << ordinal();
+        }
+
+        @Override
+        public boolean apply(final NodeEdge edge) {
+            return (edge.getTypeMask() & mask()) != 0;
+        }
+
+        @Override
+        public Predicate<NodeEdge> and(final Predicate<NodeEdge> other) {
+            return EdgeTypeFilter.and(this, other);
+        }
+
+        @Override
+        public Predicate<NodeEdge> andNot(final Predicate<NodeEdge> other) {
+            return EdgeTypeFilter.andNot(this, other);
+        }
+
+        @Override
+        public Predicate<NodeEdge> or(final Predicate<NodeEdge> other) {
+            return EdgeTypeFilter.or(this, other);
+        }
+
+        public static ImmutableSet<EdgeType> typesOf(final int typeMask) {
+            final Set<EdgeType> types = EnumSet.noneOf(EdgeType.class);
+            for (final EdgeType type : values()) {
+                if ((typeMask & type.mask()) != 0) {
+                    types.add(type);
                 }
             }
+            return Sets.immutableEnumSet(types);
+        }
+    }
+
+    /**
+     * Edge filter made of edge types, compiled to masks: edge passes when it has all required types,
+     * at least one of optional types if there are some, and none of excluded types.
+     * Combinations of edge types by {@code and}, {@code andNot} and {@code or} are compiled
+     * to a single filter when masks could express them, so traversal tests edge type mask without touching edge object.
+     */
+    public static final class EdgeTypeFilter implements BooleanMixin<NodeEdge> {
+        private final int requiredMask;
+        private final int anyMask;
+        private final int excludedMask;
+
+        private EdgeTypeFilter(final int requiredMask, final int anyMask, final int excludedMask) {
+            //single optional type is a required one:
+            final boolean singleAny = Integer.bitCount(anyMask) == 1;
+            this.requiredMask = singleAny ? requiredMask | anyMask : requiredMask;
+            this.anyMask = singleAny ? 0 : anyMask;
+            this.excludedMask = excludedMask;
+        }
+
+        /**
+         * @return compiled filter or null if predicate is not made of edge types.
+         */
+        public static EdgeTypeFilter compile(final Predicate<NodeEdge> predicate) {
+            if (predicate instanceof EdgeTypeFilter) {
+                return (EdgeTypeFilter) predicate;
+            } else if (predicate instanceof EdgeType) {
+                return new EdgeTypeFilter(((EdgeType) predicate).mask(), 0, 0);
+            } else {
+                return null;
+            }
+        }
+
+        public static Predicate<NodeEdge> and(final Predicate<NodeEdge> left, final Predicate<NodeEdge> right) {
+            final EdgeTypeFilter leftFilter = compile(left);
+            final EdgeTypeFilter rightFilter = compile(right);
+            if (leftFilter != null && rightFilter != null
+                    && (leftFilter.anyMask == 0 || rightFilter.anyMask == 0 || leftFilter.anyMask == rightFilter.anyMask)) {
+                return new EdgeTypeFilter(leftFilter.requiredMask | rightFilter.requiredMask,
+                        leftFilter.anyMask | rightFilter.anyMask,
+                        leftFilter.excludedMask | rightFilter.excludedMask);
+            }
+            return Predicates2.and(left, right);
+        }
+
+        public static Predicate<NodeEdge> andNot(final Predicate<NodeEdge> left, final Predicate<NodeEdge> right) {
+            final EdgeTypeFilter leftFilter = compile(left);
+            final EdgeTypeFilter rightFilter = compile(right);
+            if (leftFilter != null && rightFilter != null && rightFilter.isAnyOf()) {
+                return new EdgeTypeFilter(leftFilter.requiredMask, leftFilter.anyMask, leftFilter.excludedMask | rightFilter.getAnyOfMask());
+            }
+            return Predicates2.and(left, not(right));
+        }
+
+        public static Predicate<NodeEdge> or(final Predicate<NodeEdge> left, final Predicate<NodeEdge> right) {
+            final EdgeTypeFilter leftFilter = compile(left);
+            final EdgeTypeFilter rightFilter = compile(right);
+            if (leftFilter != null && rightFilter != null && leftFilter.isAnyOf() && rightFilter.isAnyOf()) {
+                return new EdgeTypeFilter(0, leftFilter.getAnyOfMask() | rightFilter.getAnyOfMask(), 0);
+            }
+            return Predicates2.or(left, right);
+        }
+
+        /**
+         * @return true if filter passes edges having at least one type of {@link #getAnyOfMask()}.
+         */
+        boolean isAnyOf() {
+            return excludedMask == 0 && (requiredMask == 0 ? anyMask != 0 : anyMask == 0 && Integer.bitCount(requiredMask) == 1);
+        }
+
+        int getAnyOfMask() {
+            return requiredMask | anyMask;
+        }
+
+        public boolean test(final int typeMask) {
+            return (typeMask & requiredMask) == requiredMask
+                    && (anyMask == 0 || (typeMask & anyMask) != 0)
+                    && (typeMask & excludedMask) == 0;
         }
 
         @Override
         public boolean apply(final NodeEdge edge) {
-            return edge.getTypes().contains(this);
+            return test(edge.getTypeMask());
+        }
+
+        @Override
+        public Predicate<NodeEdge> and(final Predicate<NodeEdge> other) {
+            return and(this, other);
+        }
+
+        @Override
+        public Predicate<NodeEdge> andNot(final Predicate<NodeEdge> other) {
+            return andNot(this, other);
+        }
+
+        @Override
+        public Predicate<NodeEdge> or(final Predicate<NodeEdge> other) {
+            return or(this, other);
+        }
+
+        @Override
+        public String toString() {
+            return "EdgeTypeFilter{all: " + EdgeType.typesOf(requiredMask) + ", any: " + EdgeType.typesOf(anyMask) + ", none: " + EdgeType.typesOf(excludedMask) + "}";
         }
     }
 
     public static final class NodeEdge implements Edge {
-        private final Set<EdgeType> types = new TreeSet<>();
+        private final int typeMask;
         private final Node source;
         private final Node target;
 
 
-        private NodeEdge(final EdgeType type, final Node source, final Node target) {
-            this.types.add(type);
+        NodeEdge(final int typeMask, final Node source, final Node target) {
+            this.typeMask = typeMask;
             this.source = source;
             this.target = target;
         }
 
         public Set<EdgeType> getTypes() {
-            return types;
+            return EdgeType.typesOf(typeMask);
+        }
+
+        /**
+         * @return types of edge as bits of {@link EdgeType#mask()}.
+         */
+        public int getTypeMask() {
+            return typeMask;
         }
 
         @Override
@@ -157,10 +299,13 @@ public final class GraphDomain {
             if (!source.equals(nodeEdge.source)) {
                 return false;
             }
-            //noinspection RedundantIfStatement
             if (!target.equals(nodeEdge.target)) {
                 return false;
             }
+            //noinspection RedundantIfStatement
+            if (typeMask != nodeEdge.typeMask) {
+                return false;
+            }
 
             return true;
         }
@@ -169,22 +314,30 @@ public final class GraphDomain {
         public int hashCode() {
             int result = source.hashCode();
             result = 31 * result + target.hashCode();
+            result = 31 * result + typeMask;
             return result;
         }
 
         @Override
         public String toString() {
-            return source+" --"+types+"-> "+target;
+            return source+" --"+getTypes()+"-> "+target;
         }
     }
 
+    /**
+     * Nodes are interned by {@link NodeType#named(String)}, so equal nodes are the same instance.
+     */
     public static class Node implements BooleanMixin<Node>, Comparable<Node> {
         private final String name;
         private final NodeType type;
+        private final int ordinal;
+        private final int hash;
 
-        private Node(final String name, final NodeType type) {
-            this.name = name.replace('/', '.');
+        Node(final String name, final NodeType type, final int ordinal) {
+            this.name = name;
             this.type = type;
+            this.ordinal = ordinal;
+            this.hash = 31 * name.hashCode() + type.ordinal();
         }
 
         public String getName() {
@@ -199,6 +352,13 @@ public final class GraphDomain {
             return type;
         }
 
+        /**
+         * @return dense number of node, unique among nodes in use, ordinal of a dropped node is reused.
+         */
+        public int getOrdinal() {
+            return ordinal;
+        }
+
         public void appendToHtml(final Html html) {
             html.span().attr("title", toString()).text(getSimpleName()).end();
         }
@@ -221,33 +381,12 @@ public final class GraphDomain {
 
         @Override
         public boolean equals(final Object o) {
-            if (this == o) {
-                return true;
-            }
-            if (!(o instanceof Node)) {
-                return false;
-            }
-
-            final Node micro = (Node) o;
-
-            //noinspection ConstantConditions
-            if (name != null ? !name.equals(micro.name) : micro.name != null) {
-                return false;
-            }
-            //noinspection RedundantIfStatement
-            if (type != micro.type) {
-                return false;
-            }
-
-            return true;
+            return this == o;
         }
 
         @Override
         public int hashCode() {
-            //noinspection ConstantConditions
-            int result = name != null ? name.hashCode() : 0;
-            result = 31 * result + (type != null ? type.hashCode() : 0);
-            return result;
+            return hash;
         }
 
         @Override
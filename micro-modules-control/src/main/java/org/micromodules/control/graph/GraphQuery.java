@@ -1,30 +1,30 @@
 package org.micromodules.control.graph;
 
 import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import org.jgrapht.DirectedGraph;
-import org.jgrapht.graph.DirectedMaskSubgraph;
-import org.jgrapht.graph.MaskFunctor;
 import org.micromodules.control.graph.GraphDomain.*;
 import org.micromodules.setup.Contract;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 import java.util.TreeSet;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Predicates.alwaysTrue;
 import static com.google.common.collect.ImmutableSet.copyOf;
 import static com.google.common.collect.ImmutableSet.of;
-import static com.google.common.collect.Iterables.*;
 import static org.micromodules.control.graph.GraphQuery.GraphDirection.Backward;
 import static org.micromodules.control.graph.GraphQuery.GraphDirection.Forward;
 import static org.micromodules.control.util.Predicates2.or;
 
 /**
+ * Queries over a frozen graph. Every stage of query and every result is an immutable value,
+ * so a stage could be continued more than once and shared between threads.
+ *
  * @author dmitry.mamonov
  *         Created: 2014-12-29 3:54 PM
  */
@@ -37,6 +37,12 @@ public class GraphQuery  {
         GraphPathDirection from(Iterable<Node> nodes);
 
         GraphPathDirection from(Predicate<Node> nodeFilter);
+
+        /**
+         * Walks compiled plan from every node separately, as {@code from(node).execute(plan)} does,
+         * but in a single sweep of graph for all nodes.
+         */
+        ImmutableMap<Node, GraphPathFinish> executeEach(Iterable<Node> nodes, QueryPlan plan);
     }
 
     public interface GraphPathDirection {
@@ -44,6 +50,11 @@ public class GraphQuery  {
 
         GraphPathEdgeFilter backward();
 
+        /**
+         * Walks compiled plan from start set of this direction, steps made before are not part of plan path.
+         */
+        GraphPathFinish execute(QueryPlan plan);
+
         ImmutableSet<Node> getStartSet();
     }
 
@@ -101,8 +112,23 @@ public class GraphQuery  {
     protected enum GraphDirection {
         Forward {
             @Override
-            Set<NodeEdge> go(final DirectedGraph<Node, NodeEdge> g, final Node fromNode) {
-                return g.outgoingEdgesOf(fromNode);
+            int edgesStart(final CompactGraph g, final int fromNodeId) {
+                return g.outgoingStart(fromNodeId);
+            }
+
+            @Override
+            int edgesEnd(final CompactGraph g, final int fromNodeId) {
+                return g.outgoingEnd(fromNodeId);
+            }
+
+            @Override
+            int edgeAt(final CompactGraph g, final int index) {
+                return index;
+            }
+
+            @Override
+            int toId(final CompactGraph g, final int edgeId) {
+                return g.edgeTarget(edgeId);
             }
 
             @Override
@@ -117,8 +143,23 @@ public class GraphQuery  {
         },
         Backward {
             @Override
-            Set<NodeEdge> go(final DirectedGraph<Node, NodeEdge> g, final Node fromNode) {
-                return g.incomingEdgesOf(fromNode);
+            int edgesStart(final CompactGraph g, final int fromNodeId) {
+                return g.incomingStart(fromNodeId);
+            }
+
+            @Override
+            int edgesEnd(final CompactGraph g, final int fromNodeId) {
+                return g.incomingEnd(fromNodeId);
+            }
+
+            @Override
+            int edgeAt(final CompactGraph g, final int index) {
+                return g.incomingEdge(index);
+            }
+
+            @Override
+            int toId(final CompactGraph g, final int edgeId) {
+                return g.edgeSource(edgeId);
             }
 
             @Override
@@ -132,47 +173,88 @@ public class GraphQuery  {
             }
         };
 
-        abstract Set<NodeEdge> go(DirectedGraph<Node, NodeEdge> g, Node fromNode);
+        /**
+         * Edges of node in this direction are {@link #edgeAt} of indexes from start to end exclusively.
+         */
+        abstract int edgesStart(CompactGraph g, int fromNodeId);
+
+        abstract int edgesEnd(CompactGraph g, int fromNodeId);
+
+        abstract int edgeAt(CompactGraph g, int index);
+
+        abstract int toId(CompactGraph g, int edgeId);
 
         abstract Node to(NodeEdge edge);
 
         abstract Node from(NodeEdge edge);
     }
 
-    public static GraphPathStart start(final DirectedGraph<Node, NodeEdge> dg) {
+    /**
+     * @param reachability closures answering recursive queries, or null if every query walks the graph.
+     */
+    static GraphPathStart start(final CompactGraph g, final ReachabilityIndex reachability) {
+        final PlanExecutor executor = new PlanExecutor(g, reachability);
         return new GraphPathStart() {
             @Override
             public GraphPathDirection from(final Node node) {
-                return new GraphPathDirectionImpl(of(node), new GraphPathImpl());
+                return new GraphPathDirectionImpl(of(node), ImmutableList.of());
             }
 
             @Override
             public GraphPathDirection from(final Iterable<Node> nodes) {
-                return new GraphPathDirectionImpl(copyOf(nodes), new GraphPathImpl());
+                return new GraphPathDirectionImpl(copyOf(nodes), ImmutableList.of());
             }
 
             @Override
             public GraphPathDirection from(final Predicate<Node> nodeFilter) {
-                return new GraphPathDirectionImpl(copyOf(Sets.filter(dg.vertexSet(), nodeFilter)), new GraphPathImpl());
+                final ImmutableSet.Builder<Node> startSet = ImmutableSet.builder();
+                for (int nodeId = 0; nodeId < g.nodeCount(); nodeId++) {
+                    if (nodeFilter.apply(g.node(nodeId))) {
+                        startSet.add(g.node(nodeId));
+                    }
+                }
+                return new GraphPathDirectionImpl(startSet.build(), ImmutableList.of());
+            }
+
+            @Override
+            public ImmutableMap<Node, GraphPathFinish> executeEach(final Iterable<Node> nodes, final QueryPlan plan) {
+                checkNotNull(plan, "plan required");
+                final ImmutableList<Node> startNodes = copyOf(nodes).asList();
+                final ImmutableList<ImmutableList<PlanExecutor.Entry>> paths = executor.executeEach(plan, startNodes);
+                final QueryPlan.Segment last = plan.getSegments().get(plan.getSegments().size() - 1);
+                final ImmutableMap.Builder<Node, GraphPathFinish> result = ImmutableMap.builder();
+                for (int i = 0; i < startNodes.size(); i++) {
+                    result.put(startNodes.get(i), new GraphPathFinishImpl(paths.get(i),
+                            last.getFilterStart(), last.getFilterPath(), last.getFilterFinish()));
+                }
+                return result.build();
             }
 
             class GraphPathDirectionImpl implements GraphPathDirection {
                 private final ImmutableSet<Node> startSet;
-                private final GraphPathImpl graphPath;
+                private final ImmutableList<PlanExecutor.Entry> path;
 
-                public GraphPathDirectionImpl(final ImmutableSet<Node> startSet, final GraphPathImpl graphPath) {
+                public GraphPathDirectionImpl(final ImmutableSet<Node> startSet, final ImmutableList<PlanExecutor.Entry> path) {
                     this.startSet = checkNotNull(startSet);
-                    this.graphPath = graphPath;
+                    this.path = checkNotNull(path);
                 }
 
                 @Override
                 public GraphPathEdgeFilter forward() {
-                    return new GraphPathEdgeFilterImpl(startSet, Forward, graphPath);
+                    return new GraphPathEdgeFilterImpl(startSet, Forward, path, null, null);
                 }
 
                 @Override
                 public GraphPathEdgeFilter backward() {
-                    return new GraphPathEdgeFilterImpl(startSet, Backward, graphPath);
+                    return new GraphPathEdgeFilterImpl(startSet, Backward, path, null, null);
+                }
+
+                @Override
+                public GraphPathFinish execute(final QueryPlan plan) {
+                    checkNotNull(plan, "plan required");
+                    final QueryPlan.Segment last = plan.getSegments().get(plan.getSegments().size() - 1);
+                    return new GraphPathFinishImpl(executor.execute(plan, startSet),
+                            last.getFilterStart(), last.getFilterPath(), last.getFilterFinish());
                 }
 
                 public ImmutableSet<Node> getStartSet() {
@@ -180,242 +262,114 @@ public class GraphQuery  {
                 }
             }
 
-            class GraphPathEdgeFilterImpl implements GraphPathEdgeFilter, GraphPathBacktrace {
+            /**
+             * Step under construction, every filter gives a new step and keeps this one as is.
+             */
+            class GraphPathEdgeFilterImpl implements GraphPathEdgeFilter {
                 private final ImmutableSet<Node> startSet;
                 private final GraphDirection direction;
-                private final GraphPathImpl graphPath;
-                private Predicate<NodeEdge> edgeFilter = null;
-                private Predicate<Node> nodeFilter = null;
-
-                //TODO [DM] separate this filters into derived instance
-                private Predicate<Node> filterStart;
-                private Predicate<Node> filterPath;
-                private Predicate<Node> filterFinish;
+                private final ImmutableList<PlanExecutor.Entry> path;
+                private final Predicate<NodeEdge> edgeFilter;
+                private final Predicate<Node> nodeFilter;
 
-                public GraphPathEdgeFilterImpl(final ImmutableSet<Node> startSet, final GraphDirection direction, final GraphPathImpl graphPath) {
+                public GraphPathEdgeFilterImpl(final ImmutableSet<Node> startSet, final GraphDirection direction, final ImmutableList<PlanExecutor.Entry> path,
+                                               final Predicate<NodeEdge> edgeFilter, final Predicate<Node> nodeFilter) {
                     this.startSet = checkNotNull(startSet);
                     this.direction = checkNotNull(direction);
-                    this.graphPath = checkNotNull(graphPath);
+                    this.path = checkNotNull(path);
+                    this.edgeFilter = edgeFilter;
+                    this.nodeFilter = nodeFilter;
                 }
 
                 @Override
                 public GraphPathEdgeFilter by(final Predicate<NodeEdge> edgeFilter) {
                     checkNotNull(edgeFilter);
-                    this.edgeFilter = this.edgeFilter != null
-                            ? or(this.edgeFilter, edgeFilter)
-                            : edgeFilter;
-                    return this;
+                    return new GraphPathEdgeFilterImpl(startSet, direction, path,
+                            this.edgeFilter != null ? EdgeTypeFilter.or(this.edgeFilter, edgeFilter) : edgeFilter,
+                            nodeFilter);
                 }
 
                 @Override
                 public GraphPathNodeFilter to(final Predicate<Node> nodeFilter) {
                     checkNotNull(nodeFilter);
-                    this.nodeFilter = this.nodeFilter != null
-                            ? or(this.nodeFilter, nodeFilter)
-                            : nodeFilter;
-                    return this;
+                    return new GraphPathEdgeFilterImpl(startSet, direction, path, edgeFilter,
+                            this.nodeFilter != null ? or(this.nodeFilter, nodeFilter) : nodeFilter);
                 }
 
                 @Override
                 public GraphPathBacktrace single() {
-                    stepSingleImpl(startSet, new HashSet<>());
-                    return this;
+                    return step(false);
                 }
 
                 @Override
                 public GraphPathBacktrace recursive() {
-                    stepRecursiveImpl(startSet, new HashSet<>());
-                    return this;
+                    return step(true);
                 }
 
-                private ImmutableSet<Node> stepSingleImpl(final ImmutableSet<Node> fromSet, final Set<NodeEdge> passedSet) {
-                    final Predicate<NodeEdge> edgePredicate = edgeFilter != null ? edgeFilter : alwaysTrue();
-                    final Predicate<Node> nodePredicate = nodeFilter != null ? nodeFilter : alwaysTrue();
-                    final Set<NodeEdge> pathStepSet = new HashSet<>();
-                    //noinspection CodeBlock2Expr
-                    fromSet.forEach(start -> {
-                        direction.go(dg, start).stream()
-                                .filter(edgePredicate::apply)
-                                .forEach(edge -> {
-                                    if (!passedSet.contains(edge)) {
-                                        if (nodePredicate.apply(direction.to(edge))) {
-                                            passedSet.add(edge);
-                                            pathStepSet.add(edge);
-                                        }
-                                    }
-                                });
-                    });
-                    GraphPathEdgeFilterImpl.this.graphPath.createPathEntry(direction).getEdgeSet().addAll(pathStepSet);
-                    return copyOf(pathStepSet.stream().map(direction::to).iterator());
+                private GraphPathBacktrace step(final boolean recursive) {
+                    final List<PlanExecutor.Entry> stepPath = new ArrayList<>(path);
+                    executor.walk(QueryPlan.Segment.step(direction, edgeFilter, nodeFilter, recursive), executor.idsOf(startSet), stepPath);
+                    return new GraphPathFinishImpl(ImmutableList.copyOf(stepPath), null, null, null);
                 }
+            }
 
-                private void stepRecursiveImpl(final ImmutableSet<Node> fromSet, final Set<NodeEdge> passedSet) {
-                    final ImmutableSet<Node> toSet = stepSingleImpl(fromSet, passedSet);
-                    if (!toSet.isEmpty()) {
-                        stepRecursiveImpl(toSet, passedSet);
-                    }
+            /**
+             * Path found and filters of result, every filter gives a new result and keeps this one as is.
+             */
+            class GraphPathFinishImpl implements GraphPathBacktrace {
+                private final ImmutableList<PlanExecutor.Entry> path;
+                private final Predicate<Node> filterStart;
+                private final Predicate<Node> filterPath;
+                private final Predicate<Node> filterFinish;
+
+                public GraphPathFinishImpl(final ImmutableList<PlanExecutor.Entry> path,
+                                           final Predicate<Node> filterStart, final Predicate<Node> filterPath, final Predicate<Node> filterFinish) {
+                    this.path = path;
+                    this.filterStart = filterStart;
+                    this.filterPath = filterPath;
+                    this.filterFinish = filterFinish;
                 }
 
                 @Override
                 public GraphPathFinish backtrace() {
-                    this.graphPath.backtrace();
-                    return this;
+                    final List<PlanExecutor.Entry> backtracePath = new ArrayList<>(path);
+                    executor.backtrace(backtracePath);
+                    return new GraphPathFinishImpl(ImmutableList.copyOf(backtracePath), filterStart, filterPath, filterFinish);
                 }
 
                 @Override
                 public GraphPathFinish filterStart(final Predicate<Node> predicate) {
-                    this.filterStart = predicate != null ? predicate : alwaysTrue();
-                    return this;
+                    return new GraphPathFinishImpl(path, predicate != null ? predicate : alwaysTrue(), filterPath, filterFinish);
                 }
 
                 @Override
                 public GraphPathFinish filterPath(final Predicate<Node> predicate) {
-                    this.filterPath = predicate != null ? predicate : alwaysTrue();
-                    return this;
+                    return new GraphPathFinishImpl(path, filterStart, predicate != null ? predicate : alwaysTrue(), filterFinish);
                 }
 
                 @Override
                 public GraphPathFinish filterFinish(final Predicate<Node> predicate) {
-                    this.filterFinish = predicate != null ? predicate : alwaysTrue();
-                    return this;
+                    return new GraphPathFinishImpl(path, filterStart, filterPath, predicate != null ? predicate : alwaysTrue());
                 }
 
                 @Override
                 public ImmutableSet<Node> set() {
-                    if (this.filterStart == null && this.filterPath == null && this.filterFinish == null) {
-                        this.filterStart = alwaysTrue();
-                        this.filterPath = alwaysTrue();
-                        this.filterFinish = alwaysTrue();
-                    }
-                    final TreeSet<Node> resultSet = new TreeSet<>();
-                    if (this.filterStart != null) {
-                        resultSet.addAll(Sets.filter(graphPath.getStartSet(), this.filterStart));
-                    }
-                    if (this.filterPath != null) {
-                        resultSet.addAll(Sets.filter(graphPath.getPathSet(), this.filterPath));
-                    }
-                    if (this.filterFinish != null) {
-                        resultSet.addAll(Sets.filter(graphPath.getFinishSet(), this.filterFinish));
-                    }
-                    //TODO [DM] deal with this state!
-                    this.filterStart = null;
-                    this.filterPath = null;
-                    this.filterFinish = null;
-                    return copyOf(resultSet);
+                    return executor.nodesOf(executor.select(path, filterStart, filterPath, filterFinish));
                 }
 
                 @Override
                 public DirectedGraph<Node, NodeEdge> graph() {
-                    return graphImpl(true);
+                    return g.toDirectedGraph(set(), executor.edgesOf(path)::contains);
                 }
 
                 @Override
                 public DirectedGraph<Node, NodeEdge> unmaskedEdgesGraph() {
-                    return graphImpl(false);
-                }
-
-                private DirectedGraph<Node, NodeEdge> graphImpl(final boolean maskEdges) {
-                    return new DirectedMaskSubgraph<>(dg, new MaskFunctor<Node, NodeEdge>() {
-                        final ImmutableSet<Node> nodeSet = set();
-                        final ImmutableSet<NodeEdge> edgeSet = maskEdges ? graphPath.getEdgeSet() : null;
-
-                        @Override
-                        public boolean isEdgeMasked(final NodeEdge edge) {
-                            //noinspection SimplifiableConditionalExpression
-                            return maskEdges ? !edgeSet.contains(edge) : false;
-                        }
-
-                        @Override
-                        public boolean isVertexMasked(final Node node) {
-                            return !nodeSet.contains(node);
-                        }
-                    });
+                    return g.toDirectedGraph(set(), edge -> true);
                 }
 
-
-
                 @Override
                 public GraphPathDirection then() {
-                    return new GraphPathDirectionImpl(set(), graphPath.copy());
-                }
-            }
-
-            class GraphPathEntry {
-                private final GraphDirection direction;
-                private final Set<NodeEdge> edgeSet = new HashSet<>();
-
-                public GraphPathEntry(final GraphDirection direction) {
-                    this.direction = checkNotNull(direction);
-                }
-
-                public ImmutableSet<Node> getFromSet() {
-                    return copyOf(this.edgeSet.stream().map(direction::from).iterator());
-                }
-
-                public ImmutableSet<Node> getToSet() {
-                    return copyOf(this.edgeSet.stream().map(direction::to).iterator());
-                }
-
-                public Set<NodeEdge> getEdgeSet() {
-                    return edgeSet;
-                }
-
-                public void backtrace(final ImmutableSet<Node> nextFromSet) {
-                    final ImmutableSet<NodeEdge> removeSet = copyOf(filter(this.edgeSet, edge -> !nextFromSet.contains(direction.to(edge))));
-                    this.edgeSet.removeAll(removeSet);
-                }
-
-                public GraphDirection getDirection() {
-                    return direction;
-                }
-
-                @Override
-                public String toString() {
-                    return direction+" "+edgeSet;
-                }
-            }
-
-            class GraphPathImpl {
-                private final List<GraphPathEntry> pathList = new ArrayList<>();
-
-                public GraphPathEntry createPathEntry(final GraphDirection direction) {
-                    final GraphPathEntry newEntry = new GraphPathEntry(direction);
-                    this.pathList.add(newEntry);
-                    return newEntry;
-                }
-
-                public ImmutableSet<Node> getStartSet() {
-                    return pathList.get(0).getFromSet();
-                }
-
-                public ImmutableSet<Node> getPathSet() {
-                    return copyOf(concat(copyOf(pathList.subList(0, pathList.size() - 1).stream().map(GraphPathEntry::getToSet).iterator())));
-                }
-
-                public ImmutableSet<Node> getFinishSet() {
-                    return pathList.get(pathList.size() - 1).getToSet();
-                }
-
-                public ImmutableSet<NodeEdge> getEdgeSet() {
-                    return copyOf(concat(transform(pathList, GraphPathEntry::getEdgeSet)));
-                }
-
-                public void backtrace() {
-                    ImmutableSet<Node> nextFromSet = pathList.get(pathList.size() - 1).getFromSet();
-                    for (int i = pathList.size() - 2; i >= 0; i--) {
-                        final GraphPathEntry entry = pathList.get(i);
-                        entry.backtrace(nextFromSet);
-                        nextFromSet = entry.getFromSet();
-                    }
-                }
-
-                public GraphPathImpl copy() {
-                    final GraphPathImpl pathCopy = new GraphPathImpl();
-                    //noinspection CodeBlock2Expr
-                    pathList.forEach(step -> {
-                        pathCopy.createPathEntry(step.getDirection()).getEdgeSet().addAll(step.getEdgeSet());
-                    });
-                    return pathCopy;
+                    return new GraphPathDirectionImpl(set(), path);
                 }
             }
         };
@@ -0,0 +1,311 @@
+package org.micromodules.control.graph;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import org.micromodules.control.graph.GraphDomain.EdgeType;
+import org.micromodules.control.graph.GraphDomain.Node;
+import org.micromodules.control.graph.GraphDomain.NodeType;
+import org.micromodules.control.spec.ModuleSpec;
+import org.micromodules.setup.Module;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Binary snapshot of a complete graph: int arrays of graph, node table and module specifications.
+ * Snapshot is opened by memory mapping, int arrays of graph are read from mapping as is and
+ * only node names are decoded, so opened graph is ready in a moment and takes no heap for edges.
+ * Counts, offsets and node types are checked on open, file which does not match them is rejected.
+ * Classes of module specifications are loaded on demand only.
+ * <p>
+ * Layout: header ints (magic, version, node types count, edge types count, nodes count, edges count),
+ * node type ordinals, int arrays of {@link CompactGraph#writeTo}, then strings: names of node and edge types,
+ * which must match current ones, node names and module specifications.
+ */
+final class GraphSnapshot {
+    private static final int MAGIC = 0x4D4D4753;
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 6;
+
+    private final CompactGraph graph;
+    private final ImmutableMap<Node, ModuleSpec> moduleSpecs;
+
+    private GraphSnapshot(final CompactGraph graph, final ImmutableMap<Node, ModuleSpec> moduleSpecs) {
+        this.graph = graph;
+        this.moduleSpecs = moduleSpecs;
+    }
+
+    CompactGraph getGraph() {
+        return graph;
+    }
+
+    ImmutableMap<Node, ModuleSpec> getModuleSpecs() {
+        return moduleSpecs;
+    }
+
+    static void write(final File file, final CompactGraph graph, final Collection<ModuleSpec> moduleSpecs) throws IOException {
+        checkNotNull(file, "file required");
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(NodeType.values().length);
+            out.writeInt(EdgeType.values().length);
+            out.writeInt(graph.nodeCount());
+            out.writeInt(graph.edgeCount());
+            for (int node = 0; node < graph.nodeCount(); node++) {
+                out.writeInt(graph.node(node).getType().ordinal());
+            }
+            graph.writeTo(out);
+            for (final NodeType type : NodeType.values()) {
+                writeString(out, type.name());
+            }
+            for (final EdgeType type : EdgeType.values()) {
+                writeString(out, type.name());
+            }
+            for (int node = 0; node < graph.nodeCount(); node++) {
+                writeString(out, graph.node(node).getName());
+            }
+            out.writeInt(moduleSpecs.size());
+            for (final ModuleSpec spec : moduleSpecs) {
+                writeString(out, spec.getId());
+                out.writeBoolean(spec.isDeprecated());
+                writeStrings(out, spec.getComments());
+                writeStrings(out, spec.getContractClassNames());
+                writeStrings(out, spec.getImplementationClassNames());
+                writeStrings(out, ImmutableList.copyOf(spec.getAllowedDependencies().stream().map(Class::getName).iterator()));
+            }
+        }
+    }
+
+    /**
+     * @param classLoader loads classes of module specifications, when they are asked for.
+     */
+    static GraphSnapshot open(final File file, final ClassLoader classLoader) throws IOException {
+        checkNotNull(file, "file required");
+        checkNotNull(classLoader, "classLoader required");
+        final ByteBuffer buffer;
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            //mapping stays valid after channel is closed:
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        checkFormat(buffer.remaining() >= HEADER_INTS * 4 && buffer.getInt() == MAGIC && buffer.getInt() == VERSION, file);
+        final int nodeTypesCount = buffer.getInt();
+        final int edgeTypesCount = buffer.getInt();
+        final int nodesCount = buffer.getInt();
+        final int edgesCount = buffer.getInt();
+        if (nodeTypesCount != NodeType.values().length || edgeTypesCount != EdgeType.values().length) {
+            throw new IOException("Graph snapshot of other types: " + file);
+        }
+        final IntBuffer nodeTypes = ints(buffer, nodesCount, file);
+        final IntBuffer outgoingOffsets = ints(buffer, nodesCount + 1, file);
+        final IntBuffer edgeSources = ints(buffer, edgesCount, file);
+        final IntBuffer edgeTargets = ints(buffer, edgesCount, file);
+        final IntBuffer edgeTypeMasks = ints(buffer, edgesCount, file);
+        final IntBuffer incomingOffsets = ints(buffer, nodesCount + 1, file);
+        final IntBuffer incomingEdgeIds = ints(buffer, edgesCount, file);
+        checkOffsets(outgoingOffsets, edgesCount, file);
+        checkOffsets(incomingOffsets, edgesCount, file);
+        checkTypes(readStrings(buffer, nodeTypesCount, file), NodeType.values(), file);
+        checkTypes(readStrings(buffer, edgeTypesCount, file), EdgeType.values(), file);
+        final Node[] nodes = new Node[nodesCount];
+        for (int node = 0; node < nodesCount; node++) {
+            final int nodeType = nodeTypes.get(node);
+            checkFormat(nodeType >= 0 && nodeType < nodeTypesCount, file);
+            nodes[node] = NodeType.values()[nodeType].named(readString(buffer, file));
+        }
+        final ImmutableMap.Builder<Node, ModuleSpec> moduleSpecs = ImmutableMap.builder();
+        final int moduleSpecsCount = readInt(buffer, file);
+        for (int i = 0; i < moduleSpecsCount; i++) {
+            final String id = readString(buffer, file);
+            checkFormat(buffer.hasRemaining(), file);
+            final boolean deprecated = buffer.get() != 0;
+            final ImmutableList<String> comments = readStrings(buffer, readInt(buffer, file), file);
+            final ImmutableSet<String> contractClassNames = ImmutableSet.copyOf(readStrings(buffer, readInt(buffer, file), file));
+            final ImmutableSet<String> implementationClassNames = ImmutableSet.copyOf(readStrings(buffer, readInt(buffer, file), file));
+            final ImmutableSet<String> allowedDependencyNames = ImmutableSet.copyOf(readStrings(buffer, readInt(buffer, file), file));
+            moduleSpecs.put(NodeType.ModuleNode.named(id), new SnapshotModuleSpec(classLoader, id, deprecated, comments,
+                    contractClassNames, implementationClassNames, allowedDependencyNames));
+        }
+        final CompactGraph graph = CompactGraph.wrap(nodes, outgoingOffsets, edgeSources, edgeTargets, edgeTypeMasks, incomingOffsets, incomingEdgeIds);
+        return new GraphSnapshot(graph, moduleSpecs.build());
+    }
+
+    private static IntBuffer ints(final ByteBuffer buffer, final int count, final File file) throws IOException {
+        checkFormat(count >= 0 && count <= buffer.remaining() / 4, file);
+        final ByteBuffer slice = buffer.slice();
+        slice.limit(count * 4);
+        buffer.position(buffer.position() + count * 4);
+        return slice.asIntBuffer();
+    }
+
+    /**
+     * Offsets of edge lists start at zero, never decrease and end at edges count.
+     */
+    private static void checkOffsets(final IntBuffer offsets, final int edgesCount, final File file) throws IOException {
+        checkFormat(offsets.get(0) == 0 && offsets.get(offsets.limit() - 1) == edgesCount, file);
+        for (int index = 1; index < offsets.limit(); index++) {
+            checkFormat(offsets.get(index - 1) <= offsets.get(index), file);
+        }
+    }
+
+    private static void checkFormat(final boolean expression, final File file) throws IOException {
+        if (!expression) {
+            throw new IOException("Unsupported graph snapshot format: " + file);
+        }
+    }
+
+    private static void checkTypes(final List<String> names, final Enum<?>[] types, final File file) throws IOException {
+        if (names.size() != types.length) {
+            throw new IOException("Graph snapshot of other types: " + file);
+        }
+        for (int i = 0; i < types.length; i++) {
+            if (!types[i].name().equals(names.get(i))) {
+                throw new IOException("Graph snapshot of other types: " + file);
+            }
+        }
+    }
+
+    private static void writeString(final DataOutputStream out, final String string) throws IOException {
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeStrings(final DataOutputStream out, final Collection<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (final String string : strings) {
+            writeString(out, string);
+        }
+    }
+
+    private static int readInt(final ByteBuffer buffer, final File file) throws IOException {
+        checkFormat(buffer.remaining() >= 4, file);
+        return buffer.getInt();
+    }
+
+    private static String readString(final ByteBuffer buffer, final File file) throws IOException {
+        final int length = readInt(buffer, file);
+        checkFormat(length >= 0 && length <= buffer.remaining(), file);
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static ImmutableList<String> readStrings(final ByteBuffer buffer, final int count, final File file) throws IOException {
+        //every string takes at least its length:
+        checkFormat(count >= 0 && count <= buffer.remaining() / 4, file);
+        final ImmutableList.Builder<String> result = ImmutableList.builder();
+        for (int i = 0; i < count; i++) {
+            result.add(readString(buffer, file));
+        }
+        return result.build();
+    }
+
+    /**
+     * Specification as it was when snapshot was written, classes are loaded by name when asked for.
+     */
+    private static class SnapshotModuleSpec implements ModuleSpec {
+        private final ClassLoader classLoader;
+        private final String id;
+        private final boolean deprecated;
+        private final ImmutableList<String> comments;
+        private final ImmutableSet<String> contractClassNames;
+        private final ImmutableSet<String> implementationClassNames;
+        private final ImmutableSet<String> allClassNames;
+        private final ImmutableSet<String> allowedDependencyNames;
+
+        private SnapshotModuleSpec(final ClassLoader classLoader, final String id, final boolean deprecated, final ImmutableList<String> comments,
+                                   final ImmutableSet<String> contractClassNames, final ImmutableSet<String> implementationClassNames,
+                                   final ImmutableSet<String> allowedDependencyNames) {
+            this.classLoader = classLoader;
+            this.id = id;
+            this.deprecated = deprecated;
+            this.comments = comments;
+            this.contractClassNames = contractClassNames;
+            this.implementationClassNames = implementationClassNames;
+            this.allClassNames = ImmutableSet.copyOf(Sets.union(contractClassNames, implementationClassNames));
+            this.allowedDependencyNames = allowedDependencyNames;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public Class<? extends Module> getModule() {
+            return loadClass(id).asSubclass(Module.class);
+        }
+
+        @Override
+        public boolean isDeprecated() {
+            return deprecated;
+        }
+
+        @Override
+        public ImmutableList<String> getComments() {
+            return comments;
+        }
+
+        @Override
+        public ImmutableSet<String> getImplementationClassNames() {
+            return implementationClassNames;
+        }
+
+        @Override
+        public ImmutableSet<String> getContractClassNames() {
+            return contractClassNames;
+        }
+
+        @Override
+        public ImmutableSet<String> getAllClassNames() {
+            return allClassNames;
+        }
+
+        @Override
+        public ImmutableSet<Class<?>> getImplementationClasses() {
+            return loadClasses(implementationClassNames);
+        }
+
+        @Override
+        public ImmutableSet<Class<?>> getContractClasses() {
+            return loadClasses(contractClassNames);
+        }
+
+        @Override
+        public ImmutableSet<Class<?>> getAllClasses() {
+            return loadClasses(allClassNames);
+        }
+
+        @Override
+        public ImmutableSet<Class<? extends Module>> getAllowedDependencies() {
+            return ImmutableSet.copyOf(allowedDependencyNames.stream().map(name -> loadClass(name).asSubclass(Module.class)).iterator());
+        }
+
+        private ImmutableSet<Class<?>> loadClasses(final ImmutableSet<String> classNames) {
+            return ImmutableSet.copyOf(classNames.stream().map(this::loadClass).iterator());
+        }
+
+        private Class<?> loadClass(final String className) {
+            try {
+                return Class.forName(className, false, classLoader);
+            } catch (final ClassNotFoundException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
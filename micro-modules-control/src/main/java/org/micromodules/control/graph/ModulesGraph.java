@@ -5,24 +5,41 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import org.jgrapht.DirectedGraph;
-import org.jgrapht.graph.DefaultDirectedGraph;
 import org.micromodules.control.analyze.ModulesAnalyzer;
 import org.micromodules.control.graph.GraphDomain.EdgeType;
 import org.micromodules.control.graph.GraphDomain.Node;
-import org.micromodules.control.graph.GraphDomain.NodeEdge;
 import org.micromodules.control.graph.GraphDomain.NodeType;
+import org.micromodules.control.graph.GraphQuery.GraphPathFinish;
 import org.micromodules.control.scan.ClasspathRelations;
+import org.micromodules.control.scan.DependencySink;
+import org.micromodules.control.scan.ScanSettings;
 import org.micromodules.control.spec.ModuleSpec;
 import org.micromodules.control.spec.ModulesSpecification;
+import org.micromodules.control.util.ClassNames;
+import org.micromodules.control.util.SymbolTable;
 import org.micromodules.setup.Module;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
 import static com.google.common.base.Preconditions.checkNotNull;
-import static com.google.common.base.Predicates.not;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.stream.Collectors.toList;
 import static org.micromodules.control.graph.GraphDomain.EdgeType.*;
 import static org.micromodules.control.graph.GraphDomain.Node.nodesToString;
 import static org.micromodules.control.graph.GraphDomain.NodeType.*;
-import static org.micromodules.control.util.Predicates2.and;
 
 /**
  * @author dmitry.mamonov
@@ -30,163 +47,679 @@ import static org.micromodules.control.util.Predicates2.and;
  */
 @org.micromodules.setup.Contract(__modules__.ModulesGraphModule.class)
 public class ModulesGraph {
-    private final DirectedGraph<Node, NodeEdge> graph = new DefaultDirectedGraph<>(NodeEdge.class);
-    private final ImmutableMap<Node, ModuleSpec> nodeToModuleSpecMap;
+    private CompactGraph.Builder builder = new CompactGraph.Builder();
+    /**
+     * Queries see graph as of the last {@link #freeze()}, so edges found by a query could be added in a batch.
+     */
+    private CompactGraph graph;
+    /**
+     * Closures of modules hierarchy and dependencies of frozen graph, for recursive queries.
+     */
+    private ReachabilityIndex reachability;
+    private ImmutableMap<Node, ModuleSpec> nodeToModuleSpecMap = ImmutableMap.of();
 
     public static ModulesGraph createFrom(final ClasspathRelations classpathRelations, final ModulesSpecification modulesSpecification) {
-        final ModulesGraph modulesGraph = new ModulesGraph(classpathRelations, modulesSpecification);
-        modulesGraph.simplify();
+        checkNotNull(classpathRelations, "classpathRelations required");
+        checkNotNull(modulesSpecification, "modulesSpecification required");
+        final ModulesGraph modulesGraph = new ModulesGraph();
+        modulesGraph.addClassNodes(classpathRelations.getClassNamesSet());
+        //dependency is either a scanned class or a jar, every name is resolved once:
+        final Node[] dependencyNodeById = new Node[classpathRelations.getSymbolTable().size()];
+        for (int clazzId = 0; clazzId < classpathRelations.getClassNamesSet().size(); clazzId++) {
+            modulesGraph.connectClass(classpathRelations, clazzId, dependencyNodeById);
+        }
+        modulesGraph.addModules(modulesSpecification);
+        modulesGraph.simplify(classpathRelations.getSettings().getParallelism());
+        modulesGraph.complete();
+        return modulesGraph;
+    }
+
+    /**
+     * Builds graph while classpath is scanned: class dependencies become graph edges as soon as they are scanned,
+     * so graph construction overlaps with scan and relations do not keep a copy of dependencies.
+     * Result is the same as {@link #createFrom(ClasspathRelations, ModulesSpecification)} gives.
+     */
+    public static ModulesGraph createStreaming(final ScanSettings settings, final ClassLoader classLoader, final String... packagePrefixes) {
+        final ModulesGraph modulesGraph = new ModulesGraph();
+        final ClasspathRelations classpathRelations = ClasspathRelations.createFrom(settings, classLoader, modulesGraph.new GraphDependencySink(), packagePrefixes);
+        modulesGraph.addModules(ModulesSpecification.createFrom(classpathRelations));
+        modulesGraph.simplify(settings.getParallelism());
+        modulesGraph.complete();
         return modulesGraph;
     }
 
-    private ModulesGraph(final ClasspathRelations classpathRelations, final ModulesSpecification modulesSpecification) {
+    /**
+     * Opens graph written by {@link #writeSnapshot(File)}, without scan and analysis.
+     * Opened graph is read from memory mapped file and could be used like a created one.
+     *
+     * @param classLoader loads classes of module specifications, when they are asked for.
+     */
+    public static ModulesGraph openSnapshot(final File file, final ClassLoader classLoader) {
+        final GraphSnapshot snapshot;
+        try {
+            snapshot = GraphSnapshot.open(file, classLoader);
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+        final ModulesGraph modulesGraph = new ModulesGraph();
+        modulesGraph.builder = null;
+        modulesGraph.graph = snapshot.getGraph();
+        modulesGraph.nodeToModuleSpecMap = snapshot.getModuleSpecs();
+        modulesGraph.indexReachability();
+        return modulesGraph;
+    }
+
+    private ModulesGraph() {
+    }
+
+    /**
+     * Graph of changed classpath made of this one. Edges of changed classes are replaced in place, dependencies are
+     * found again only for modules owning changed classes, using classes which moved between modules or changed their setup,
+     * and only these modules are analysed again. Changed modules hierarchy or granted dependencies make every module
+     * to be analysed again. This graph is not changed, so it could be queried while update goes.
+     *
+     * @param classpathRelations   relations of changed classpath, like {@link ClasspathRelations#rescan(Set)} gives.
+     * @param modulesSpecification specification made of changed classpath relations.
+     * @param changedClassNames    changed, created and deleted classes.
+     * @return graph same as {@link #createFrom(ClasspathRelations, ModulesSpecification)} gives for changed classpath.
+     */
+    public ModulesGraph update(final ClasspathRelations classpathRelations, final ModulesSpecification modulesSpecification, final Set<String> changedClassNames) {
         checkNotNull(classpathRelations, "classpathRelations required");
         checkNotNull(modulesSpecification, "modulesSpecification required");
+        checkNotNull(changedClassNames, "changedClassNames required");
+        final CompactGraph before = this.graph;
+        final ModulesGraph updated = new ModulesGraph();
+        updated.builder = before.toBuilder();
+        //classes which could change owner modules or modules they depend on:
+        final Set<Node> touchedClazzNodes = new LinkedHashSet<>();
+        updated.updateClasses(before, classpathRelations, changedClassNames, touchedClazzNodes);
+        final ImmutableMap<Node, ModuleSpec> specs = indexModuleSpecs(modulesSpecification);
+        final Set<Node> changedModules = new LinkedHashSet<>();
+        final boolean hierarchyChanged = updated.updateModules(before, nodeToModuleSpecMap, specs, changedModules, touchedClazzNodes);
+        updated.nodeToModuleSpecMap = specs;
+        updated.freeze();
 
-        classpathRelations.getClassesSet().forEach(clazz -> {
-            final Node packageNode = PackageNode.named(clazz.getPackage().getName());
-            final Node codeNode = NodeType.CodeNode.named(clazz.getName());
-            addNode(packageNode);
-            addNode(codeNode);
-            createEdge(packageNode, ContainsSubClass, codeNode);
+        final Set<Node> affectedModules = new LinkedHashSet<>();
+        changedModules.stream().filter(specs::containsKey).forEach(affectedModules::add);
+        touchedClazzNodes.forEach(clazz -> {
+            addOwners(before, clazz, affectedModules);
+            addOwners(updated.graph, clazz, affectedModules);
         });
+        affectedModules.removeIf(module -> !updated.containsNode(module));
+        updated.builder.removeEdgeTypes(affectedModules, true, Dependency.mask());
+        updated.addDependencies(affectedModules::contains);
+
+        updated.freeze();
+        final List<Node> analysedModules = hierarchyChanged ? updated.query().from(ModuleNode).getStartSet().asList()
+                : ImmutableList.copyOf(affectedModules);
+        updated.builder.removeEdgeTypes(analysedModules, true, NotAllowed.mask() | Allowed.mask() | RuleSuperModuleMustNotContainClasses.mask() | HasProblem.mask());
+        updated.freeze();
+        updated.simplify(classpathRelations.getSettings().getParallelism(), analysedModules);
+        updated.removeUselessNodes();
+        updated.removeDetachedNodes();
+        updated.complete();
+        return updated;
+    }
+
+    /**
+     * Replaces edges of changed classes and of classes using created ones, removes deleted classes.
+     */
+    private void updateClasses(final CompactGraph before, final ClasspathRelations classpathRelations, final Set<String> changedClassNames,
+                               final Set<Node> touchedClazzNodes) {
+        final SymbolTable symbolTable = classpathRelations.getSymbolTable();
+        final int clazzCount = classpathRelations.getClassNamesSet().size();
+        final boolean[] connected = new boolean[clazzCount];
+        final boolean[] created = new boolean[clazzCount];
+        boolean anyCreated = false;
+        final Set<Node> removedClazzNodes = new LinkedHashSet<>();
+        for (final String clazzName : changedClassNames) {
+            final Node clazzNode = CodeNode.named(clazzName);
+            final int clazzId = symbolTable.find(clazzNode.getName());
+            if (clazzId != SymbolTable.NO_ID && clazzId < clazzCount) {
+                connected[clazzId] = true;
+                if (!before.containsNode(clazzNode)) {
+                    created[clazzId] = true;
+                    anyCreated = true;
+                }
+            } else if (before.containsNode(clazzNode)) {
+                removedClazzNodes.add(clazzNode);
+                addUsers(before, clazzNode, touchedClazzNodes);
+            }
+        }
+        if (anyCreated) {
+            for (int clazzId = 0; clazzId < clazzCount; clazzId++) {
+                final int userId = clazzId;
+                classpathRelations.forEachDependencyClassId(clazzId, dependencyId -> {
+                    if (dependencyId < clazzCount && created[dependencyId]) {
+                        connected[userId] = true;
+                    }
+                });
+            }
+        }
+        final List<Node> connectedClazzNodes = new ArrayList<>();
+        for (int clazzId = 0; clazzId < clazzCount; clazzId++) {
+            if (connected[clazzId]) {
+                connectedClazzNodes.add(CodeNode.named(symbolTable.name(clazzId)));
+            }
+        }
+        touchedClazzNodes.addAll(removedClazzNodes);
+        touchedClazzNodes.addAll(connectedClazzNodes);
+
+        builder.removeEdgeTypes(connectedClazzNodes, true, UsesClass.mask() | UsesJar.mask() | ContainsSubClass.mask());
+        removedClazzNodes.forEach(this::removeNode);
+        for (int clazzId = 0; clazzId < clazzCount; clazzId++) {
+            if (created[clazzId]) {
+                addClassNode(symbolTable.name(clazzId));
+            }
+        }
+        final Node[] dependencyNodeById = new Node[symbolTable.size()];
+        for (int clazzId = 0; clazzId < clazzCount; clazzId++) {
+            if (connected[clazzId]) {
+                connectClass(classpathRelations, clazzId, dependencyNodeById);
+            }
+        }
+    }
+
+    /**
+     * Sets up modules which specification is changed, removes modules which are neither specified nor super modules any more.
+     *
+     * @return true if modules hierarchy or granted dependencies are changed.
+     */
+    private boolean updateModules(final CompactGraph before, final Map<Node, ModuleSpec> oldSpecs, final Map<Node, ModuleSpec> specs,
+                                  final Set<Node> changedModules, final Set<Node> touchedClazzNodes) {
+        boolean hierarchyChanged = false;
+        final Set<Node> superModules = new LinkedHashSet<>();
+        specs.values().forEach(spec -> {
+            final Node superModuleNode = superModuleNode(spec);
+            if (superModuleNode != null) {
+                superModules.add(superModuleNode);
+            }
+        });
+        final Set<Node> removedModules = new LinkedHashSet<>();
+        for (int node = 0; node < before.nodeCount(); node++) {
+            final Node module = before.node(node);
+            if (ModuleNode.test(module) && !specs.containsKey(module) && !superModules.contains(module)) {
+                removedModules.add(module);
+            }
+        }
+        for (final Map.Entry<Node, ModuleSpec> entry : oldSpecs.entrySet()) {
+            if (!specs.containsKey(entry.getKey())) {
+                changedModules.add(entry.getKey());
+                touchedClazzNodes.addAll(ownedClazzNodes(entry.getValue()));
+                hierarchyChanged = true;
+            }
+        }
+        for (final Map.Entry<Node, ModuleSpec> entry : specs.entrySet()) {
+            final ModuleSpec oldSpec = oldSpecs.get(entry.getKey());
+            final ModuleSpec spec = entry.getValue();
+            if (oldSpec == null) {
+                changedModules.add(entry.getKey());
+                touchedClazzNodes.addAll(ownedClazzNodes(spec));
+                hierarchyChanged = true;
+            } else {
+                final boolean sameClasses = oldSpec.getContractClassNames().equals(spec.getContractClassNames())
+                        && oldSpec.getImplementationClassNames().equals(spec.getImplementationClassNames());
+                final boolean sameHierarchy = Objects.equals(superModuleNode(oldSpec), superModuleNode(spec))
+                        && allowedDependencyNames(oldSpec).equals(allowedDependencyNames(spec));
+                if (!sameClasses || !sameHierarchy) {
+                    changedModules.add(entry.getKey());
+                    touchedClazzNodes.addAll(Sets.symmetricDifference(ownedClazzNodes(oldSpec), ownedClazzNodes(spec)));
+                    hierarchyChanged |= !sameHierarchy;
+                }
+            }
+        }
+        hierarchyChanged |= !removedModules.isEmpty();
+        //users of classes which moved between modules get other dependencies:
+        ImmutableSet.copyOf(touchedClazzNodes).forEach(clazz -> addUsers(before, clazz, touchedClazzNodes));
+
+        builder.removeEdgeTypes(changedModules, true, ContractClass.mask() | ImplementationClass.mask() | Granted.mask());
+        builder.removeEdgeTypes(changedModules, false, SubModule.mask());
+        removedModules.forEach(this::removeNode);
+        changedModules.stream().map(specs::get).filter(Objects::nonNull).forEach(this::addModule);
+        changedModules.stream().map(specs::get).filter(Objects::nonNull).forEach(this::addGrants);
+        return hierarchyChanged;
+    }
+
+    private static ImmutableSet<Node> ownedClazzNodes(final ModuleSpec spec) {
+        return ImmutableSet.copyOf(Sets.union(spec.getContractClassNames(), spec.getImplementationClassNames()).stream().map(CodeNode::named).iterator());
+    }
+
+    private static ImmutableSet<String> allowedDependencyNames(final ModuleSpec spec) {
+        return ImmutableSet.copyOf(spec.getAllowedDependencies().stream().map(Class::getName).iterator());
+    }
+
+    private static void addOwners(final CompactGraph g, final Node clazz, final Set<Node> owners) {
+        final int clazzId = g.id(clazz);
+        if (clazzId != CompactGraph.NO_ID) {
+            for (int index = g.incomingStart(clazzId); index < g.incomingEnd(clazzId); index++) {
+                final int edge = g.incomingEdge(index);
+                if ((g.edgeTypeMask(edge) & (ContractClass.mask() | ImplementationClass.mask())) != 0 && ModuleNode.test(g.node(g.edgeSource(edge)))) {
+                    owners.add(g.node(g.edgeSource(edge)));
+                }
+            }
+        }
+    }
+
+    private static void addUsers(final CompactGraph g, final Node clazz, final Set<Node> users) {
+        final int clazzId = g.id(clazz);
+        if (clazzId != CompactGraph.NO_ID) {
+            for (int index = g.incomingStart(clazzId); index < g.incomingEnd(clazzId); index++) {
+                final int edge = g.incomingEdge(index);
+                if ((g.edgeTypeMask(edge) & UsesClass.mask()) != 0) {
+                    users.add(g.node(g.edgeSource(edge)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Package, jar and problem nodes exist only while something is connected to them,
+     * as if graph is created from scratch. Jars of classpath are kept anyway.
+     */
+    private void removeDetachedNodes() {
+        freeze();
+        final ImmutableSet<Node> classpathJarNodes = classpathJarNodes();
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            final Node candidate = graph.node(node);
+            final boolean detached = graph.outgoingStart(node) == graph.outgoingEnd(node) && graph.incomingStart(node) == graph.incomingEnd(node);
+            if (detached && (PackageNode.test(candidate) || ProblemNode.test(candidate) || JarNode.test(candidate) && !classpathJarNodes.contains(candidate))) {
+                removeNode(candidate);
+            }
+        }
+    }
+
+
+    private void addClassNodes(final Iterable<String> clazzNames) {
+        clazzNames.forEach(this::addClassNode);
+        classpathJarNodes().forEach(this::addNode);
+    }
+
+    private void addClassNode(final String clazzName) {
+        final Node packageNode = PackageNode.named(ClassNames.packageName(clazzName));
+        final Node codeNode = NodeType.CodeNode.named(clazzName);
+        addNode(packageNode);
+        addNode(codeNode);
+        createEdge(packageNode, ContainsSubClass, codeNode);
+    }
+
+    private static ImmutableSet<Node> classpathJarNodes() {
+        final ImmutableSet.Builder<Node> result = ImmutableSet.builder();
         ImmutableList.copyOf(System.getProperty("java.class.path", "").split("[:;]")).forEach(jarPath -> {
             final String[] pathItems = jarPath.split("[/\\\\]");
             if (pathItems.length > 0) {
                 final String jarName = pathItems[pathItems.length - 1];
                 if (jarName.endsWith(".jar")) {
-                    this.addNode(JarNode.named(jarName));
+                    result.add(JarNode.named(jarName));
                 }
             }
         });
-        classpathRelations.getClassesSet().forEach(useClazz -> {
-            if (useClazz.getSimpleName().equals("__modules__") || (!useClazz.isInterface() && Module.class.isAssignableFrom(useClazz))){
-                return;
-            }
-            final Node clazzNode = CodeNode.named(useClazz.getName());
-            classpathRelations.getClassToDependencyClassMap().get(useClazz.getName()).forEach(dependencyClazzName -> {
-                final Node dependencyClazzNode = CodeNode.named(dependencyClazzName);
-                if (containsNode(dependencyClazzNode)) {
-                    createEdge(clazzNode, UsesClass, dependencyClazzNode);
-                } else {
-                    final Node jarNode = JarNode.named(classpathRelations.getJarName(dependencyClazzNode.getName()));
-                    addNode(jarNode);
-                    createEdge(clazzNode, UsesJar, jarNode);
-                }
-            });
-            classpathRelations.getClassContainsClasses(useClazz.getName())
-                    .forEach(nestedClazzName -> createEdge(clazzNode, ContainsSubClass, CodeNode.named(nestedClazzName)));
-        });
-        modulesSpecification.getModuleSpecSet().forEach(spec -> {
-            final Node moduleNode = NodeType.ModuleNode.named(spec.getId());
-            addNode(moduleNode);
-            spec.getImplementationClasses().forEach(impl -> createEdge(moduleNode, ImplementationClass, CodeNode.named(impl.getName())));
-            spec.getContractClasses().forEach(contract -> createEdge(moduleNode, ContractClass, CodeNode.named(contract.getName())));
-            { //add relation to module group:
-                final Class<?> superClazz = spec.getModule().getSuperclass();
-                if (Module.class.isAssignableFrom(superClazz)) {
-                    final Node superModuleNode = ModuleNode.named(superClazz.getName());
-                    addNode(superModuleNode);
-                    createEdge(superModuleNode, SubModule, moduleNode);
-                }
+        return result.build();
+    }
+
+    /**
+     * Adds edges of scanned class to its dependencies and nested classes.
+     *
+     * @param dependencyNodeById dependency nodes resolved so far, by symbol id.
+     */
+    private void connectClass(final ClasspathRelations classpathRelations, final int clazzId, final Node[] dependencyNodeById) {
+        final SymbolTable symbolTable = classpathRelations.getSymbolTable();
+        final String useClazzName = symbolTable.name(clazzId);
+        if (ClassNames.simpleName(useClazzName).equals("__modules__") || classpathRelations.isModuleClass(useClazzName)){
+            return;
+        }
+        final Node clazzNode = CodeNode.named(useClazzName);
+        classpathRelations.forEachDependencyClassId(clazzId, dependencyId -> {
+            if (dependencyNodeById[dependencyId] == null) {
+                dependencyNodeById[dependencyId] = addDependencyNode(symbolTable.name(dependencyId), classpathRelations::getJarName);
             }
+            createUsesEdge(clazzNode, dependencyNodeById[dependencyId]);
         });
+        classpathRelations.forEachContainedClassId(clazzId,
+                nestedClazzId -> createEdge(clazzNode, ContainsSubClass, CodeNode.named(symbolTable.name(nestedClazzId))));
+    }
+
+    /**
+     * @return scanned class node or node of a jar containing dependency class.
+     */
+    private Node addDependencyNode(final String dependencyClazzName, final Function<String, String> jarNames) {
+        final Node dependencyClazzNode = CodeNode.named(dependencyClazzName);
+        if (containsNode(dependencyClazzNode)) {
+            return dependencyClazzNode;
+        } else {
+            final Node jarNode = JarNode.named(jarNames.apply(dependencyClazzNode.getName()));
+            addNode(jarNode);
+            return jarNode;
+        }
+    }
 
+    private void createUsesEdge(final Node clazzNode, final Node dependencyNode) {
+        createEdge(clazzNode, CodeNode.test(dependencyNode) ? UsesClass : UsesJar, dependencyNode);
+    }
 
-        modulesSpecification.getModuleSpecSet().forEach(spec -> {
-            final Node moduleNode = ModuleNode.named(spec.getId());
-            spec.getAllowedDependencies().forEach(allowedDependencyClazz -> {
-                final Node allowedDependencyNode = ModuleNode.named(allowedDependencyClazz.getName());
-                createEdge(moduleNode, Granted, allowedDependencyNode);
-            });
+    private void addModules(final ModulesSpecification modulesSpecification) {
+        modulesSpecification.getModuleSpecSet().forEach(this::addModule);
+        modulesSpecification.getModuleSpecSet().forEach(this::addGrants);
 
-        });
+        addDependencies(module -> true);
 
+        this.nodeToModuleSpecMap = indexModuleSpecs(modulesSpecification);
 
-        modulesSpecification.getModuleSpecSet().forEach(spec -> {
-            final Node moduleNode = ModuleNode.named(spec.getId());
-            query().from(moduleNode).forward().by(ContractClass).by(ImplementationClass).to(CodeNode).single()
-                    .useFinish().then().forward().by(UsesClass).to(CodeNode).single()
-                    .useFinish().then().backward().by(ContractClass).by(ImplementationClass).to(and(ModuleNode, not(moduleNode))).single()
-                    .useFinish().set().forEach(dependsOnModuleNode -> createEdge(moduleNode, Dependency, dependsOnModuleNode)
-            );
+        removeUselessNodes();
+    }
+
+    private void addModule(final ModuleSpec spec) {
+        final Node moduleNode = NodeType.ModuleNode.named(spec.getId());
+        addNode(moduleNode);
+        spec.getImplementationClassNames().forEach(implName -> createEdge(moduleNode, ImplementationClass, CodeNode.named(implName)));
+        spec.getContractClassNames().forEach(contractName -> createEdge(moduleNode, ContractClass, CodeNode.named(contractName)));
+        { //add relation to module group:
+            final Node superModuleNode = superModuleNode(spec);
+            if (superModuleNode != null) {
+                addNode(superModuleNode);
+                createEdge(superModuleNode, SubModule, moduleNode);
+            }
+        }
+    }
+
+    private static Node superModuleNode(final ModuleSpec spec) {
+        final Class<?> superClazz = spec.getModule().getSuperclass();
+        return Module.class.isAssignableFrom(superClazz) ? ModuleNode.named(superClazz.getName()) : null;
+    }
+
+    private void addGrants(final ModuleSpec spec) {
+        final Node moduleNode = ModuleNode.named(spec.getId());
+        spec.getAllowedDependencies().forEach(allowedDependencyClazz -> {
+            final Node allowedDependencyNode = ModuleNode.named(allowedDependencyClazz.getName());
+            createEdge(moduleNode, Granted, allowedDependencyNode);
         });
+    }
 
-        this.nodeToModuleSpecMap = Maps.uniqueIndex(modulesSpecification.getModuleSpecSet(), spec -> ModuleNode.named(spec.getId()));
+    private static ImmutableMap<Node, ModuleSpec> indexModuleSpecs(final ModulesSpecification modulesSpecification) {
+        return Maps.uniqueIndex(modulesSpecification.getModuleSpecSet(), spec -> ModuleNode.named(spec.getId()));
+    }
 
-        //cleanup useless nodes:
+    private void removeUselessNodes() {
         removeNode(JarNode.named("rt.jar"));
         removeNode(JarNode.named("default"));
     }
 
-    private void simplify() {
-        final ModulesAnalyzer analyzer = ModulesAnalyzer.createFrom(this);
-        query().from(ModuleNode).getStartSet().forEach(module -> {
-            final boolean isSuperModule = analyzer.isSuperModule(module);
-            System.out.println("---------------------------------------------------");
-            System.out.println("Simplify " + (isSuperModule ? "Super" : "") + " module: " + module);
-            final ImmutableSet<Node> moduleClassesSet = analyzer.getModuleAllClasses(module).set(CodeNode);
-            if (isSuperModule) {
-                if (moduleClassesSet.size() > 0) {
-                    System.out.println("  Super module must not contain classes: " + moduleClassesSet);
-                    moduleClassesSet.forEach(code -> createEdge(module, RuleSuperModuleMustNotContainClasses, code));
-                }
-            } else {
-                if (moduleClassesSet.isEmpty()) {
-                    System.out.println("  Regular Module should contain classes");
-                    createEdgeForce(module, HasProblem, ProblemNode.named("Not super module should contain at least one class"));
-                }
+    /**
+     * Module depends on another module when a contract or implementation class of module uses a class
+     * of another module. Owners of every class are indexed once, then every {@link EdgeType#UsesClass} edge
+     * is visited once, instead of a query per module.
+     *
+     * @param moduleFilter modules which dependencies are added.
+     */
+    private void addDependencies(final Predicate<Node> moduleFilter) {
+        freeze();
+        final CompactGraph g = this.graph;
+        final int ownedMask = ContractClass.mask() | ImplementationClass.mask();
+        //owner modules of class node, in compressed sparse rows by class node id:
+        final int[] ownerOffsets = new int[g.nodeCount() + 1];
+        for (int edge = 0; edge < g.edgeCount(); edge++) {
+            if ((g.edgeTypeMask(edge) & ownedMask) != 0 && ModuleNode.test(g.node(g.edgeSource(edge)))) {
+                ownerOffsets[g.edgeTarget(edge) + 1]++;
             }
-            {
-                final ImmutableSet<Node> superModulesSet = analyzer.getSuperModules(module).set(ModuleNode);
-                System.out.println("  Super modules: " + nodesToString(superModulesSet));
-                final ImmutableSet<Node> directlyGrantedModulesSet = analyzer.getModuleDirectlyGrantedDependencies(module).set(ModuleNode);
-                System.out.println("  Directly granted dependencies: " + nodesToString(directlyGrantedModulesSet));
-                final ImmutableSet<Node> grantedModulesSet = ImmutableSet.copyOf(Sets.union(directlyGrantedModulesSet, query().from(directlyGrantedModulesSet).forward().by(SubModule).to(ModuleNode).recursive().set(ModuleNode)));
-                System.out.println("  All granted dependencies: " + nodesToString(grantedModulesSet));
-                final ImmutableSet<Node> actualDependencySet = analyzer.getModuleDirectDependencies(module).useFinish().set(ModuleNode);
-                System.out.println("  Actual dependencies: " + nodesToString(actualDependencySet));
-                final Sets.SetView<Node> notAllowedActualDependenciesSet = Sets.difference(actualDependencySet, grantedModulesSet);
-                if (notAllowedActualDependenciesSet.size() > 0) {
-                    System.out.println("  Contains not allowed dependencies: " + nodesToString(notAllowedActualDependenciesSet));
-                    notAllowedActualDependenciesSet.forEach(dependencyModule -> createEdge(module, NotAllowed, dependencyModule));
+        }
+        for (int node = 0; node < g.nodeCount(); node++) {
+            ownerOffsets[node + 1] += ownerOffsets[node];
+        }
+        final int[] owners = new int[ownerOffsets[g.nodeCount()]];
+        final int[] fill = Arrays.copyOf(ownerOffsets, g.nodeCount());
+        for (int edge = 0; edge < g.edgeCount(); edge++) {
+            if ((g.edgeTypeMask(edge) & ownedMask) != 0 && ModuleNode.test(g.node(g.edgeSource(edge)))) {
+                owners[fill[g.edgeTarget(edge)]++] = g.edgeSource(edge);
+            }
+        }
+        final boolean[] selected = new boolean[g.nodeCount()];
+        for (int node = 0; node < g.nodeCount(); node++) {
+            selected[node] = ModuleNode.test(g.node(node)) && moduleFilter.test(g.node(node));
+        }
+        final Set<Long> dependencies = new LinkedHashSet<>();
+        final int usesMask = UsesClass.mask();
+        for (int clazz = 0; clazz < g.nodeCount(); clazz++) {
+            if (ownerOffsets[clazz] == ownerOffsets[clazz + 1]) {
+                continue;
+            }
+            for (int edge = g.outgoingStart(clazz); edge < g.outgoingEnd(clazz); edge++) {
+                if ((g.edgeTypeMask(edge) & usesMask) == 0) {
+                    continue;
                 }
-                final Sets.SetView<Node> allowedActualDependenciesSet = Sets.intersection(actualDependencySet, grantedModulesSet);
-                if (allowedActualDependenciesSet.size() > 0) {
-                    System.out.println("  Contains allowed dependencies: " + nodesToString(allowedActualDependenciesSet));
-                    allowedActualDependenciesSet.forEach(dependencyModule -> createEdge(module, Allowed, dependencyModule));
+                final int usedClazz = g.edgeTarget(edge);
+                for (int owner = ownerOffsets[clazz]; owner < ownerOffsets[clazz + 1]; owner++) {
+                    if (!selected[owners[owner]]) {
+                        continue;
+                    }
+                    for (int usedOwner = ownerOffsets[usedClazz]; usedOwner < ownerOffsets[usedClazz + 1]; usedOwner++) {
+                        if (owners[owner] != owners[usedOwner]) {
+                            dependencies.add((long) owners[owner] << 32 | owners[usedOwner]);
+                        }
+                    }
                 }
             }
+        }
+        dependencies.forEach(dependency -> createEdge(g.node((int) (dependency >>> 32)), Dependency, g.node((int) (long) dependency)));
+    }
+
+    /**
+     * Turns scanned class dependencies into graph edges as they come.
+     */
+    private class GraphDependencySink implements DependencySink {
+        private final Map<String, Node> dependencyNodeByName = new HashMap<>();
+        private Predicate<String> moduleClassTest;
+        private Function<String, String> jarNames;
+
+        @Override
+        public void start(final ImmutableSet<String> clazzNames, final Predicate<String> moduleClassTest, final Function<String, String> jarNames) {
+            this.moduleClassTest = moduleClassTest;
+            this.jarNames = jarNames;
+            addClassNodes(clazzNames);
+        }
+
+        @Override
+        public void accept(final String clazzName, final ImmutableSet<String> dependencyClazzNames, final ImmutableSet<String> containedClazzNames) {
+            if (ClassNames.simpleName(clazzName).equals("__modules__") || moduleClassTest.test(clazzName)) {
+                return;
+            }
+            final Node clazzNode = CodeNode.named(clazzName);
+            dependencyClazzNames.forEach(dependencyClazzName -> createUsesEdge(clazzNode,
+                    dependencyNodeByName.computeIfAbsent(dependencyClazzName, name -> addDependencyNode(name, jarNames))));
+            containedClazzNames.forEach(nestedClazzName -> createEdge(clazzNode, ContainsSubClass, CodeNode.named(nestedClazzName)));
+        }
+    }
+
+    /**
+     * Modules are analysed independently of each other, in parallel, against graph frozen before analysis starts.
+     * Edges found by analysis are not needed by analysis itself, they are added in a batch afterwards,
+     * in order of modules, so result and printed report do not depend on parallelism.
+     */
+    private void simplify(final int parallelism) {
+        freeze();
+        simplify(parallelism, query().from(ModuleNode).getStartSet().asList());
+    }
+
+    private void simplify(final int parallelism, final List<Node> modules) {
+        indexReachability();
+        final ModulesQueries queries = new ModulesQueries(ModulesAnalyzer.createFrom(this), modules);
+        final List<ModuleSimplification> simplifications;
+        if (parallelism <= 1) {
+            simplifications = modules.stream().map(module -> simplifyModule(queries, module)).collect(toList());
+        } else {
+            final ForkJoinPool forkJoinPool = new ForkJoinPool(parallelism);
+            try {
+                simplifications = forkJoinPool.submit(() -> modules.parallelStream().map(module -> simplifyModule(queries, module)).collect(toList())).get();
+            } catch (final InterruptedException | ExecutionException e) {
+                throw new RuntimeException(e);
+            } finally {
+                forkJoinPool.shutdown();
+            }
+        }
+        simplifications.forEach(simplification -> {
+            System.out.print(simplification.log);
+            simplification.edges.forEach(edge -> createEdgeForce(edge.from, edge.type, edge.to));
         });
     }
 
+    private ModuleSimplification simplifyModule(final ModulesQueries queries, final Node module) {
+        final ModuleSimplification result = new ModuleSimplification();
+        final boolean isSuperModule = queries.superModules.contains(module);
+        result.println("---------------------------------------------------");
+        result.println("Simplify " + (isSuperModule ? "Super" : "") + " module: " + module);
+        final ImmutableSet<Node> moduleClassesSet = queries.allClasses.get(module).set(CodeNode);
+        if (isSuperModule) {
+            if (moduleClassesSet.size() > 0) {
+                result.println("  Super module must not contain classes: " + moduleClassesSet);
+                moduleClassesSet.forEach(code -> result.edge(module, RuleSuperModuleMustNotContainClasses, code));
+            }
+        } else {
+            if (moduleClassesSet.isEmpty()) {
+                result.println("  Regular Module should contain classes");
+                result.edge(module, HasProblem, ProblemNode.named("Not super module should contain at least one class"));
+            }
+        }
+        {
+            final ImmutableSet<Node> superModulesSet = queries.superModulesOf.get(module).set(ModuleNode);
+            result.println("  Super modules: " + nodesToString(superModulesSet));
+            final ImmutableSet<Node> directlyGrantedModulesSet = queries.directlyGranted.get(module).set(ModuleNode);
+            result.println("  Directly granted dependencies: " + nodesToString(directlyGrantedModulesSet));
+            final ImmutableSet<Node> grantedModulesSet = ImmutableSet.copyOf(Sets.union(directlyGrantedModulesSet, query().from(directlyGrantedModulesSet).forward().by(SubModule).to(ModuleNode).recursive().set(ModuleNode)));
+            result.println("  All granted dependencies: " + nodesToString(grantedModulesSet));
+            final ImmutableSet<Node> actualDependencySet = queries.directDependencies.get(module).useFinish().set(ModuleNode);
+            result.println("  Actual dependencies: " + nodesToString(actualDependencySet));
+            final Sets.SetView<Node> notAllowedActualDependenciesSet = Sets.difference(actualDependencySet, grantedModulesSet);
+            if (notAllowedActualDependenciesSet.size() > 0) {
+                result.println("  Contains not allowed dependencies: " + nodesToString(notAllowedActualDependenciesSet));
+                notAllowedActualDependenciesSet.forEach(dependencyModule -> result.edge(module, NotAllowed, dependencyModule));
+            }
+            final Sets.SetView<Node> allowedActualDependenciesSet = Sets.intersection(actualDependencySet, grantedModulesSet);
+            if (allowedActualDependenciesSet.size() > 0) {
+                result.println("  Contains allowed dependencies: " + nodesToString(allowedActualDependenciesSet));
+                allowedActualDependenciesSet.forEach(dependencyModule -> result.edge(module, Allowed, dependencyModule));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Queries of module analysis made for all analysed modules at once, before modules are analysed.
+     */
+    private static class ModulesQueries {
+        private final ImmutableSet<Node> superModules;
+        private final ImmutableMap<Node, GraphPathFinish> allClasses;
+        private final ImmutableMap<Node, GraphPathFinish> superModulesOf;
+        private final ImmutableMap<Node, GraphPathFinish> directlyGranted;
+        private final ImmutableMap<Node, GraphPathFinish> directDependencies;
+
+        private ModulesQueries(final ModulesAnalyzer analyzer, final List<Node> modules) {
+            this.superModules = analyzer.filterSuperModules(modules);
+            this.allClasses = analyzer.getModuleAllClasses(modules);
+            this.superModulesOf = analyzer.getSuperModules(modules);
+            this.directlyGranted = analyzer.getModuleDirectlyGrantedDependencies(modules);
+            this.directDependencies = analyzer.getModuleDirectDependencies(modules);
+        }
+    }
+
+    /**
+     * Edges and printed report of a single module analysis, kept until all modules are analysed.
+     */
+    private static class ModuleSimplification {
+        private final StringBuilder log = new StringBuilder();
+        private final List<PendingEdge> edges = new ArrayList<>();
+
+        private void println(final String line) {
+            log.append(line).append(System.lineSeparator());
+        }
+
+        private void edge(final Node from, final EdgeType type, final Node to) {
+            edges.add(new PendingEdge(from, type, to));
+        }
+    }
+
+    private static class PendingEdge {
+        private final Node from;
+        private final EdgeType type;
+        private final Node to;
+
+        private PendingEdge(final Node from, final EdgeType type, final Node to) {
+            this.from = from;
+            this.type = type;
+            this.to = to;
+        }
+    }
+
     public GraphQuery.GraphPathStart query() {
-        return GraphQuery.start(graph);
+        checkState(graph != null, "Graph is not frozen yet");
+        return GraphQuery.start(graph, reachability);
+    }
+
+    private void freeze() {
+        this.graph = builder.freeze();
+        this.reachability = null;
+    }
+
+    private void indexReachability() {
+        this.reachability = ReachabilityIndex.build(graph, SubModule, Dependency);
+    }
+
+    /**
+     * Graph is not changed after construction, so builder is released.
+     */
+    private void complete() {
+        freeze();
+        indexReachability();
+        this.builder = null;
     }
 
-    public ModulesGraph addNode(final Node node) {
-        this.graph.addVertex(node);
+    private ModulesGraph addNode(final Node node) {
+        this.builder.addNode(node);
         return this;
     }
 
     private ModulesGraph removeNode(final Node node) {
-        this.graph.removeVertex(node);
+        this.builder.removeNode(node);
         return this;
     }
 
     private boolean containsNode(final Node node) {
-        return graph.containsVertex(node);
+        return builder.containsNode(node);
     }
 
-    public ModulesGraph createEdge(final Node from, final EdgeType by, final Node to) {
-        by.createEdge(this.graph, from, to);
+    private ModulesGraph createEdge(final Node from, final EdgeType by, final Node to) {
+        by.createEdge(this.builder, from, to);
         return this;
     }
 
-    public ModulesGraph createEdgeForce(final Node from, final EdgeType by, final Node to) {
+    private ModulesGraph createEdgeForce(final Node from, final EdgeType by, final Node to) {
         return addNode(from).addNode(to).createEdge(from, by, to);
     }
 
+    /**
+     * Dependency cycles, edges of given types are lifted to nodes of given level: a class stands for itself,
+     * for its package or for modules owning it, so cycles of classes, packages or modules are found by
+     * {@link EdgeType#UsesClass} edges, while cycles of modules could be found by {@link EdgeType#Dependency} as well.
+     *
+     * @return strongly connected components of more than one node of given level.
+     */
+    public ImmutableList<ImmutableSet<Node>> findCycles(final NodeType level, final EdgeType... edgeTypes) {
+        checkNotNull(level, "level required");
+        int typeMask = 0;
+        for (final EdgeType edgeType : edgeTypes) {
+            typeMask |= edgeType.mask();
+        }
+        return StronglyConnectedComponents.find(graph, level, typeMask);
+    }
+
+    /**
+     * Writes complete graph with module specifications, so other reports could {@link #openSnapshot(File, ClassLoader)} it.
+     */
+    public void writeSnapshot(final File file) {
+        try {
+            GraphSnapshot.write(file, graph, nodeToModuleSpecMap.values());
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public ModuleSpec getModuleSpecByNode(final Node node) {
         return nodeToModuleSpecMap.get(node);
     }
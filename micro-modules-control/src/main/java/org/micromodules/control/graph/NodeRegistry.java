@@ -0,0 +1,113 @@
+package org.micromodules.control.graph;
+
+import org.micromodules.control.graph.GraphDomain.Node;
+import org.micromodules.control.graph.GraphDomain.NodeType;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Keeps a single {@link Node} per type and name, so nodes are compared by identity and could be
+ * named again and again without allocation. Every node gets a dense ordinal, starting from zero,
+ * which could index side tables of nodes kept in arrays.
+ * Nodes are held weakly, so names of classes gone from a watched classpath do not pile up:
+ * node nobody refers to is dropped and its ordinal is given to the next registered node.
+ * Lookup of a registered node takes no lock, registration is serialized.
+ */
+final class NodeRegistry {
+    private static final Map<NodeType, ConcurrentMap<String, NodeReference>> nodesByType = new EnumMap<>(NodeType.class);
+    private static final ReferenceQueue<Node> droppedNodes = new ReferenceQueue<>();
+    /**
+     * Ordinals of dropped nodes, the lowest one is reused first, so ordinals stay dense.
+     */
+    private static final BitSet freeOrdinals = new BitSet();
+    private static int ordinalsCount = 0;
+
+    static {
+        for (final NodeType type : NodeType.values()) {
+            nodesByType.put(type, new ConcurrentHashMap<>());
+        }
+    }
+
+    private NodeRegistry() {
+    }
+
+    static Node intern(final NodeType type, final String name) {
+        checkNotNull(name, "name required");
+        final ConcurrentMap<String, NodeReference> nodes = nodesByType.get(type);
+        final Node node = get(nodes.get(name));
+        if (node != null) {
+            return node;
+        }
+        //internal class names are registered by java name:
+        final String javaName = name.replace('/', '.');
+        synchronized (NodeRegistry.class) {
+            expungeDroppedNodes();
+            final Node registered = get(nodes.get(javaName));
+            if (registered != null) {
+                return registered;
+            }
+            final Node created = new Node(javaName, type, nextOrdinal());
+            nodes.put(javaName, new NodeReference(created));
+            return created;
+        }
+    }
+
+    /**
+     * Drops node as if it was collected, so reuse of its ordinal could be checked without garbage collector.
+     * Given node must not be used afterwards.
+     */
+    static void drop(final Node node) {
+        synchronized (NodeRegistry.class) {
+            final NodeReference reference = nodesByType.get(node.getType()).get(node.getName());
+            if (reference != null && reference.get() == node) {
+                reference.clear();
+                reference.enqueue();
+                expungeDroppedNodes();
+            }
+        }
+    }
+
+    private static Node get(final NodeReference reference) {
+        return reference != null ? reference.get() : null;
+    }
+
+    private static int nextOrdinal() {
+        final int freeOrdinal = freeOrdinals.nextSetBit(0);
+        if (freeOrdinal >= 0) {
+            freeOrdinals.clear(freeOrdinal);
+            return freeOrdinal;
+        }
+        return ordinalsCount++;
+    }
+
+    private static void expungeDroppedNodes() {
+        for (Reference<? extends Node> dropped = droppedNodes.poll(); dropped != null; dropped = droppedNodes.poll()) {
+            final NodeReference reference = (NodeReference) dropped;
+            //name could be registered again already, then map holds a new reference which is kept:
+            nodesByType.get(reference.type).remove(reference.name, reference);
+            freeOrdinals.set(reference.ordinal);
+        }
+    }
+
+    private static final class NodeReference extends WeakReference<Node> {
+        private final String name;
+        private final NodeType type;
+        private final int ordinal;
+
+        private NodeReference(final Node node) {
+            super(node, droppedNodes);
+            this.name = node.getName();
+            this.type = node.getType();
+            this.ordinal = node.getOrdinal();
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package org.micromodules.control.graph;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.micromodules.control.graph.GraphDomain.Node;
+import org.micromodules.control.graph.GraphDomain.NodeEdge;
+import org.micromodules.control.graph.GraphQuery.GraphDirection;
+import org.micromodules.control.graph.QueryPlan.Segment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static com.google.common.base.Predicates.alwaysTrue;
+
+/**
+ * Walks {@link QueryPlan} over node and edge ids of a frozen graph, path is kept as arrays of edge ids
+ * and node sets as bitsets of node ids, so nodes and edges are not touched as objects
+ * unless a predicate, which is not compiled into a mask, asks for them.
+ * Steps are made by {@link Traversal} buffers of current thread. Queries written step by step walk the same way.
+ */
+final class PlanExecutor {
+    private static final int[] NO_EDGES = new int[0];
+
+    private final CompactGraph g;
+    private final ReachabilityIndex reachability;
+
+    PlanExecutor(final CompactGraph g, final ReachabilityIndex reachability) {
+        this.g = g;
+        this.reachability = reachability;
+    }
+
+    /**
+     * Edges passed by a single step of walk.
+     */
+    static final class Entry {
+        private final GraphDirection direction;
+        private final int[] edgeIds;
+
+        Entry(final GraphDirection direction, final int[] edgeIds) {
+            this.direction = direction;
+            this.edgeIds = edgeIds;
+        }
+
+        GraphDirection getDirection() {
+            return direction;
+        }
+
+        int[] getEdgeIds() {
+            return edgeIds;
+        }
+    }
+
+    ImmutableList<Entry> execute(final QueryPlan plan, final Iterable<Node> startNodes) {
+        final List<Entry> path = new ArrayList<>();
+        BitSet fromIds = idsOf(startNodes);
+        Segment previous = null;
+        for (final Segment segment : plan.getSegments()) {
+            if (previous != null) {
+                fromIds = select(path, previous.getFilterStart(), previous.getFilterPath(), previous.getFilterFinish());
+            }
+            walk(segment, fromIds, path);
+            if (segment.isBacktrace()) {
+                backtrace(path);
+            }
+            previous = segment;
+        }
+        return ImmutableList.copyOf(path);
+    }
+
+    /**
+     * Walks plan from every start node separately, but all walks are made in a single sweep per step:
+     * every node keeps a bitset of start nodes which reached it, so an edge is tested once for all of them.
+     * Recursive step expands a node once per start node, which passes the same edges as a separate walk does,
+     * steps are not joined as closures join them, so path gives the same sets and edges, but may have more entries.
+     *
+     * @return path of every start node, in order of start nodes.
+     */
+    ImmutableList<ImmutableList<Entry>> executeEach(final QueryPlan plan, final List<Node> startNodes) {
+        final int sourcesCount = startNodes.size();
+        final List<List<Entry>> paths = new ArrayList<>(sourcesCount);
+        final BitSet[] labels = new BitSet[g.nodeCount()];
+        for (int source = 0; source < sourcesCount; source++) {
+            paths.add(new ArrayList<>());
+            final int startId = g.id(startNodes.get(source));
+            if (startId != CompactGraph.NO_ID) {
+                label(labels, startId, source);
+            }
+        }
+        Segment previous = null;
+        for (final Segment segment : plan.getSegments()) {
+            if (previous != null) {
+                for (int source = 0; source < sourcesCount; source++) {
+                    final BitSet fromIds = select(paths.get(source), previous.getFilterStart(), previous.getFilterPath(), previous.getFilterFinish());
+                    for (int fromId = fromIds.nextSetBit(0); fromId >= 0; fromId = fromIds.nextSetBit(fromId + 1)) {
+                        label(labels, fromId, source);
+                    }
+                }
+            }
+            stepEach(segment, labels, paths);
+            if (segment.isBacktrace()) {
+                paths.forEach(this::backtrace);
+            }
+            Arrays.fill(labels, null);
+            previous = segment;
+        }
+        return ImmutableList.copyOf(paths.stream().map(ImmutableList::copyOf).iterator());
+    }
+
+    private static void label(final BitSet[] labels, final int nodeId, final int source) {
+        if (labels[nodeId] == null) {
+            labels[nodeId] = new BitSet();
+        }
+        labels[nodeId].set(source);
+    }
+
+    /**
+     * Adds entries of a step to path of every start node, labels of nodes are the start nodes stepping from them.
+     * Recursive step goes on while any start node passes new edges, a start node which passes none ends with an empty entry.
+     */
+    private void stepEach(final Segment segment, final BitSet[] labels, final List<List<Entry>> paths) {
+        final GraphDirection direction = segment.getDirection();
+        final int sourcesCount = paths.size();
+        final BitSet[] expanded = segment.isRecursive() ? new BitSet[g.nodeCount()] : null;
+        final int[][] edgeIdsBySource = new int[sourcesCount][];
+        final int[] edgesCountBySource = new int[sourcesCount];
+        final BitSet active = new BitSet();
+        active.set(0, sourcesCount);
+        BitSet[] current = labels.clone();
+        BitSet[] next = new BitSet[g.nodeCount()];
+        BitSet currentIds = new BitSet();
+        BitSet nextIds = new BitSet();
+        for (int nodeId = 0; nodeId < labels.length; nodeId++) {
+            if (labels[nodeId] != null) {
+                currentIds.set(nodeId);
+            }
+        }
+        while (!active.isEmpty()) {
+            Arrays.fill(edgeIdsBySource, NO_EDGES);
+            Arrays.fill(edgesCountBySource, 0);
+            for (int fromId = currentIds.nextSetBit(0); fromId >= 0; fromId = currentIds.nextSetBit(fromId + 1)) {
+                final BitSet fresh = current[fromId];
+                current[fromId] = null;
+                if (expanded != null) {
+                    if (expanded[fromId] == null) {
+                        expanded[fromId] = new BitSet();
+                    }
+                    fresh.andNot(expanded[fromId]);
+                    expanded[fromId].or(fresh);
+                }
+                if (fresh.isEmpty()) {
+                    continue;
+                }
+                final int edgesEnd = direction.edgesEnd(g, fromId);
+                for (int index = direction.edgesStart(g, fromId); index < edgesEnd; index++) {
+                    final int edgeId = direction.edgeAt(g, index);
+                    if (!segment.testEdge(g, edgeId)) {
+                        continue;
+                    }
+                    final int toId = direction.toId(g, edgeId);
+                    if (!segment.testNode(g.node(toId))) {
+                        continue;
+                    }
+                    if (next[toId] == null) {
+                        next[toId] = new BitSet();
+                        nextIds.set(toId);
+                    }
+                    next[toId].or(fresh);
+                    for (int source = fresh.nextSetBit(0); source >= 0; source = fresh.nextSetBit(source + 1)) {
+                        if (edgesCountBySource[source] == edgeIdsBySource[source].length) {
+                            edgeIdsBySource[source] = Arrays.copyOf(edgeIdsBySource[source], Math.max(8, edgesCountBySource[source] * 2));
+                        }
+                        edgeIdsBySource[source][edgesCountBySource[source]++] = edgeId;
+                    }
+                }
+            }
+            for (int source = active.nextSetBit(0); source >= 0; source = active.nextSetBit(source + 1)) {
+                paths.get(source).add(new Entry(direction, Arrays.copyOf(edgeIdsBySource[source], edgesCountBySource[source])));
+                if (!segment.isRecursive() || edgesCountBySource[source] == 0) {
+                    active.clear(source);
+                }
+            }
+            final BitSet[] swapped = current;
+            current = next;
+            next = swapped;
+            currentIds.clear();
+            final BitSet swappedIds = currentIds;
+            currentIds = nextIds;
+            nextIds = swappedIds;
+        }
+    }
+
+    /**
+     * Adds entries of a single or recursive step from given nodes to path.
+     * Recursive step is answered by a closure if there is one, it gives edges out of start nodes,
+     * edges out of reached nodes and an empty entry, which ends a walk.
+     */
+    void walk(final Segment segment, final BitSet fromIds, final List<Entry> path) {
+        final GraphDirection direction = segment.getDirection();
+        final ReachabilityIndex.Closure closure = segment.isRecursive() && reachability != null
+                ? reachability.find(segment.getEdgeFilter(), segment.getNodeFilter(), direction)
+                : null;
+        final Traversal traversal = Traversal.ofCurrentThread();
+        traversal.begin(g, fromIds);
+        try {
+            if (closure != null) {
+                final BitSet reachedIds = new BitSet();
+                for (int fromId = fromIds.nextSetBit(0); fromId >= 0; fromId = fromIds.nextSetBit(fromId + 1)) {
+                    closure.addReached(fromId, reachedIds);
+                }
+                path.add(new Entry(direction, traversal.step(g, segment, true)));
+                traversal.setFrontier(reachedIds);
+                path.add(new Entry(direction, traversal.step(g, segment, true)));
+                path.add(new Entry(direction, NO_EDGES));
+            } else if (segment.isRecursive()) {
+                Entry entry;
+                do {
+                    entry = new Entry(direction, traversal.step(g, segment, true));
+                    path.add(entry);
+                } while (entry.edgeIds.length > 0);
+            } else {
+                path.add(new Entry(direction, traversal.step(g, segment, false)));
+            }
+        } finally {
+            traversal.end();
+        }
+    }
+
+    /**
+     * Keeps only edges leading to the next step, from the last step back to the first one.
+     */
+    void backtrace(final List<Entry> path) {
+        BitSet nextFromIds = fromIds(path.get(path.size() - 1));
+        for (int i = path.size() - 2; i >= 0; i--) {
+            final Entry entry = path.get(i);
+            final int[] keptEdgeIds = new int[entry.edgeIds.length];
+            int keptCount = 0;
+            for (final int edgeId : entry.edgeIds) {
+                if (nextFromIds.get(entry.direction.toId(g, edgeId))) {
+                    keptEdgeIds[keptCount++] = edgeId;
+                }
+            }
+            final Entry kept = new Entry(entry.direction, Arrays.copyOf(keptEdgeIds, keptCount));
+            path.set(i, kept);
+            nextFromIds = fromIds(kept);
+        }
+    }
+
+    /**
+     * Nodes of path passing filters, no filter at all selects every node of path.
+     */
+    BitSet select(final List<Entry> path, final Predicate<Node> filterStart, final Predicate<Node> filterPath, final Predicate<Node> filterFinish) {
+        final boolean useAll = filterStart == null && filterPath == null && filterFinish == null;
+        final BitSet result = new BitSet();
+        if (useAll || filterStart != null) {
+            addFiltered(fromIds(path.get(0)), useAll ? alwaysTrue() : filterStart, result);
+        }
+        if (useAll || filterPath != null) {
+            final BitSet pathIds = new BitSet();
+            for (int i = 0; i < path.size() - 1; i++) {
+                pathIds.or(toIds(path.get(i)));
+            }
+            addFiltered(pathIds, useAll ? alwaysTrue() : filterPath, result);
+        }
+        if (useAll || filterFinish != null) {
+            addFiltered(toIds(path.get(path.size() - 1)), useAll ? alwaysTrue() : filterFinish, result);
+        }
+        return result;
+    }
+
+    private void addFiltered(final BitSet nodeIds, final Predicate<Node> filter, final BitSet result) {
+        for (int nodeId = nodeIds.nextSetBit(0); nodeId >= 0; nodeId = nodeIds.nextSetBit(nodeId + 1)) {
+            if (filter.apply(g.node(nodeId))) {
+                result.set(nodeId);
+            }
+        }
+    }
+
+    /**
+     * @return ids of given nodes, nodes which are not in graph are skipped.
+     */
+    BitSet idsOf(final Iterable<Node> nodes) {
+        final BitSet result = new BitSet();
+        for (final Node node : nodes) {
+            final int nodeId = g.id(node);
+            if (nodeId != CompactGraph.NO_ID) {
+                result.set(nodeId);
+            }
+        }
+        return result;
+    }
+
+    ImmutableSet<Node> nodesOf(final BitSet nodeIds) {
+        final TreeSet<Node> result = new TreeSet<>();
+        for (int nodeId = nodeIds.nextSetBit(0); nodeId >= 0; nodeId = nodeIds.nextSetBit(nodeId + 1)) {
+            result.add(g.node(nodeId));
+        }
+        return ImmutableSet.copyOf(result);
+    }
+
+    Set<NodeEdge> edgesOf(final List<Entry> path) {
+        final Set<NodeEdge> result = new HashSet<>();
+        for (final Entry entry : path) {
+            for (final int edgeId : entry.edgeIds) {
+                result.add(g.edge(edgeId));
+            }
+        }
+        return result;
+    }
+
+    private BitSet fromIds(final Entry entry) {
+        final GraphDirection opposite = entry.direction == GraphDirection.Forward ? GraphDirection.Backward : GraphDirection.Forward;
+        final BitSet result = new BitSet();
+        for (final int edgeId : entry.edgeIds) {
+            result.set(opposite.toId(g, edgeId));
+        }
+        return result;
+    }
+
+    private BitSet toIds(final Entry entry) {
+        final BitSet result = new BitSet();
+        for (final int edgeId : entry.edgeIds) {
+            result.set(entry.direction.toId(g, edgeId));
+        }
+        return result;
+    }
+}
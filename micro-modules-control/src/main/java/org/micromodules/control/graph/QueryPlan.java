@@ -0,0 +1,297 @@
+package org.micromodules.control.graph;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import org.micromodules.control.graph.GraphDomain.EdgeTypeFilter;
+import org.micromodules.control.graph.GraphDomain.Node;
+import org.micromodules.control.graph.GraphDomain.NodeEdge;
+import org.micromodules.control.graph.GraphDomain.NodeType;
+import org.micromodules.control.graph.GraphQuery.GraphDirection;
+import org.micromodules.setup.Contract;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Predicates.alwaysTrue;
+import static org.micromodules.control.util.Predicates2.or;
+
+/**
+ * Query chain compiled once and executed against any start nodes by
+ * {@link GraphQuery.GraphPathDirection#execute(QueryPlan)}. Plan is written the same way as a query,
+ * but without start nodes and without intermediate results:
+ * <pre>
+ *     QueryPlan.start().forward().by(ContractClass).to(CodeNode).single()
+ *             .useFinish().then().forward().by(UsesClass).to(CodeNode).single()
+ *             .useFinish().compile();
+ * </pre>
+ * Every stage of plan is an immutable value, so a plan could be kept in a constant and shared between threads.
+ * Edge types and node types of filters are compiled into masks, other predicates are kept as is.
+ */
+@Contract(__modules__.ModulesGraphModule.class)
+public final class QueryPlan {
+    public interface PlanDirection {
+        PlanEdgeFilter forward();
+
+        PlanEdgeFilter backward();
+    }
+
+    public interface PlanEdgeFilter extends PlanNodeFilter {
+        PlanEdgeFilter by(Predicate<NodeEdge> edgeFilter);
+    }
+
+    public interface PlanNodeFilter extends PlanStep {
+        PlanNodeFilter to(Predicate<Node> nodeFilter);
+    }
+
+    public interface PlanStep {
+        PlanBacktrace recursive();
+
+        PlanBacktrace single();
+    }
+
+    public interface PlanBacktrace extends PlanFinish {
+        PlanFinish backtrace();
+    }
+
+    public interface PlanFinish {
+        PlanFinish filterStart(Predicate<Node> predicate);
+
+        default PlanFinish useStart() {
+            return filterStart(alwaysTrue());
+        }
+
+        PlanFinish filterPath(Predicate<Node> predicate);
+
+        @SuppressWarnings("UnusedDeclaration")
+        default PlanFinish usePath() {
+            return filterPath(alwaysTrue());
+        }
+
+        PlanFinish filterFinish(Predicate<Node> predicate);
+
+        default PlanFinish useFinish() {
+            return filterFinish(alwaysTrue());
+        }
+
+        /**
+         * Result of steps so far, filtered, becomes start of next steps.
+         */
+        PlanDirection then();
+
+        QueryPlan compile();
+    }
+
+    private final ImmutableList<Segment> segments;
+
+    private QueryPlan(final ImmutableList<Segment> segments) {
+        this.segments = segments;
+    }
+
+    public static PlanDirection start() {
+        return new Stage(ImmutableList.of(), null);
+    }
+
+    ImmutableList<Segment> getSegments() {
+        return segments;
+    }
+
+    /**
+     * A single or recursive step and result filters applied after it, before next step or as final result.
+     */
+    static final class Segment {
+        private final GraphDirection direction;
+        private final Predicate<NodeEdge> edgeFilter;
+        /**
+         * Compiled edge filter or null if edge filter is not made of edge types.
+         */
+        private final EdgeTypeFilter edgeTypeFilter;
+        private final Predicate<Node> nodeFilter;
+        /**
+         * Bits of {@link NodeType} ordinals passed by node filter, or zero if node filter is not made of node types.
+         */
+        private final int nodeTypeMask;
+        private final boolean recursive;
+        private final boolean backtrace;
+        private final Predicate<Node> filterStart;
+        private final Predicate<Node> filterPath;
+        private final Predicate<Node> filterFinish;
+
+        private Segment(final GraphDirection direction, final Predicate<NodeEdge> edgeFilter, final Predicate<Node> nodeFilter, final int nodeTypeMask,
+                        final boolean recursive, final boolean backtrace,
+                        final Predicate<Node> filterStart, final Predicate<Node> filterPath, final Predicate<Node> filterFinish) {
+            this.direction = direction;
+            this.edgeFilter = edgeFilter;
+            this.edgeTypeFilter = edgeFilter != null ? EdgeTypeFilter.compile(edgeFilter) : null;
+            this.nodeFilter = nodeFilter;
+            this.nodeTypeMask = nodeTypeMask;
+            this.recursive = recursive;
+            this.backtrace = backtrace;
+            this.filterStart = filterStart;
+            this.filterPath = filterPath;
+            this.filterFinish = filterFinish;
+        }
+
+        private static Segment of(final GraphDirection direction) {
+            return new Segment(direction, null, null, 0, false, false, null, null, null);
+        }
+
+        /**
+         * Step of a query written step by step, filters of result are kept by query itself.
+         */
+        static Segment step(final GraphDirection direction, final Predicate<NodeEdge> edgeFilter, final Predicate<Node> nodeFilter, final boolean recursive) {
+            return new Segment(direction, edgeFilter, nodeFilter, nodeTypeMask(nodeFilter), recursive, false, null, null, null);
+        }
+
+        private Segment withEdgeFilter(final Predicate<NodeEdge> edgeFilter) {
+            return new Segment(direction, edgeFilter, nodeFilter, nodeTypeMask, recursive, backtrace, filterStart, filterPath, filterFinish);
+        }
+
+        private Segment withNodeFilter(final Predicate<Node> nodeFilter, final int nodeTypeMask) {
+            return new Segment(direction, edgeFilter, nodeFilter, nodeTypeMask, recursive, backtrace, filterStart, filterPath, filterFinish);
+        }
+
+        private Segment withStep(final boolean recursive) {
+            return new Segment(direction, edgeFilter, nodeFilter, nodeTypeMask, recursive, backtrace, filterStart, filterPath, filterFinish);
+        }
+
+        private Segment withBacktrace() {
+            return new Segment(direction, edgeFilter, nodeFilter, nodeTypeMask, recursive, true, filterStart, filterPath, filterFinish);
+        }
+
+        private Segment withFilters(final Predicate<Node> filterStart, final Predicate<Node> filterPath, final Predicate<Node> filterFinish) {
+            return new Segment(direction, edgeFilter, nodeFilter, nodeTypeMask, recursive, backtrace, filterStart, filterPath, filterFinish);
+        }
+
+        private static int nodeTypeMask(final Predicate<Node> nodeFilter) {
+            return nodeFilter instanceof NodeType ? 1 << ((NodeType) nodeFilter).ordinal() : 0;
+        }
+
+        GraphDirection getDirection() {
+            return direction;
+        }
+
+        Predicate<NodeEdge> getEdgeFilter() {
+            return edgeFilter;
+        }
+
+        boolean testEdge(final CompactGraph g, final int edgeId) {
+            if (edgeFilter == null) {
+                return true;
+            }
+            return edgeTypeFilter != null ? edgeTypeFilter.test(g.edgeTypeMask(edgeId)) : edgeFilter.apply(g.edge(edgeId));
+        }
+
+        Predicate<Node> getNodeFilter() {
+            return nodeFilter;
+        }
+
+        boolean testNode(final Node node) {
+            if (nodeFilter == null) {
+                return true;
+            }
+            return nodeTypeMask != 0 ? (nodeTypeMask & 1 << node.getType().ordinal()) != 0 : nodeFilter.apply(node);
+        }
+
+        boolean isRecursive() {
+            return recursive;
+        }
+
+        boolean isBacktrace() {
+            return backtrace;
+        }
+
+        Predicate<Node> getFilterStart() {
+            return filterStart;
+        }
+
+        Predicate<Node> getFilterPath() {
+            return filterPath;
+        }
+
+        Predicate<Node> getFilterFinish() {
+            return filterFinish;
+        }
+    }
+
+    /**
+     * Every stage of plan, a new stage is created on every call.
+     */
+    private static final class Stage implements PlanDirection, PlanEdgeFilter, PlanBacktrace {
+        private final ImmutableList<Segment> done;
+        private final Segment current;
+
+        private Stage(final ImmutableList<Segment> done, final Segment current) {
+            this.done = done;
+            this.current = current;
+        }
+
+        @Override
+        public PlanEdgeFilter forward() {
+            return new Stage(done, Segment.of(GraphDirection.Forward));
+        }
+
+        @Override
+        public PlanEdgeFilter backward() {
+            return new Stage(done, Segment.of(GraphDirection.Backward));
+        }
+
+        @Override
+        public PlanEdgeFilter by(final Predicate<NodeEdge> edgeFilter) {
+            checkNotNull(edgeFilter);
+            return new Stage(done, current.withEdgeFilter(current.edgeFilter != null
+                    ? EdgeTypeFilter.or(current.edgeFilter, edgeFilter)
+                    : edgeFilter));
+        }
+
+        @Override
+        public PlanNodeFilter to(final Predicate<Node> nodeFilter) {
+            checkNotNull(nodeFilter);
+            if (current.nodeFilter == null) {
+                return new Stage(done, current.withNodeFilter(nodeFilter, Segment.nodeTypeMask(nodeFilter)));
+            }
+            //node types are combined into a single mask, any other predicate makes a combined predicate:
+            final int nodeTypeMask = current.nodeTypeMask != 0 && Segment.nodeTypeMask(nodeFilter) != 0
+                    ? current.nodeTypeMask | Segment.nodeTypeMask(nodeFilter)
+                    : 0;
+            return new Stage(done, current.withNodeFilter(or(current.nodeFilter, nodeFilter), nodeTypeMask));
+        }
+
+        @Override
+        public PlanBacktrace recursive() {
+            return new Stage(done, current.withStep(true));
+        }
+
+        @Override
+        public PlanBacktrace single() {
+            return new Stage(done, current.withStep(false));
+        }
+
+        @Override
+        public PlanFinish backtrace() {
+            return new Stage(done, current.withBacktrace());
+        }
+
+        @Override
+        public PlanFinish filterStart(final Predicate<Node> predicate) {
+            return new Stage(done, current.withFilters(predicate != null ? predicate : alwaysTrue(), current.filterPath, current.filterFinish));
+        }
+
+        @Override
+        public PlanFinish filterPath(final Predicate<Node> predicate) {
+            return new Stage(done, current.withFilters(current.filterStart, predicate != null ? predicate : alwaysTrue(), current.filterFinish));
+        }
+
+        @Override
+        public PlanFinish filterFinish(final Predicate<Node> predicate) {
+            return new Stage(done, current.withFilters(current.filterStart, current.filterPath, predicate != null ? predicate : alwaysTrue()));
+        }
+
+        @Override
+        public PlanDirection then() {
+            return new Stage(ImmutableList.<Segment>builder().addAll(done).add(current).build(), null);
+        }
+
+        @Override
+        public QueryPlan compile() {
+            return new QueryPlan(ImmutableList.<Segment>builder().addAll(done).add(current).build());
+        }
+    }
+}
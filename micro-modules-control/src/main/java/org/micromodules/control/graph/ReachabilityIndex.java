@@ -0,0 +1,128 @@
+package org.micromodules.control.graph;
+
+import com.google.common.base.Predicate;
+import org.micromodules.control.graph.GraphDomain.EdgeType;
+import org.micromodules.control.graph.GraphDomain.EdgeTypeFilter;
+import org.micromodules.control.graph.GraphDomain.Node;
+import org.micromodules.control.graph.GraphDomain.NodeEdge;
+import org.micromodules.control.graph.GraphDomain.NodeType;
+import org.micromodules.control.graph.GraphQuery.GraphDirection;
+
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Transitive closures of relations made of edges of a single type, in both directions, so a recursive query
+ * over such relation is answered by bitset lookup instead of a breadth-first walk per query.
+ * Closures are computed once for a frozen graph, row of a node keeps ids of all nodes reachable from it.
+ * Meant for small relations between modules like {@link EdgeType#SubModule} and {@link EdgeType#Dependency}.
+ */
+final class ReachabilityIndex {
+    private final Map<Integer, Map<GraphDirection, Closure>> closuresByTypeMask = new HashMap<>();
+
+    static ReachabilityIndex build(final CompactGraph g, final EdgeType... types) {
+        checkNotNull(g, "graph required");
+        final ReachabilityIndex index = new ReachabilityIndex();
+        for (final EdgeType type : types) {
+            final Map<GraphDirection, Closure> closures = new EnumMap<>(GraphDirection.class);
+            for (final GraphDirection direction : GraphDirection.values()) {
+                closures.put(direction, new Closure(g, type.mask(), direction));
+            }
+            index.closuresByTypeMask.put(type.mask(), closures);
+        }
+        return index;
+    }
+
+    private ReachabilityIndex() {
+    }
+
+    /**
+     * @return closure which gives the same nodes as a recursive walk with given filters, or null if there is no such closure.
+     */
+    Closure find(final Predicate<NodeEdge> edgeFilter, final Predicate<Node> nodeFilter, final GraphDirection direction) {
+        final EdgeTypeFilter edgeTypeFilter = edgeFilter != null ? EdgeTypeFilter.compile(edgeFilter) : null;
+        if (edgeTypeFilter == null || !edgeTypeFilter.isAnyOf()) {
+            return null;
+        }
+        final Map<GraphDirection, Closure> closures = closuresByTypeMask.get(edgeTypeFilter.getAnyOfMask());
+        final Closure closure = closures != null ? closures.get(direction) : null;
+        return closure != null && closure.passesAll(nodeFilter) ? closure : null;
+    }
+
+    static final class Closure {
+        private final int typeMask;
+        private final BitSet[] reachedByNode;
+        /**
+         * Bits of {@link NodeType} ordinals of nodes at the end of edges.
+         */
+        private int endTypes = 0;
+
+        private Closure(final CompactGraph g, final int typeMask, final GraphDirection direction) {
+            this.typeMask = typeMask;
+            this.reachedByNode = new BitSet[g.nodeCount()];
+            final int[] queue = new int[g.nodeCount()];
+            for (int node = 0; node < g.nodeCount(); node++) {
+                if (!hasEdges(g, direction, node)) {
+                    continue;
+                }
+                final BitSet reached = new BitSet();
+                int head = 0;
+                int tail = 0;
+                queue[tail++] = node;
+                while (head < tail) {
+                    final int from = queue[head++];
+                    final int edgesEnd = direction.edgesEnd(g, from);
+                    for (int index = direction.edgesStart(g, from); index < edgesEnd; index++) {
+                        final int edge = direction.edgeAt(g, index);
+                        if ((g.edgeTypeMask(edge) & typeMask) == 0) {
+                            continue;
+                        }
+                        final int to = direction.toId(g, edge);
+                        endTypes |= 1 << g.node(to).getType().ordinal();
+                        if (!reached.get(to)) {
+                            reached.set(to);
+                            if (to != node) {
+                                queue[tail++] = to;
+                            }
+                        }
+                    }
+                }
+                reachedByNode[node] = reached;
+            }
+        }
+
+        private boolean hasEdges(final CompactGraph g, final GraphDirection direction, final int node) {
+            final int edgesEnd = direction.edgesEnd(g, node);
+            for (int index = direction.edgesStart(g, node); index < edgesEnd; index++) {
+                if ((g.edgeTypeMask(direction.edgeAt(g, index)) & typeMask) != 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Closure does not check nodes, so node filter must pass every node at the end of indexed edges.
+         */
+        private boolean passesAll(final Predicate<Node> nodeFilter) {
+            return nodeFilter == null || nodeFilter instanceof NodeType && (endTypes & ~(1 << ((NodeType) nodeFilter).ordinal())) == 0;
+        }
+
+        int getTypeMask() {
+            return typeMask;
+        }
+
+        /**
+         * Adds ids of nodes reachable from given node by one or more edges.
+         */
+        void addReached(final int nodeId, final BitSet result) {
+            if (reachedByNode[nodeId] != null) {
+                result.or(reachedByNode[nodeId]);
+            }
+        }
+    }
+}
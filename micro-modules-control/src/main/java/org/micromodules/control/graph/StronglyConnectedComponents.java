@@ -0,0 +1,183 @@
+package org.micromodules.control.graph;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.micromodules.control.graph.GraphDomain.Node;
+import org.micromodules.control.graph.GraphDomain.NodeType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.micromodules.control.graph.GraphDomain.EdgeType.*;
+import static org.micromodules.control.graph.GraphDomain.NodeType.*;
+
+/**
+ * Dependency cycles as strongly connected components of a frozen graph, found by Tarjan algorithm
+ * without recursion, so deep graphs do not overflow stack. Edges of selected types are lifted
+ * to nodes of selected level first: a class stands for itself, for its package or for modules owning it.
+ * Time and memory are linear in number of edges.
+ */
+final class StronglyConnectedComponents {
+    private static final int NOT_VISITED = -1;
+
+    private StronglyConnectedComponents() {
+    }
+
+    /**
+     * @return components of more than one node, nodes of component and components are sorted.
+     */
+    static ImmutableList<ImmutableSet<Node>> find(final CompactGraph g, final NodeType level, final int typeMask) {
+        final int[][] groups = groupsOf(g, level);
+        final int[][] lifted = lift(g, groups, typeMask);
+        final int[] offsets = lifted[0];
+        final int[] targets = lifted[1];
+
+        final int nodesCount = g.nodeCount();
+        final int[] indexes = new int[nodesCount];
+        final int[] lowLinks = new int[nodesCount];
+        final boolean[] onStack = new boolean[nodesCount];
+        final int[] stack = new int[nodesCount];
+        int stackSize = 0;
+        final int[] callNodes = new int[nodesCount];
+        final int[] callEdges = new int[nodesCount];
+        int callDepth = 0;
+        int visitedCount = 0;
+        Arrays.fill(indexes, NOT_VISITED);
+
+        final List<ImmutableSet<Node>> result = new ArrayList<>();
+        for (int root = 0; root < nodesCount; root++) {
+            if (indexes[root] != NOT_VISITED || offsets[root] == offsets[root + 1]) {
+                continue;
+            }
+            indexes[root] = lowLinks[root] = visitedCount++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            callNodes[callDepth] = root;
+            callEdges[callDepth] = offsets[root];
+            callDepth++;
+            while (callDepth > 0) {
+                final int node = callNodes[callDepth - 1];
+                final int edge = callEdges[callDepth - 1];
+                if (edge < offsets[node + 1]) {
+                    callEdges[callDepth - 1]++;
+                    final int target = targets[edge];
+                    if (indexes[target] == NOT_VISITED) {
+                        indexes[target] = lowLinks[target] = visitedCount++;
+                        stack[stackSize++] = target;
+                        onStack[target] = true;
+                        callNodes[callDepth] = target;
+                        callEdges[callDepth] = offsets[target];
+                        callDepth++;
+                    } else if (onStack[target]) {
+                        lowLinks[node] = Math.min(lowLinks[node], indexes[target]);
+                    }
+                } else {
+                    if (lowLinks[node] == indexes[node]) {
+                        final TreeSet<Node> component = new TreeSet<>();
+                        int member;
+                        do {
+                            member = stack[--stackSize];
+                            onStack[member] = false;
+                            component.add(g.node(member));
+                        } while (member != node);
+                        if (component.size() > 1) {
+                            result.add(ImmutableSet.copyOf(component));
+                        }
+                    }
+                    callDepth--;
+                    if (callDepth > 0) {
+                        final int parent = callNodes[callDepth - 1];
+                        lowLinks[parent] = Math.min(lowLinks[parent], lowLinks[node]);
+                    }
+                }
+            }
+        }
+        result.sort(Comparator.comparing(component -> component.iterator().next()));
+        return ImmutableList.copyOf(result);
+    }
+
+    /**
+     * @return offsets and ids of nodes of given level standing for every node, in compressed sparse rows by node id:
+     * a node of level stands for itself, a class stands for its package or for modules owning it.
+     */
+    private static int[][] groupsOf(final CompactGraph g, final NodeType level) {
+        final int groupMask = level == PackageNode ? ContainsSubClass.mask()
+                : level == ModuleNode ? ContractClass.mask() | ImplementationClass.mask()
+                : 0;
+        final int[] offsets = new int[g.nodeCount() + 1];
+        for (int node = 0; node < g.nodeCount(); node++) {
+            if (level.test(g.node(node))) {
+                offsets[node + 1]++;
+            }
+        }
+        for (int edge = 0; edge < g.edgeCount(); edge++) {
+            if (isMembership(g, level, groupMask, edge)) {
+                offsets[g.edgeTarget(edge) + 1]++;
+            }
+        }
+        for (int node = 0; node < g.nodeCount(); node++) {
+            offsets[node + 1] += offsets[node];
+        }
+        final int[] ids = new int[offsets[g.nodeCount()]];
+        final int[] fill = Arrays.copyOf(offsets, g.nodeCount());
+        for (int node = 0; node < g.nodeCount(); node++) {
+            if (level.test(g.node(node))) {
+                ids[fill[node]++] = node;
+            }
+        }
+        for (int edge = 0; edge < g.edgeCount(); edge++) {
+            if (isMembership(g, level, groupMask, edge)) {
+                ids[fill[g.edgeTarget(edge)]++] = g.edgeSource(edge);
+            }
+        }
+        return new int[][]{offsets, ids};
+    }
+
+    private static boolean isMembership(final CompactGraph g, final NodeType level, final int groupMask, final int edge) {
+        return (g.edgeTypeMask(edge) & groupMask) != 0 && level.test(g.node(g.edgeSource(edge))) && CodeNode.test(g.node(g.edgeTarget(edge)));
+    }
+
+    /**
+     * @return offsets and targets of edges between groups, in compressed sparse rows by group id.
+     */
+    private static int[][] lift(final CompactGraph g, final int[][] groups, final int typeMask) {
+        final int[] groupOffsets = groups[0];
+        final int[] groupIds = groups[1];
+        final int[] offsets = new int[g.nodeCount() + 1];
+        for (int edge = 0; edge < g.edgeCount(); edge++) {
+            if ((g.edgeTypeMask(edge) & typeMask) != 0) {
+                final int source = g.edgeSource(edge);
+                final int target = g.edgeTarget(edge);
+                for (int sourceGroup = groupOffsets[source]; sourceGroup < groupOffsets[source + 1]; sourceGroup++) {
+                    for (int targetGroup = groupOffsets[target]; targetGroup < groupOffsets[target + 1]; targetGroup++) {
+                        if (groupIds[sourceGroup] != groupIds[targetGroup]) {
+                            offsets[groupIds[sourceGroup] + 1]++;
+                        }
+                    }
+                }
+            }
+        }
+        for (int node = 0; node < g.nodeCount(); node++) {
+            offsets[node + 1] += offsets[node];
+        }
+        final int[] targets = new int[offsets[g.nodeCount()]];
+        final int[] fill = Arrays.copyOf(offsets, g.nodeCount());
+        for (int edge = 0; edge < g.edgeCount(); edge++) {
+            if ((g.edgeTypeMask(edge) & typeMask) != 0) {
+                final int source = g.edgeSource(edge);
+                final int target = g.edgeTarget(edge);
+                for (int sourceGroup = groupOffsets[source]; sourceGroup < groupOffsets[source + 1]; sourceGroup++) {
+                    for (int targetGroup = groupOffsets[target]; targetGroup < groupOffsets[target + 1]; targetGroup++) {
+                        if (groupIds[sourceGroup] != groupIds[targetGroup]) {
+                            targets[fill[groupIds[sourceGroup]]++] = groupIds[targetGroup];
+                        }
+                    }
+                }
+            }
+        }
+        return new int[][]{offsets, targets};
+    }
+}
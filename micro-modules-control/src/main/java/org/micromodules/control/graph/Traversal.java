@@ -0,0 +1,135 @@
+package org.micromodules.control.graph;
+
+import org.micromodules.control.graph.GraphQuery.GraphDirection;
+import org.micromodules.control.graph.QueryPlan.Segment;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Buffers of breadth-first walk over a frozen graph, kept per thread by {@link #ofCurrentThread()}
+ * and reused by every query, so a step allocates nothing but the edge ids it returns.
+ * Buffers do not refer to a graph, walked graph is given to every call, so a queried graph is not kept
+ * by threads which queried it; buffers grow to the largest graph walked by thread.
+ * Frontier is an int queue of node ids, visited nodes are marked by stamps instead of bitsets,
+ * so a new walk or a new step starts by incrementing a stamp, not by clearing arrays.
+ */
+final class Traversal {
+    private static final ThreadLocal<Traversal> traversals = ThreadLocal.withInitial(Traversal::new);
+
+    private int[] frontier = new int[0];
+    private int frontierSize = 0;
+    private int[] next = new int[0];
+    private int nextSize = 0;
+    /**
+     * Node is expanded in current walk if its stamp equals {@link #walkStamp}.
+     * Stamps only grow, so stamps left by a walk of another graph never match.
+     */
+    private int[] expandedStamps = new int[0];
+    private int walkStamp = 0;
+    /**
+     * Node is queued to next frontier if its stamp equals {@link #stepStamp}.
+     */
+    private int[] queuedStamps = new int[0];
+    private int stepStamp = 0;
+    private int[] edgeIds = new int[64];
+    private boolean busy = false;
+
+    private Traversal() {
+    }
+
+    /**
+     * @return traversal buffers of current thread, or new ones if buffers of current thread are in use.
+     */
+    static Traversal ofCurrentThread() {
+        final Traversal traversal = traversals.get();
+        return traversal.isBusy() ? new Traversal() : traversal;
+    }
+
+    /**
+     * Traversal is busy while a walk is made, a predicate running a query of its own gets a new traversal.
+     */
+    private boolean isBusy() {
+        return busy;
+    }
+
+    /**
+     * Starts a new walk from given nodes, no node is expanded yet.
+     */
+    void begin(final CompactGraph g, final BitSet fromIds) {
+        busy = true;
+        if (frontier.length < g.nodeCount()) {
+            frontier = new int[g.nodeCount()];
+            next = new int[g.nodeCount()];
+            expandedStamps = Arrays.copyOf(expandedStamps, g.nodeCount());
+            queuedStamps = Arrays.copyOf(queuedStamps, g.nodeCount());
+        }
+        walkStamp = nextStamp(walkStamp, expandedStamps);
+        setFrontier(fromIds);
+    }
+
+    void end() {
+        busy = false;
+    }
+
+    void setFrontier(final BitSet fromIds) {
+        frontierSize = 0;
+        for (int fromId = fromIds.nextSetBit(0); fromId >= 0; fromId = fromIds.nextSetBit(fromId + 1)) {
+            frontier[frontierSize++] = fromId;
+        }
+    }
+
+    /**
+     * Passes edges of segment out of frontier nodes, nodes at the end of passed edges become next frontier.
+     *
+     * @param expandOnce skip nodes expanded before in this walk, their edges are passed already.
+     * @return ids of passed edges.
+     */
+    int[] step(final CompactGraph g, final Segment segment, final boolean expandOnce) {
+        final GraphDirection direction = segment.getDirection();
+        stepStamp = nextStamp(stepStamp, queuedStamps);
+        nextSize = 0;
+        int edgesCount = 0;
+        for (int i = 0; i < frontierSize; i++) {
+            final int fromId = frontier[i];
+            if (expandOnce) {
+                if (expandedStamps[fromId] == walkStamp) {
+                    continue;
+                }
+                expandedStamps[fromId] = walkStamp;
+            }
+            final int edgesEnd = direction.edgesEnd(g, fromId);
+            for (int index = direction.edgesStart(g, fromId); index < edgesEnd; index++) {
+                final int edgeId = direction.edgeAt(g, index);
+                if (!segment.testEdge(g, edgeId)) {
+                    continue;
+                }
+                final int toId = direction.toId(g, edgeId);
+                if (!segment.testNode(g.node(toId))) {
+                    continue;
+                }
+                if (edgesCount == edgeIds.length) {
+                    edgeIds = Arrays.copyOf(edgeIds, edgesCount * 2);
+                }
+                edgeIds[edgesCount++] = edgeId;
+                if (queuedStamps[toId] != stepStamp) {
+                    queuedStamps[toId] = stepStamp;
+                    next[nextSize++] = toId;
+                }
+            }
+        }
+        final int[] swapped = frontier;
+        frontier = next;
+        frontierSize = nextSize;
+        next = swapped;
+        return Arrays.copyOf(edgeIds, edgesCount);
+    }
+
+    private static int nextStamp(final int stamp, final int[] stamps) {
+        if (stamp == Integer.MAX_VALUE) {
+            Arrays.fill(stamps, 0);
+            return 1;
+        }
+        return stamp + 1;
+    }
+}
@@ -1,14 +1,18 @@
 package org.micromodules.control.report;
 
 import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.googlecode.jatl.Html;
 import org.jgrapht.DirectedGraph;
 import org.micromodules.control.analyze.ModulesAnalyzer;
 import org.micromodules.control.graph.GraphDomain.Node;
 import org.micromodules.control.graph.GraphDomain.NodeEdge;
+import org.micromodules.control.graph.GraphQuery.GraphPathFinish;
 import org.micromodules.control.graph.GraphRenderer;
 import org.micromodules.control.graph.ModulesGraph;
+import org.micromodules.control.graph.QueryPlan;
 import org.micromodules.control.spec.ModuleSpec;
 import org.micromodules.setup.Contract;
 
@@ -34,6 +38,10 @@ import static org.micromodules.control.util.Predicates2.and;
  */
 @Contract(__modules__.ReportModule.class)
 public class ModulesReport extends AbstractReport{
+    private static final QueryPlan CLASS_RELATED_MODULES = QueryPlan.start().forward().by(ContractClass.or(ImplementationClass)).to(CodeNode).single()
+            .useFinish().then().forward().by(UsesClass).to(CodeNode).single()
+            .useFinish().then().backward().by(ContractClass.or(ImplementationClass)).to(ModuleNode).single().compile();
+
     private final ModulesGraph graph;
     private final ModulesAnalyzer analyzer;
     private final GraphRenderer renderer;
@@ -71,6 +79,15 @@ public class ModulesReport extends AbstractReport{
 
                     //noinspection ConstantConditions,ConstantIfStatement
                     if (true) {
+                        final ImmutableSet<Node> modules = graph.query().from(ModuleNode).getStartSet();
+                        final ImmutableMap<Node, GraphPathFinish> subModules = analyzer.getSubModules(modules);
+                        final ImmutableMap<Node, GraphPathFinish> relatedModules = graph.query().executeEach(modules, CLASS_RELATED_MODULES);
+                        final ImmutableMap<Node, GraphPathFinish> contractClasses = analyzer.getModuleContractClasses(modules);
+                        final ImmutableMap<Node, GraphPathFinish> implementationClasses = analyzer.getModuleImplementationClasses(modules);
+                        final ImmutableMap<Node, GraphPathFinish> directDependencies = analyzer.getModuleDirectDependencies(modules);
+                        final ImmutableMap<Node, GraphPathFinish> hierarchyDependencies = analyzer.getModuleHierarchyDependencies(modules);
+                        final ImmutableMap<Node, GraphPathFinish> usedBy = analyzer.getModuleUsedBy(modules);
+                        final ImmutableMap<Node, GraphPathFinish> jarDependencies = analyzer.getModuleJarDependencies(modules);
                         new TableReport<Node>("All Modules Report")
                                 .addColumn("Module", (html, node) -> {
                                     final ModuleSpec spec = graph.getModuleSpecByNode(node);
@@ -83,7 +100,7 @@ public class ModulesReport extends AbstractReport{
                                     }
                                     html.br();
                                     listGraph(html,
-                                            analyzer.getSubModules(node).graph(),
+                                            subModules.get(node).graph(),
                                             and(not(node), ModuleNode),
                                             "Sub Modules"
                                     );
@@ -95,10 +112,7 @@ public class ModulesReport extends AbstractReport{
                                         );
                                     }
                                     listGraph(html,
-                                            graph.query().from(node).forward().by(ContractClass.or(ImplementationClass)).to(CodeNode).single()
-                                                    .useFinish().then().forward().by(UsesClass).to(CodeNode).single()
-                                                    .useFinish().then().backward().by(ContractClass.or(ImplementationClass)).to(ModuleNode).single()
-                                                    .unmaskedEdgesGraph(),
+                                            relatedModules.get(node).unmaskedEdgesGraph(),
                                             ModuleNode.andNot(node),
                                             "Related modules");
                                     html.br();
@@ -109,35 +123,35 @@ public class ModulesReport extends AbstractReport{
                                 })
                                 .addColumn("Contract", (html, node) -> {
                                     listGraph(html,
-                                            analyzer.getModuleContractClasses(node).unmaskedEdgesGraph(),
+                                            contractClasses.get(node).unmaskedEdgesGraph(),
                                             CodeNode);
 
                                 })
                                 .addColumn("Implementation", (html, node) -> {
                                     listGraph(html,
-                                            analyzer.getModuleImplementationClasses(node).unmaskedEdgesGraph(),
+                                            implementationClasses.get(node).unmaskedEdgesGraph(),
                                             CodeNode);
                                 })
                                 .addColumn("DependsOn", (html, node) -> {
                                     listGraph(html,
-                                            analyzer.getModuleDirectDependencies(node).graph(),
+                                            directDependencies.get(node).graph(),
                                             not(node),
                                             "Direct Dependencies");
 
-                                    listGraph(html, analyzer.getModuleHierarchyDependencies(node).unmaskedEdgesGraph(),
-                                            and(not(in(analyzer.getSubModules(node).set())), ModuleNode),
+                                    listGraph(html, hierarchyDependencies.get(node).unmaskedEdgesGraph(),
+                                            and(not(in(subModules.get(node).set())), ModuleNode),
                                             "Hierarchy Dependencies"
                                     );
                                 })
                                 .addColumn("UsedBy", (html, node) -> {
                                     listGraph(html,
-                                            analyzer.getModuleUsedBy(node).graph(),
+                                            usedBy.get(node).graph(),
                                             not(node),
                                             "Direct Usages");
                                 })
                                 .addColumn("JarDependencies", (html, node) -> {
                                     listGraph(html,
-                                            analyzer.getModuleJarDependencies(node).graph(),
+                                            jarDependencies.get(node).graph(),
                                             JarNode);
 
                                 })
@@ -155,9 +169,13 @@ public class ModulesReport extends AbstractReport{
                                             and(not(node), ModuleNode),
                                             "Collision rule violation");
                                 })
-                                .render(index, graph.query().from(ModuleNode).getStartSet());
+                                .render(index, modules);
                     }
 
+                    listCycles("Module Cycles", graph.findCycles(ModuleNode, Dependency));
+                    listCycles("Package Cycles", graph.findCycles(PackageNode, UsesClass));
+                    listCycles("Class Cycles", graph.findCycles(CodeNode, UsesClass));
+
                     //noinspection ConstantIfStatement,ConstantConditions
                     if (false) {
                         new TableReport<Node>("All Jars Report")
@@ -184,6 +202,22 @@ public class ModulesReport extends AbstractReport{
 
                 final AtomicInteger imgIndex = new AtomicInteger();
 
+                private void listCycles(final String title, final ImmutableList<ImmutableSet<Node>> cycles) {
+                    if (cycles.size() > 0) {
+                        index.h2().text(title).end();
+                        index.ol();
+                        cycles.forEach(cycle -> {
+                            index.li();
+                            cycle.forEach(node -> {
+                                node.appendToHtml(index);
+                                index.br().end();
+                            });
+                            index.end();
+                        });
+                        index.end();
+                    }
+                }
+
                 private void listGraph(final Html html, final DirectedGraph<Node, NodeEdge> graph, final Predicate<Node> listFilter) {
                     listGraph(html, graph, listFilter, "show graph");
                 }
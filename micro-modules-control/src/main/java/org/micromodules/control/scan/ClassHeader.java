@@ -0,0 +1,164 @@
+package org.micromodules.control.scan;
+
+import com.google.common.collect.ImmutableList;
+import javassist.bytecode.AnnotationsAttribute;
+import javassist.bytecode.ClassFile;
+import org.micromodules.setup.Contract;
+import org.micromodules.setup.Implementation;
+
+import java.nio.ByteBuffer;
+import java.util.function.IntFunction;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Part of class structure required to recognize modules and module classes:
+ * super types, interface flag and module annotations.
+ * Could be taken either from loaded class or from byte code without loading.
+ */
+final class ClassHeader {
+    private static final String CONTRACT_DESCRIPTOR = descriptorOf(Contract.class.getName());
+    private static final String IMPLEMENTATION_DESCRIPTOR = descriptorOf(Implementation.class.getName());
+
+    private final String name;
+    private final String superClassName;
+    private final ImmutableList<String> interfaceNames;
+    private final boolean isInterface;
+    private final String contractModuleName;
+    private final String implementationModuleName;
+
+    ClassHeader(final String name, final String superClassName, final ImmutableList<String> interfaceNames, final boolean isInterface,
+                final String contractModuleName, final String implementationModuleName) {
+        this.name = checkNotNull(name, "name required");
+        this.superClassName = superClassName;
+        this.interfaceNames = checkNotNull(interfaceNames, "interfaceNames required");
+        this.isInterface = isInterface;
+        this.contractModuleName = contractModuleName;
+        this.implementationModuleName = implementationModuleName;
+    }
+
+    static ClassHeader of(final Class<?> clazz) {
+        final ImmutableList.Builder<String> interfaceNames = ImmutableList.builder();
+        for (final Class<?> face : clazz.getInterfaces()) {
+            interfaceNames.add(face.getName());
+        }
+        final Contract contract = clazz.getAnnotation(Contract.class);
+        final Implementation implementation = clazz.getAnnotation(Implementation.class);
+        return new ClassHeader(
+                clazz.getName(),
+                clazz.getSuperclass() != null ? clazz.getSuperclass().getName() : null,
+                interfaceNames.build(),
+                clazz.isInterface(),
+                contract != null ? contract.value().getName() : null,
+                implementation != null ? implementation.value().getName() : null);
+    }
+
+    static ClassHeader read(final ClassFile classFile) {
+        final String[] contractAndImplementation = new String[2];
+        final AnnotationsAttribute annotations = (AnnotationsAttribute) classFile.getAttribute(AnnotationsAttribute.visibleTag);
+        if (annotations != null) {
+            readModuleAnnotations(classFile.getConstPool()::getUtf8Info, ByteBuffer.wrap(annotations.get()), contractAndImplementation);
+        }
+        return new ClassHeader(
+                classFile.getName(),
+                classFile.getSuperclass(),
+                ImmutableList.copyOf(classFile.getInterfaces()),
+                classFile.isInterface(),
+                contractAndImplementation[0],
+                contractAndImplementation[1]);
+    }
+
+    /**
+     * Javassist renders class values as source level names (with dots for nested classes),
+     * so annotations are decoded here straight from RuntimeVisibleAnnotations to get binary names.
+     *
+     * @param utf8Lookup constant pool utf8 entry by index.
+     * @param info       attribute body, position is moved to attribute end.
+     */
+    static void readModuleAnnotations(final IntFunction<String> utf8Lookup, final ByteBuffer info, final String[] contractAndImplementation) {
+        final int annotationsCount = info.getShort() & 0xFFFF;
+        for (int annotationIndex = 0; annotationIndex < annotationsCount; annotationIndex++) {
+            final String typeDescriptor = utf8Lookup.apply(info.getShort() & 0xFFFF);
+            final int pairsCount = info.getShort() & 0xFFFF;
+            for (int pairIndex = 0; pairIndex < pairsCount; pairIndex++) {
+                final String elementName = utf8Lookup.apply(info.getShort() & 0xFFFF);
+                final boolean moduleValue = elementName.equals("value") && info.get(info.position()) == 'c';
+                if (moduleValue && typeDescriptor.equals(CONTRACT_DESCRIPTOR)) {
+                    info.get();
+                    contractAndImplementation[0] = classNameOfDescriptor(utf8Lookup.apply(info.getShort() & 0xFFFF));
+                } else if (moduleValue && typeDescriptor.equals(IMPLEMENTATION_DESCRIPTOR)) {
+                    info.get();
+                    contractAndImplementation[1] = classNameOfDescriptor(utf8Lookup.apply(info.getShort() & 0xFFFF));
+                } else {
+                    skipElementValue(info);
+                }
+            }
+        }
+    }
+
+    private static void skipElementValue(final ByteBuffer info) {
+        final byte tag = info.get();
+        switch (tag) {
+            case 'e':
+                info.position(info.position() + 4);
+                break;
+            case '@':
+                info.getShort();
+                final int pairsCount = info.getShort() & 0xFFFF;
+                for (int pairIndex = 0; pairIndex < pairsCount; pairIndex++) {
+                    info.getShort();
+                    skipElementValue(info);
+                }
+                break;
+            case '[':
+                final int valuesCount = info.getShort() & 0xFFFF;
+                for (int valueIndex = 0; valueIndex < valuesCount; valueIndex++) {
+                    skipElementValue(info);
+                }
+                break;
+            default: //constant or class value
+                info.getShort();
+        }
+    }
+
+    private static String descriptorOf(final String className) {
+        return "L" + className.replace('.', '/') + ";";
+    }
+
+    private static String classNameOfDescriptor(final String descriptor) {
+        return descriptor.substring(1, descriptor.length() - 1).replace('/', '.');
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return super class name or null for {@link Object}.
+     */
+    String getSuperClassName() {
+        return superClassName;
+    }
+
+    ImmutableList<String> getInterfaceNames() {
+        return interfaceNames;
+    }
+
+    boolean isInterface() {
+        return isInterface;
+    }
+
+    /**
+     * @return module class name from {@link Contract} annotation or null.
+     */
+    String getContractModuleName() {
+        return contractModuleName;
+    }
+
+    /**
+     * @return module class name from {@link Implementation} annotation or null.
+     */
+    String getImplementationModuleName() {
+        return implementationModuleName;
+    }
+}
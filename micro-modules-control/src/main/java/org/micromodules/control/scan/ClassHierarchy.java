@@ -0,0 +1,66 @@
+package org.micromodules.control.scan;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Super types of classes resolved from byte code, classes are never loaded.
+ * Core java classes are not inspected as they could not extend project types.
+ */
+class ClassHierarchy {
+    private final ClassRecordSource recordSource;
+    private final ClassRecordParser parser;
+    private final Map<String, ClassHeader> headerCache = new HashMap<>();
+    private final Map<String, ImmutableSet<String>> superTypesCache = new HashMap<>();
+
+    ClassHierarchy(final ClassRecordSource recordSource) {
+        this.recordSource = checkNotNull(recordSource, "recordSource required");
+        this.parser = recordSource.createParser();
+    }
+
+    /**
+     * @return header of class or null when class byte code is not available.
+     */
+    ClassHeader getHeader(final String className) {
+        if (!headerCache.containsKey(className)) {
+            headerCache.put(className, readHeader(className));
+        }
+        return headerCache.get(className);
+    }
+
+    private ClassHeader readHeader(final String className) {
+        final ClassRecord record = recordSource.find(className, parser);
+        return record != null ? record.getHeader() : null;
+    }
+
+    boolean isSubtypeOf(final String className, final String superTypeName) {
+        return getSuperTypes(className).contains(superTypeName);
+    }
+
+    /**
+     * @return all super classes and interfaces of a class including class itself.
+     */
+    private ImmutableSet<String> getSuperTypes(final String className) {
+        final ImmutableSet<String> cached = superTypesCache.get(className);
+        if (cached != null) {
+            return cached;
+        }
+        final ImmutableSet.Builder<String> superTypes = ImmutableSet.<String>builder().add(className);
+        if (!className.startsWith("java.")) {
+            final ClassHeader header = getHeader(className);
+            if (header != null) {
+                if (header.getSuperClassName() != null) {
+                    superTypes.addAll(getSuperTypes(header.getSuperClassName()));
+                }
+                header.getInterfaceNames().forEach(faceName -> superTypes.addAll(getSuperTypes(faceName)));
+            }
+        }
+        final ImmutableSet<String> result = superTypes.build();
+        superTypesCache.put(className, result);
+        return result;
+    }
+}
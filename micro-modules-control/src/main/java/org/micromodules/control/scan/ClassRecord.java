@@ -0,0 +1,49 @@
+package org.micromodules.control.scan;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Everything scanner needs from a single class file: header, classes referenced by byte code
+ * and immediate nested classes. Nested classes are not merged in, see {@link DependencyScan}.
+ */
+final class ClassRecord {
+    private final ClassHeader header;
+    private final ImmutableSet<String> dependencyClassNames;
+    private final ImmutableList<String> nestedClassNames;
+
+    ClassRecord(final ClassHeader header, final ImmutableSet<String> dependencyClassNames, final ImmutableList<String> nestedClassNames) {
+        this.header = checkNotNull(header, "header required");
+        this.dependencyClassNames = checkNotNull(dependencyClassNames, "dependencyClassNames required");
+        this.nestedClassNames = checkNotNull(nestedClassNames, "nestedClassNames required");
+    }
+
+    String getName() {
+        return header.getName();
+    }
+
+    ClassHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * @return referenced classes in the form byte code gives them: both internal and java names, array descriptors.
+     */
+    ImmutableSet<String> getDependencyClassNames() {
+        return dependencyClassNames;
+    }
+
+    ImmutableList<String> getNestedClassNames() {
+        return nestedClassNames;
+    }
+
+    @Override
+    public String toString() {
+        return "ClassRecord{" + getName() +
+                ", dependencies=" + dependencyClassNames.size() +
+                ", nested=" + nestedClassNames +
+                '}';
+    }
+}
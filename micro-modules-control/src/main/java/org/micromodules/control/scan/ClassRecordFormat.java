@@ -0,0 +1,101 @@
+package org.micromodules.control.scan;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary form of {@link ClassRecord} shared by persistent scan structures. Names are written as indexes
+ * into a string table, which is collected before records are written, so every name is stored once.
+ */
+final class ClassRecordFormat {
+    private ClassRecordFormat() {
+    }
+
+    static void writeStringTable(final DataOutputStream out, final Map<String, Integer> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (final String string : strings.keySet()) {
+            out.writeUTF(string);
+        }
+    }
+
+    static String[] readStringTable(final DataInputStream in) throws IOException {
+        final String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readUTF();
+        }
+        return strings;
+    }
+
+    static void collectStrings(final Map<String, Integer> strings, final ClassRecord record) {
+        final ClassHeader header = record.getHeader();
+        collectString(strings, header.getName());
+        collectString(strings, header.getSuperClassName());
+        header.getInterfaceNames().forEach(name -> collectString(strings, name));
+        collectString(strings, header.getContractModuleName());
+        collectString(strings, header.getImplementationModuleName());
+        record.getDependencyClassNames().forEach(name -> collectString(strings, name));
+        record.getNestedClassNames().forEach(name -> collectString(strings, name));
+    }
+
+    static void collectString(final Map<String, Integer> strings, final String string) {
+        if (string != null && !strings.containsKey(string)) {
+            strings.put(string, strings.size());
+        }
+    }
+
+    static void writeRecord(final DataOutputStream out, final Map<String, Integer> strings, final ClassRecord record) throws IOException {
+        final ClassHeader header = record.getHeader();
+        writeString(out, strings, header.getName());
+        writeString(out, strings, header.getSuperClassName());
+        writeStrings(out, strings, header.getInterfaceNames());
+        out.writeBoolean(header.isInterface());
+        writeString(out, strings, header.getContractModuleName());
+        writeString(out, strings, header.getImplementationModuleName());
+        writeStrings(out, strings, record.getDependencyClassNames());
+        writeStrings(out, strings, record.getNestedClassNames());
+    }
+
+    static ClassRecord readRecord(final DataInputStream in, final String[] strings) throws IOException {
+        final ClassHeader header = new ClassHeader(
+                readString(in, strings),
+                readString(in, strings),
+                ImmutableList.copyOf(readStrings(in, strings)),
+                in.readBoolean(),
+                readString(in, strings),
+                readString(in, strings));
+        return new ClassRecord(header, ImmutableSet.copyOf(readStrings(in, strings)), ImmutableList.copyOf(readStrings(in, strings)));
+    }
+
+    private static void writeString(final DataOutputStream out, final Map<String, Integer> strings, final String string) throws IOException {
+        out.writeInt(string != null ? strings.get(string) : -1);
+    }
+
+    private static String readString(final DataInputStream in, final String[] strings) throws IOException {
+        final int index = in.readInt();
+        return index >= 0 ? strings[index] : null;
+    }
+
+    static void writeStrings(final DataOutputStream out, final Map<String, Integer> strings, final Iterable<String> values) throws IOException {
+        final List<String> valuesList = ImmutableList.copyOf(values);
+        out.writeInt(valuesList.size());
+        for (final String value : valuesList) {
+            writeString(out, strings, value);
+        }
+    }
+
+    static List<String> readStrings(final DataInputStream in, final String[] strings) throws IOException {
+        final int count = in.readInt();
+        final List<String> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(readString(in, strings));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,55 @@
+package org.micromodules.control.scan;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Parsed records kept in memory by class name, so consecutive scans of the same classpath
+ * parse only classes which were changed in between. Safe for concurrent use.
+ */
+class ClassRecordMemo {
+    private final ConcurrentMap<String, ClassRecord> records = new ConcurrentHashMap<>();
+
+    ClassRecord find(final String className) {
+        return records.get(normalize(className));
+    }
+
+    void put(final String className, final ClassRecord record) {
+        records.put(normalize(className), record);
+    }
+
+    /**
+     * @return false if there is a record of class already, which is kept.
+     */
+    boolean putIfAbsent(final String className, final ClassRecord record) {
+        return records.putIfAbsent(normalize(className), record) == null;
+    }
+
+    int size() {
+        return records.size();
+    }
+
+    void forEach(final BiConsumer<String, ClassRecord> consumer) {
+        records.forEach(consumer);
+    }
+
+    /**
+     * @param changedClassNames classes to be parsed again, java names.
+     * @return memo of the next scan.
+     */
+    ClassRecordMemo copyWithout(final Set<String> changedClassNames) {
+        final ClassRecordMemo result = new ClassRecordMemo();
+        records.forEach((className, record) -> {
+            if (!changedClassNames.contains(className)) {
+                result.records.put(className, record);
+            }
+        });
+        return result;
+    }
+
+    private static String normalize(final String className) {
+        return className.replace('/', '.');
+    }
+}
@@ -0,0 +1,12 @@
+package org.micromodules.control.scan;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Turns class file bytes into {@link ClassRecord}, instance must be confined to a single thread.
+ * Parser never keeps a reference to given buffer, so buffer could be a view of a shared mapping.
+ */
+interface ClassRecordParser {
+    ClassRecord parse(ByteBuffer classBytes) throws IOException;
+}
@@ -0,0 +1,116 @@
+package org.micromodules.control.scan;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Finds class byte code in {@link ClasspathEntries} and turns it into {@link ClassRecord},
+ * going through {@link ClassRecordMemo} and {@link ScanCache} when they are configured. Safe for concurrent use
+ * as long as every thread passes its own parser, see {@link #createParser()}.
+ */
+class ClassRecordSource {
+    private static final HashFunction CONTENT_HASH = Hashing.murmur3_128();
+    private static final int HASH_CHUNK_SIZE = 8192;
+
+    private final ClasspathEntries classpathEntries;
+    private final ScanBackend backend;
+    private final ScanCache scanCache;
+    private final ScanMemory scanMemory;
+    private final ClassRecordMemo recordMemo;
+
+    /**
+     * @param scanCache  cache or null to parse every class.
+     * @param recordMemo records of previous scan or null to keep no records in memory.
+     */
+    ClassRecordSource(final ClasspathEntries classpathEntries, final ScanBackend backend, final ScanCache scanCache, final ScanMemory scanMemory, final ClassRecordMemo recordMemo) {
+        this.classpathEntries = checkNotNull(classpathEntries, "classpathEntries required");
+        this.backend = checkNotNull(backend, "backend required");
+        this.scanCache = scanCache;
+        this.scanMemory = checkNotNull(scanMemory, "scanMemory required");
+        this.recordMemo = recordMemo;
+    }
+
+    ClassRecordParser createParser() {
+        return backend.createParser(scanMemory);
+    }
+
+    ScanMemory getScanMemory() {
+        return scanMemory;
+    }
+
+    ClassRecord get(final String className, final ClassRecordParser parser) {
+        final ClassRecord record = find(className, parser);
+        if (record == null) {
+            throw new RuntimeException("No byte code found for class: " + className);
+        }
+        return record;
+    }
+
+    /**
+     * @return record or null when there is no byte code for class.
+     */
+    ClassRecord find(final String className, final ClassRecordParser parser) {
+        final ClassRecord memoRecord = recordMemo != null ? recordMemo.find(className) : null;
+        if (memoRecord != null) {
+            return memoRecord;
+        }
+        final ClasspathEntries.ClassFileLocation location = classpathEntries.locate(className);
+        if (location == null) {
+            return null;
+        }
+        if (recordMemo == null) {
+            return read(className, location, parser);
+        }
+        final ClassRecord record = read(className, location, parser);
+        recordMemo.put(className, record);
+        return record;
+    }
+
+    private ClassRecord read(final String className, final ClasspathEntries.ClassFileLocation location, final ClassRecordParser parser) {
+        try {
+            if (scanCache == null) {
+                return parser.parse(location.read());
+            }
+            final File jarFile = location.getJarFile();
+            if (jarFile != null) {
+                final ClassRecord jarRecord = scanCache.findInJar(jarFile, className);
+                if (jarRecord != null) {
+                    return jarRecord;
+                }
+            }
+            final ByteBuffer classBytes = location.read();
+            final HashCode hash = hashOf(classBytes.duplicate());
+            final ClassRecord cachedRecord = scanCache.findByHash(hash, jarFile);
+            if (cachedRecord != null) {
+                return cachedRecord;
+            }
+            final ClassRecord parsedRecord = parser.parse(classBytes);
+            scanCache.put(hash, parsedRecord, jarFile);
+            return parsedRecord;
+        } catch (final IOException e) {
+            throw new RuntimeException("Failed to read byte code of " + className, e);
+        }
+    }
+
+    private static HashCode hashOf(final ByteBuffer classBytes) {
+        if (classBytes.hasArray()) {
+            return CONTENT_HASH.hashBytes(classBytes.array(), classBytes.arrayOffset() + classBytes.position(), classBytes.remaining());
+        }
+        final Hasher hasher = CONTENT_HASH.newHasher();
+        final byte[] chunk = new byte[Math.min(HASH_CHUNK_SIZE, classBytes.remaining())];
+        while (classBytes.hasRemaining()) {
+            final int chunkSize = Math.min(chunk.length, classBytes.remaining());
+            classBytes.get(chunk, 0, chunkSize);
+            hasher.putBytes(chunk, 0, chunkSize);
+        }
+        return hasher.hash();
+    }
+}
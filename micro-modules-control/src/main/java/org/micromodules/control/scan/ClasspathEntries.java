@@ -0,0 +1,625 @@
+package org.micromodules.control.scan;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Resources;
+import org.micromodules.control.util.ClassNames;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.function.Predicate;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Class files of class loader classpath, every classpath entry is opened once.
+ * Jars are memory mapped and read through zip central directory directly, stored class files
+ * are given as slices of the mapping and deflated ones are inflated straight from it. Directories
+ * are listed in bulk and class files are read with NIO.
+ * <p>
+ * Entries are visited the same way {@link com.google.common.reflect.ClassPath} does it: parent loaders first,
+ * jar manifest Class-Path entries before jar content, first occurrence of a class wins.
+ * Classes are looked up by package first, so only jars having a package are indexed class by class.
+ * Classes which are not found in entries (JDK runtime) are read through class loader.
+ */
+class ClasspathEntries {
+    private static final String CLASS_FILE_EXTENSION = ".class";
+    private static final Splitter CLASS_PATH_ATTRIBUTE_SEPARATOR = Splitter.on(" ").omitEmptyStrings();
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final ClassLoader classLoader;
+    private final List<ClasspathEntry> entries = new ArrayList<>();
+    private final Map<String, List<ClasspathEntry>> packageToEntries = new HashMap<>();
+    private final Set<URI> scannedUris = new HashSet<>();
+
+    static ClasspathEntries open(final ClassLoader classLoader) {
+        final ClasspathEntries classpathEntries = new ClasspathEntries(classLoader);
+        for (final URI uri : getClassPathUris(classLoader)) {
+            classpathEntries.scan(uri);
+        }
+        for (final ClasspathEntry entry : classpathEntries.entries) {
+            for (final String packageName : entry.getPackageNames()) {
+                classpathEntries.packageToEntries.computeIfAbsent(packageName, key -> new ArrayList<>(1)).add(entry);
+            }
+        }
+        return classpathEntries;
+    }
+
+    private ClasspathEntries(final ClassLoader classLoader) {
+        this.classLoader = checkNotNull(classLoader, "classLoader required");
+    }
+
+    /**
+     * @return class directories of class loader classpath, without opening any entry.
+     */
+    static ImmutableList<Path> getDirectories(final ClassLoader classLoader) {
+        final ImmutableList.Builder<Path> result = ImmutableList.builder();
+        for (final URI uri : getClassPathUris(classLoader)) {
+            if ("file".equals(uri.getScheme()) && new File(uri).isDirectory()) {
+                result.add(new File(uri).toPath());
+            }
+        }
+        return result.build();
+    }
+
+    private static Set<URI> getClassPathUris(final ClassLoader classLoader) {
+        final Set<URI> uris = new LinkedHashSet<>();
+        if (classLoader.getParent() != null) {
+            uris.addAll(getClassPathUris(classLoader.getParent()));
+        }
+        if (classLoader instanceof URLClassLoader) {
+            for (final URL url : ((URLClassLoader) classLoader).getURLs()) {
+                try {
+                    uris.add(url.toURI());
+                } catch (final URISyntaxException e) {
+                    throw new IllegalArgumentException(e);
+                }
+            }
+        }
+        return uris;
+    }
+
+    private void scan(final URI uri) {
+        if (!"file".equals(uri.getScheme()) || !scannedUris.add(uri)) {
+            return;
+        }
+        final File file = new File(uri);
+        try {
+            if (file.isDirectory()) {
+                entries.add(DirectoryEntry.open(file.toPath()));
+            } else if (file.isFile()) {
+                scanJar(file);
+            }
+        } catch (final IOException e) {
+            System.out.println("Classpath entry skipped " + file + ": " + e);
+        }
+    }
+
+    private void scanJar(final File file) throws IOException {
+        final MappedJar mappedJar;
+        try {
+            mappedJar = MappedJar.open(file);
+        } catch (final IOException e) {
+            return; //not a jar file, same as class path scan does
+        }
+        final ByteBuffer manifest = mappedJar.readManifest();
+        if (manifest != null) {
+            for (final URI uri : getClassPathFromManifest(file, manifest)) {
+                scan(uri);
+            }
+        }
+        entries.add(mappedJar);
+    }
+
+    private static List<URI> getClassPathFromManifest(final File jarFile, final ByteBuffer manifestBytes) throws IOException {
+        final byte[] bytes = new byte[manifestBytes.remaining()];
+        manifestBytes.get(bytes);
+        final String classPathAttribute = new Manifest(new ByteArrayInputStream(bytes)).getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+        if (classPathAttribute == null) {
+            return Collections.emptyList();
+        }
+        final List<URI> result = new ArrayList<>();
+        for (final String path : CLASS_PATH_ATTRIBUTE_SEPARATOR.split(classPathAttribute)) {
+            try {
+                final URI uri = new URI(path);
+                result.add(uri.isAbsolute() ? uri : new File(jarFile.getParentFile(), path.replace('/', File.separatorChar)).toURI());
+            } catch (final URISyntaxException e) {
+                System.out.println("Invalid Class-Path entry " + path + " in " + jarFile);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Entries without a single matching package are skipped as a whole, so their classes are never indexed.
+     *
+     * @return names of classes from matching packages, sorted by resource name.
+     */
+    ImmutableList<String> getClassNames(final PackagePrefixTrie packagePrefixes) {
+        return getClassNames(packagePrefixes, file -> true);
+    }
+
+    /**
+     * @param entryFilter takes jar file or class directory of entry.
+     */
+    ImmutableList<String> getClassNames(final PackagePrefixTrie packagePrefixes, final Predicate<File> entryFilter) {
+        final Map<String, Boolean> packageMatches = new HashMap<>();
+        final Set<String> resourceNames = new HashSet<>();
+        for (final ClasspathEntry entry : entries) {
+            if (entryFilter.test(entry.getFile()) && entry.getPackageNames().stream().anyMatch(packageName -> packageMatches.computeIfAbsent(packageName, packagePrefixes::matches))) {
+                for (final String resourceName : entry.getClassFiles().keySet()) {
+                    if (packageMatches.computeIfAbsent(ClassNames.packageName(toClassName(resourceName)), packagePrefixes::matches)) {
+                        resourceNames.add(resourceName);
+                    }
+                }
+            }
+        }
+        final List<String> sortedResourceNames = new ArrayList<>(resourceNames);
+        Collections.sort(sortedResourceNames);
+        final ImmutableList.Builder<String> classNames = ImmutableList.builder();
+        for (final String resourceName : sortedResourceNames) {
+            classNames.add(toClassName(resourceName));
+        }
+        return classNames.build();
+    }
+
+    private static String toClassName(final String resourceName) {
+        return resourceName.substring(0, resourceName.length() - CLASS_FILE_EXTENSION.length()).replace('/', '.');
+    }
+
+    /**
+     * Only entries having package of class are looked into, first one containing class wins.
+     *
+     * @return class file location or null when class loader knows nothing about class.
+     */
+    ClassFileLocation locate(final String className) {
+        final String resourceName = className.replace('.', '/') + CLASS_FILE_EXTENSION;
+        final List<ClasspathEntry> packageEntries = packageToEntries.get(ClassNames.packageName(className));
+        if (packageEntries != null) {
+            for (final ClasspathEntry entry : packageEntries) {
+                final ClassFileLocation location = entry.getClassFiles().get(resourceName);
+                if (location != null) {
+                    return location;
+                }
+            }
+        }
+        final URL classUrl = classLoader.getResource(resourceName);
+        return classUrl != null ? new UrlClassFile(classUrl) : null;
+    }
+
+    /**
+     * Directory or jar, safe for concurrent use once opened.
+     */
+    private interface ClasspathEntry {
+        /**
+         * @return jar file or class directory.
+         */
+        File getFile();
+
+        /**
+         * @return packages having class files, java form.
+         */
+        Set<String> getPackageNames();
+
+        /**
+         * @return class files by resource name.
+         */
+        Map<String, ? extends ClassFileLocation> getClassFiles();
+    }
+
+    private static class DirectoryEntry implements ClasspathEntry {
+        private final File directory;
+        private final Set<String> packageNames = new LinkedHashSet<>();
+        private final Map<String, DirectoryClassFile> classFiles = new HashMap<>();
+
+        private DirectoryEntry(final File directory) {
+            this.directory = directory;
+        }
+
+        static DirectoryEntry open(final Path directory) throws IOException {
+            final DirectoryEntry directoryEntry = new DirectoryEntry(directory.toFile());
+            try (final Stream<Path> paths = Files.walk(directory)) {
+                paths.filter(path -> path.getFileName().toString().endsWith(CLASS_FILE_EXTENSION) && Files.isRegularFile(path))
+                        .forEach(path -> {
+                            final String resourceName = directory.relativize(path).toString().replace(File.separatorChar, '/');
+                            directoryEntry.classFiles.put(resourceName, new DirectoryClassFile(path));
+                            directoryEntry.packageNames.add(ClassNames.packageName(toClassName(resourceName)));
+                        });
+            }
+            return directoryEntry;
+        }
+
+        @Override
+        public File getFile() {
+            return directory;
+        }
+
+        @Override
+        public Set<String> getPackageNames() {
+            return packageNames;
+        }
+
+        @Override
+        public Map<String, DirectoryClassFile> getClassFiles() {
+            return classFiles;
+        }
+    }
+
+    /**
+     * Place to read class file bytes from, safe for concurrent use.
+     */
+    interface ClassFileLocation {
+        /**
+         * @return class file bytes, buffer could be a read only view of a shared mapping.
+         */
+        ByteBuffer read() throws IOException;
+
+        /**
+         * @return jar file containing class or null for classes from directories.
+         */
+        File getJarFile();
+    }
+
+    private static class DirectoryClassFile implements ClassFileLocation {
+        private final Path path;
+
+        private DirectoryClassFile(final Path path) {
+            this.path = path;
+        }
+
+        @Override
+        public ByteBuffer read() throws IOException {
+            return ByteBuffer.wrap(Files.readAllBytes(path));
+        }
+
+        @Override
+        public File getJarFile() {
+            return null;
+        }
+    }
+
+    private static class UrlClassFile implements ClassFileLocation {
+        private final URL url;
+
+        private UrlClassFile(final URL url) {
+            this.url = url;
+        }
+
+        @Override
+        public ByteBuffer read() throws IOException {
+            return ByteBuffer.wrap(Resources.toByteArray(url));
+        }
+
+        @Override
+        public File getJarFile() {
+            if (!"jar".equals(url.getProtocol())) {
+                return null;
+            }
+            final String path = url.getPath();
+            final int separatorIndex = path.indexOf("!/");
+            try {
+                final URL jarUrl = new URL(separatorIndex >= 0 ? path.substring(0, separatorIndex) : path);
+                return "file".equals(jarUrl.getProtocol()) ? new File(jarUrl.toURI()) : null;
+            } catch (final IOException | URISyntaxException e) {
+                return null;
+            }
+        }
+    }
+
+    private static class JarClassFile implements ClassFileLocation {
+        private final MappedJar jar;
+        private final int localHeaderOffset;
+        private final int compressedSize;
+        private final int size;
+        private final boolean deflated;
+
+        private JarClassFile(final MappedJar jar, final int localHeaderOffset, final int compressedSize, final int size, final boolean deflated) {
+            this.jar = jar;
+            this.localHeaderOffset = localHeaderOffset;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.deflated = deflated;
+        }
+
+        @Override
+        public ByteBuffer read() throws IOException {
+            return jar.read(this);
+        }
+
+        @Override
+        public File getJarFile() {
+            return jar.file;
+        }
+    }
+
+    /**
+     * Zip file mapped into memory. Central directory is walked on open to list packages,
+     * class files are indexed by name on first demand only.
+     */
+    private static class MappedJar implements ClasspathEntry {
+        private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+        private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+        private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+        private static final int CENTRAL_FILE_HEADER_SIGNATURE = 0x02014b50;
+        private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+        private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+        private static final int MAX_COMMENT_SIZE = 0xFFFF;
+        private static final int ZIP64_EXTRA_ID = 0x0001;
+        private static final int STORED = 0;
+        private static final int DEFLATED = 8;
+
+        private final File file;
+        private final ByteBuffer mapping;
+        private final Set<String> packageNames = new LinkedHashSet<>();
+        private final Supplier<Map<String, JarClassFile>> classFilesSupplier = Suppliers.memoize(this::indexClassFiles);
+        private long entriesCount;
+        private int directoryOffset;
+        private JarClassFile manifest;
+
+        static MappedJar open(final File file) throws IOException {
+            try (final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+                 final FileChannel channel = randomAccessFile.getChannel()) {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException("Jar is too large to be mapped: " + channel.size());
+                }
+                final MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                final MappedJar mappedJar = new MappedJar(file, mapping.order(ByteOrder.LITTLE_ENDIAN));
+                mappedJar.readCentralDirectory();
+                return mappedJar;
+            }
+        }
+
+        private MappedJar(final File file, final ByteBuffer mapping) {
+            this.file = file;
+            this.mapping = mapping;
+        }
+
+        @Override
+        public File getFile() {
+            return file;
+        }
+
+        @Override
+        public Set<String> getPackageNames() {
+            return packageNames;
+        }
+
+        @Override
+        public Map<String, JarClassFile> getClassFiles() {
+            return classFilesSupplier.get();
+        }
+
+        private void readCentralDirectory() throws IOException {
+            final int endOffset = findEndOfCentralDirectory();
+            entriesCount = mapping.getShort(endOffset + 10) & 0xFFFF;
+            long directoryOffset = mapping.getInt(endOffset + 16) & 0xFFFFFFFFL;
+            final int zip64LocatorOffset = endOffset - 20;
+            if (zip64LocatorOffset >= 0 && mapping.getInt(zip64LocatorOffset) == ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE) {
+                final int zip64EndOffset = toOffset(mapping.getLong(zip64LocatorOffset + 8));
+                if (mapping.getInt(zip64EndOffset) != ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                    throw new IOException("Broken zip64 end of central directory");
+                }
+                entriesCount = mapping.getLong(zip64EndOffset + 32);
+                directoryOffset = mapping.getLong(zip64EndOffset + 48);
+            }
+            this.directoryOffset = toOffset(directoryOffset);
+            //entries of a package usually go one after another, so package name is decoded once per run:
+            final int[] lastPackage = {-1, -1};
+            forEachEntry((entryOffset, nameOffset, nameLength) -> {
+                if (endsWith(nameOffset, nameLength, CLASS_FILE_EXTENSION)) {
+                    int packageLength = nameLength - 1;
+                    while (packageLength >= 0 && mapping.get(nameOffset + packageLength) != '/') {
+                        packageLength--;
+                    }
+                    packageLength = Math.max(packageLength, 0);
+                    if (lastPackage[0] < 0 || !regionEquals(lastPackage[0], lastPackage[1], nameOffset, packageLength)) {
+                        packageNames.add(readName(nameOffset, packageLength).replace('/', '.'));
+                        lastPackage[0] = nameOffset;
+                        lastPackage[1] = packageLength;
+                    }
+                } else if (nameLength == JarFile.MANIFEST_NAME.length() && readName(nameOffset, nameLength).equals(JarFile.MANIFEST_NAME)) {
+                    manifest = createClassFile(entryOffset);
+                }
+            });
+        }
+
+        private Map<String, JarClassFile> indexClassFiles() {
+            final Map<String, JarClassFile> classFiles = new HashMap<>();
+            try {
+                forEachEntry((entryOffset, nameOffset, nameLength) -> {
+                    if (endsWith(nameOffset, nameLength, CLASS_FILE_EXTENSION)) {
+                        final JarClassFile classFile = createClassFile(entryOffset);
+                        if (classFile != null) {
+                            classFiles.putIfAbsent(readName(nameOffset, nameLength), classFile);
+                        }
+                    }
+                });
+            } catch (final IOException e) {
+                throw new RuntimeException("Failed to index " + file, e);
+            }
+            return classFiles;
+        }
+
+        private void forEachEntry(final EntryVisitor visitor) throws IOException {
+            int offset = directoryOffset;
+            for (long entryIndex = 0; entryIndex < entriesCount; entryIndex++) {
+                if (mapping.getInt(offset) != CENTRAL_FILE_HEADER_SIGNATURE) {
+                    throw new IOException("Broken central directory at " + offset);
+                }
+                final int nameLength = mapping.getShort(offset + 28) & 0xFFFF;
+                final int extraLength = mapping.getShort(offset + 30) & 0xFFFF;
+                final int commentLength = mapping.getShort(offset + 32) & 0xFFFF;
+                visitor.visit(offset, offset + 46, nameLength);
+                offset += 46 + nameLength + extraLength + commentLength;
+            }
+        }
+
+        /**
+         * @return location of entry data or null for compression method which is not supported.
+         */
+        private JarClassFile createClassFile(final int entryOffset) throws IOException {
+            final int method = mapping.getShort(entryOffset + 10) & 0xFFFF;
+            if (method != STORED && method != DEFLATED) {
+                return null;
+            }
+            long compressedSize = mapping.getInt(entryOffset + 20) & 0xFFFFFFFFL;
+            long size = mapping.getInt(entryOffset + 24) & 0xFFFFFFFFL;
+            long localHeaderOffset = mapping.getInt(entryOffset + 42) & 0xFFFFFFFFL;
+            if (size == 0xFFFFFFFFL || compressedSize == 0xFFFFFFFFL || localHeaderOffset == 0xFFFFFFFFL) {
+                //zip64 extra field keeps only values which do not fit, in this order:
+                final int nameLength = mapping.getShort(entryOffset + 28) & 0xFFFF;
+                final int extraLength = mapping.getShort(entryOffset + 30) & 0xFFFF;
+                int extraOffset = findExtra(entryOffset + 46 + nameLength, extraLength, ZIP64_EXTRA_ID);
+                if (size == 0xFFFFFFFFL) {
+                    size = mapping.getLong(extraOffset);
+                    extraOffset += 8;
+                }
+                if (compressedSize == 0xFFFFFFFFL) {
+                    compressedSize = mapping.getLong(extraOffset);
+                    extraOffset += 8;
+                }
+                if (localHeaderOffset == 0xFFFFFFFFL) {
+                    localHeaderOffset = mapping.getLong(extraOffset);
+                }
+            }
+            return new JarClassFile(this, toOffset(localHeaderOffset), toOffset(compressedSize), toOffset(size), method == DEFLATED);
+        }
+
+        private int findEndOfCentralDirectory() throws IOException {
+            final int lowestOffset = Math.max(0, mapping.capacity() - END_OF_CENTRAL_DIRECTORY_SIZE - MAX_COMMENT_SIZE);
+            for (int offset = mapping.capacity() - END_OF_CENTRAL_DIRECTORY_SIZE; offset >= lowestOffset; offset--) {
+                if (mapping.getInt(offset) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                    return offset;
+                }
+            }
+            throw new IOException("Not a zip file");
+        }
+
+        private int findExtra(final int extraStart, final int extraLength, final int headerId) throws IOException {
+            int offset = extraStart;
+            while (offset + 4 <= extraStart + extraLength) {
+                final int id = mapping.getShort(offset) & 0xFFFF;
+                final int dataSize = mapping.getShort(offset + 2) & 0xFFFF;
+                if (id == headerId) {
+                    return offset + 4;
+                }
+                offset += 4 + dataSize;
+            }
+            throw new IOException("Zip64 extra field not found");
+        }
+
+        private boolean endsWith(final int nameOffset, final int nameLength, final String suffix) {
+            if (nameLength < suffix.length()) {
+                return false;
+            }
+            final int suffixOffset = nameOffset + nameLength - suffix.length();
+            for (int i = 0; i < suffix.length(); i++) {
+                if (mapping.get(suffixOffset + i) != suffix.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean regionEquals(final int offset, final int length, final int otherOffset, final int otherLength) {
+            if (length != otherLength) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (mapping.get(offset + i) != mapping.get(otherOffset + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private String readName(final int nameOffset, final int nameLength) {
+            final byte[] nameBytes = new byte[nameLength];
+            for (int i = 0; i < nameLength; i++) {
+                nameBytes[i] = mapping.get(nameOffset + i);
+            }
+            return new String(nameBytes, StandardCharsets.UTF_8);
+        }
+
+        private static int toOffset(final long value) throws IOException {
+            if (value < 0 || value > Integer.MAX_VALUE) {
+                throw new IOException("Zip offset or size out of range: " + value);
+            }
+            return (int) value;
+        }
+
+        /**
+         * @return manifest bytes or null when jar has no manifest.
+         */
+        ByteBuffer readManifest() throws IOException {
+            return manifest != null ? read(manifest) : null;
+        }
+
+        ByteBuffer read(final JarClassFile location) throws IOException {
+            final int nameLength = mapping.getShort(location.localHeaderOffset + 26) & 0xFFFF;
+            final int extraLength = mapping.getShort(location.localHeaderOffset + 28) & 0xFFFF;
+            if (mapping.getInt(location.localHeaderOffset) != LOCAL_FILE_HEADER_SIGNATURE) {
+                throw new IOException("Broken local file header at " + location.localHeaderOffset + " in " + file);
+            }
+            final ByteBuffer data = mapping.duplicate();
+            data.position(location.localHeaderOffset + 30 + nameLength + extraLength);
+            data.limit(data.position() + location.compressedSize);
+            if (!location.deflated) {
+                return data.slice().asReadOnlyBuffer();
+            }
+            //java 8 inflater takes arrays only, so compressed bytes are copied once:
+            final byte[] compressed = new byte[location.compressedSize];
+            data.get(compressed);
+            final byte[] inflated = new byte[location.size];
+            final Inflater inflater = INFLATER.get();
+            inflater.reset();
+            inflater.setInput(compressed);
+            try {
+                int inflatedSize = 0;
+                while (inflatedSize < inflated.length && !inflater.finished()) {
+                    final int count = inflater.inflate(inflated, inflatedSize, inflated.length - inflatedSize);
+                    if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IOException("Truncated deflated entry at " + location.localHeaderOffset + " in " + file);
+                    }
+                    inflatedSize += count;
+                }
+            } catch (final DataFormatException e) {
+                throw new IOException("Broken deflated entry at " + location.localHeaderOffset + " in " + file, e);
+            }
+            return ByteBuffer.wrap(inflated);
+        }
+
+        private interface EntryVisitor {
+            void visit(int entryOffset, int nameOffset, int nameLength) throws IOException;
+        }
+    }
+}
@@ -1,24 +1,29 @@
 package org.micromodules.control.scan;
 
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.reflect.ClassPath;
-import javassist.ClassPool;
-import javassist.CtClass;
-import javassist.LoaderClassPath;
-import javassist.NotFoundException;
+import org.micromodules.control.util.ClassNames;
 import org.micromodules.control.util.MapToSet;
+import org.micromodules.control.util.SymbolTable;
 import org.micromodules.setup.Contract;
 import org.micromodules.setup.Implementation;
 import org.micromodules.setup.Module;
 
+import java.io.File;
 import java.io.IOException;
-import java.net.URL;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.IntConsumer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
 /**
  * @author dmitry.mamonov
@@ -26,157 +31,313 @@ import java.util.Set;
  */
 @Contract(__modules__.ClasspathModule.class)
 public class ClasspathRelations {
+    private static final int[] NO_IDS = new int[0];
+    private final ScanSettings settings;
+    private final ClassLoader classLoader;
+    private final ImmutableSet<String> packagePrefixList;
+    private final ClassRecordMemo recordMemo;
     private final ImmutableSet<Class<? extends Module>> modulesSet;
-    private final ImmutableSet<Class<?>> classesSet;
-    private final ImmutableMap<String, ImmutableSet<Class<?>>> packageToClassMap;
-    private final ImmutableMap<Class<? extends Module>,ImmutableSet<Class<?>>> moduleToAnnotatedContractClassesMap;
-    private final ImmutableMap<Class<? extends Module>,ImmutableSet<Class<?>>> moduleToAnnotatedImplementationClassesMap;
-    private final Map<String, String> classToJarCache = new HashMap<>();
+    private final ImmutableSet<String> classNamesSet;
+    private final Supplier<ImmutableSet<Class<?>>> classesSetSupplier;
+    private final ImmutableSet<String> moduleClassNamesSet;
+    private final ImmutableMap<String, ImmutableSet<String>> packageToClassNamesMap;
+    private final ImmutableMap<String, ImmutableSet<String>> moduleToAnnotatedContractClassNamesMap;
+    private final ImmutableMap<String, ImmutableSet<String>> moduleToAnnotatedImplementationClassNamesMap;
+    private final ClasspathEntries dependencyClasspathEntries;
+    private final ConcurrentMap<String, String> classToJarCache = new ConcurrentHashMap<>();
     private final ImmutableMap<String, ImmutableSet<String>> classContainsClassesMap;
     private final ImmutableMap<String, ImmutableSet<String>> classToDependencyClassMap;
+    private final SymbolTable symbolTable;
+    private final String scanMemoryReport;
+    private final int[][] classContainsClassIds;
+    private final int[][] classToDependencyClassIds;
 
 
     public static ClasspathRelations createFrom(final ClassLoader classLoader, final String... packagePrefixes) {
+        return createFrom(ScanSettings.defaults(), classLoader, packagePrefixes);
+    }
+
+    public static ClasspathRelations createFrom(final ScanSettings settings, final ClassLoader classLoader, final String... packagePrefixes) {
         try {
-            return new ClasspathRelations(classLoader, ImmutableSet.copyOf(packagePrefixes));
+            return new ClasspathRelations(settings, classLoader, null, ImmutableSet.copyOf(packagePrefixes), null, null);
         } catch (final IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private ClasspathRelations(final ClassLoader classLoader, final ImmutableSet<String> packagePrefixList) throws IOException {
-        final ImmutableSet<ClassPath.ClassInfo> allClasses = ClassPath.from(classLoader).getAllClasses();
+    /**
+     * Merges shards scanned separately, classes of shards are taken as scanned classes and their byte code
+     * is not parsed again. Classes out of shards (like super types of scanned classes from other artifacts)
+     * are looked up on given classpath. If several shards contain the same class, the first one wins.
+     */
+    public static ClasspathRelations createFrom(final ScanSettings settings, final ClassLoader classLoader, final Iterable<ScanShard> shards) {
+        checkNotNull(shards, "shards required");
+        final Set<String> packagePrefixes = new LinkedHashSet<>();
+        final Set<String> scannedClassNames = new LinkedHashSet<>();
+        final ClassRecordMemo recordMemo = new ClassRecordMemo();
+        for (final ScanShard shard : shards) {
+            packagePrefixes.addAll(shard.getPackagePrefixes());
+            scannedClassNames.addAll(shard.getClassNames());
+            shard.getRecords().forEach(recordMemo::putIfAbsent);
+        }
+        try {
+            return new ClasspathRelations(settings, classLoader, null, ImmutableSet.copyOf(packagePrefixes), ImmutableList.copyOf(scannedClassNames), recordMemo);
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-        final Set<Class<? extends Module>> modulesSetMutable = new HashSet<>();
-        final Set<Class<?>> classesSetMutable = new HashSet<>();
-        @SuppressWarnings("MismatchedQueryAndUpdateOfCollection")
-        final MapToSet<String, Class<?>> packageToClassMapMutable = new MapToSet<>();
-        @SuppressWarnings("MismatchedQueryAndUpdateOfCollection")
-        final MapToSet<Class<? extends Module>,Class<?>> moduleToAnnotatedContractClassesMapMutable = new MapToSet<>();
+    /**
+     * Class dependencies are handed to sink as soon as they are scanned, so consumer work overlaps with scan,
+     * relations do not keep them: {@link #getClassToDependencyClassMap()} and other dependency views are empty.
+     */
+    public static ClasspathRelations createFrom(final ScanSettings settings, final ClassLoader classLoader, final DependencySink dependencySink, final String... packagePrefixes) {
+        checkNotNull(dependencySink, "dependencySink required");
+        try {
+            return new ClasspathRelations(settings, classLoader, dependencySink, ImmutableSet.copyOf(packagePrefixes), null, null);
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Scans the same classpath again, byte code is parsed only for changed classes,
+     * requires {@link ScanSettings#withRecordsRetained(boolean)}.
+     *
+     * @param changedClassNames classes which were changed, created or deleted since this scan.
+     */
+    public ClasspathRelations rescan(final Set<String> changedClassNames) {
+        checkNotNull(changedClassNames, "changedClassNames required");
+        checkState(recordMemo != null, "Parsed records are not retained, rescan is not possible");
+        try {
+            return new ClasspathRelations(settings, classLoader, null, packagePrefixList, null, recordMemo.copyWithout(changedClassNames));
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param scannedClassNames classes to scan or null to scan classes of classpath matching package prefixes.
+     * @param recordMemo        records of previous scan or merged shards, null for the first scan.
+     */
+    private ClasspathRelations(final ScanSettings settings, final ClassLoader classLoader, final DependencySink dependencySink,
+                               final ImmutableSet<String> packagePrefixList, final ImmutableList<String> scannedClassNames,
+                               final ClassRecordMemo recordMemo) throws IOException {
+        this.settings = checkNotNull(settings, "settings required");
+        this.classLoader = checkNotNull(classLoader, "classLoader required");
+        this.packagePrefixList = packagePrefixList;
+        final ClassRecordMemo sourceMemo = recordMemo != null ? recordMemo : settings.isRecordsRetained() ? new ClassRecordMemo() : null;
+        this.recordMemo = settings.isRecordsRetained() ? sourceMemo : null;
+        final ClasspathEntries classpathEntries = ClasspathEntries.open(classLoader);
+        final ScanCache scanCache = settings.getCacheFile() != null ? ScanCache.open(settings.getCacheFile(), settings.getBackend()) : null;
+        final ScanMemory scanMemory = new ScanMemory(settings.getParserMemoryLimit());
+        final ClassHierarchy classHierarchy = new ClassHierarchy(new ClassRecordSource(classpathEntries, settings.getBackend(), scanCache, scanMemory, sourceMemo));
+
+        final Set<String> moduleNamesSetMutable = new TreeSet<>();
+        final Set<String> classNamesSetMutable = new TreeSet<>();
+        final Set<String> moduleClassNamesSetMutable = new TreeSet<>();
         @SuppressWarnings("MismatchedQueryAndUpdateOfCollection")
-        final MapToSet<Class<? extends Module>,Class<?>> moduleToAnnotatedImplementationClassesMapMutable = new MapToSet<>();
+        final MapToSet<String, String> packageToClassNamesMapMutable = new MapToSet<>();
         @SuppressWarnings("MismatchedQueryAndUpdateOfCollection")
-        final MapToSet<String, String> classContainsClassesMapMutable = new MapToSet<>();
+        final MapToSet<String, String> moduleToAnnotatedContractClassNamesMapMutable = new MapToSet<>();
         @SuppressWarnings("MismatchedQueryAndUpdateOfCollection")
-        final MapToSet<String, String> classToDependencyClassMapMutable = new MapToSet<>();
-
-        for (final ClassPath.ClassInfo classInfo : allClasses) {
-            for(final String packagePrefix: packagePrefixList) {
-                if (classInfo.getPackageName().startsWith(packagePrefix)) {
-                    final Class<?> clazz = classInfo.load();
-                    if (Module.class.isAssignableFrom(clazz) && !clazz.isInterface() && !Module.Partial.class.isAssignableFrom(clazz)) {
-                        //noinspection unchecked
-                        modulesSetMutable.add((Class<? extends Module>) clazz);
-                    } else {
-                        final String simpleClassName = clazz.getSimpleName();
-                        if (!simpleClassName.equals("__module__") && !simpleClassName.equals("__modules__")){
-                            packageToClassMapMutable.get(classInfo.getPackageName()).add(clazz);
-                            classesSetMutable.add(clazz);
-                            { //ContractClass annotation
-                                final Contract contract = clazz.getAnnotation(Contract.class);
-                                if (contract!=null) {
-                                    moduleToAnnotatedContractClassesMapMutable.get(contract.value()).add(clazz);
-                                }
-                            }
-                            { //Implementation annotation
-                                final Implementation implementation = clazz.getAnnotation(Implementation.class);
-                                if (implementation!=null){
-                                    moduleToAnnotatedImplementationClassesMapMutable.get(implementation.value()).add(clazz);
-                                }
-                            }
+        final MapToSet<String, String> moduleToAnnotatedImplementationClassNamesMapMutable = new MapToSet<>();
+
+        final ImmutableList<String> classNamesToScan = scannedClassNames != null ? scannedClassNames : classpathEntries.getClassNames(PackagePrefixTrie.of(packagePrefixList));
+        for (final String scannedClassName : classNamesToScan) {
+            final String packageName = ClassNames.packageName(scannedClassName);
+            final ClassHeader header;
+            final boolean isModuleClass;
+            final boolean isPartialModuleClass;
+            if (settings.isLoaderFree()) {
+                header = checkNotNull(classHierarchy.getHeader(scannedClassName), "No byte code of %s", scannedClassName);
+                isModuleClass = !header.isInterface() && classHierarchy.isSubtypeOf(header.getName(), Module.class.getName());
+                isPartialModuleClass = classHierarchy.isSubtypeOf(header.getName(), Module.Partial.class.getName());
+            } else {
+                final Class<?> clazz = loadClass(scannedClassName);
+                header = ClassHeader.of(clazz);
+                isModuleClass = !clazz.isInterface() && Module.class.isAssignableFrom(clazz);
+                isPartialModuleClass = Module.Partial.class.isAssignableFrom(clazz);
+            }
+            final String className = header.getName();
+            if (isModuleClass && !isPartialModuleClass) {
+                moduleNamesSetMutable.add(className);
+            } else {
+                final String simpleClassName = ClassNames.simpleName(className);
+                if (!simpleClassName.equals("__module__") && !simpleClassName.equals("__modules__")){
+                    packageToClassNamesMapMutable.get(packageName).add(className);
+                    classNamesSetMutable.add(className);
+                    if (isModuleClass) {
+                        moduleClassNamesSetMutable.add(className);
+                    }
+                    { //ContractClass annotation
+                        if (header.getContractModuleName() != null) {
+                            moduleToAnnotatedContractClassNamesMapMutable.get(header.getContractModuleName()).add(className);
+                        }
+                    }
+                    { //Implementation annotation
+                        if (header.getImplementationModuleName() != null) {
+                            moduleToAnnotatedImplementationClassNamesMapMutable.get(header.getImplementationModuleName()).add(className);
                         }
                     }
-                    break;
                 }
             }
         }
 
-        final ClassPool pool = new ClassPool();
-        pool.appendClassPath(new LoaderClassPath(Thread.currentThread().getContextClassLoader()));
-        for (final Class<?> clazz : classesSetMutable) {
-            new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        final CtClass ctClass = pool.get(clazz.getName());
-                        addClassAsNode(ctClass, ctClass);
-                    } catch (final NotFoundException e) {
-                        throw new RuntimeException(e);
-                    }
-                }
+        this.classNamesSet = ImmutableSet.copyOf(classNamesSetMutable);
+        this.moduleClassNamesSet = ImmutableSet.copyOf(moduleClassNamesSetMutable);
+        final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        this.dependencyClasspathEntries = contextClassLoader == classLoader ? classpathEntries : ClasspathEntries.open(contextClassLoader);
+        final ClassRecordSource dependencyRecordSource = new ClassRecordSource(dependencyClasspathEntries, settings.getBackend(), scanCache, scanMemory, sourceMemo);
+        final MapToSet<String, String> classContainsClassesMapMutable;
+        final MapToSet<String, String> classToDependencyClassMapMutable;
+        if (dependencySink != null) {
+            dependencySink.start(classNamesSet, this::isModuleClass, this::getJarName);
+            DependencyScan.stream(dependencyRecordSource, classNamesSet.asList(), settings.getParallelism(), (className, dependencyClassNames, containedClassNames) -> {
+                removeAnnotationDependencies(dependencyClassNames);
+                removeAnnotationContained(containedClassNames);
+                dependencySink.accept(className, ImmutableSet.copyOf(dependencyClassNames), ImmutableSet.copyOf(containedClassNames));
+            });
+            classContainsClassesMapMutable = new MapToSet<>();
+            classToDependencyClassMapMutable = new MapToSet<>();
+        } else {
+            final DependencyScan dependencyScan = DependencyScan.scan(dependencyRecordSource, classNamesSet.asList(), settings.getParallelism());
+            classContainsClassesMapMutable = dependencyScan.getClassContainsClassesMap();
+            classToDependencyClassMapMutable = dependencyScan.getClassToDependencyClassMap();
+            classToDependencyClassMapMutable.values().forEach(ClasspathRelations::removeAnnotationDependencies);
+            classContainsClassesMapMutable.values().forEach(ClasspathRelations::removeAnnotationContained);
+        }
+        if (scanCache != null) {
+            scanCache.save();
+        }
+        this.scanMemoryReport = scanMemory.report(this.recordMemo != null ? this.recordMemo.size() : 0);
 
-                void addClassAsNode(final CtClass ctClass, final CtClass trackAs) throws NotFoundException {
-                    addRelations(trackAs, ctClass.getClassFile().getConstPool().getClassNames());
-                    addRelations(trackAs, ctClass.getRefClasses());
-                    addRelations(trackAs, ImmutableList.of(ctClass.getSuperclass().getName()));
-                    final CtClass[] interfaces = ctClass.getInterfaces();
-                    if (interfaces != null) {
-                        for (final CtClass face : interfaces) {
-                            addRelations(trackAs, ImmutableList.of(face.getName()));
-                        }
-                    }
+        this.modulesSet = loadClasses(moduleNamesSetMutable);
+        this.classesSetSupplier = Suppliers.memoize(() -> loadClasses(classNamesSet));
+        this.packageToClassNamesMap = packageToClassNamesMapMutable.convertToImmutableMap();
+        this.moduleToAnnotatedContractClassNamesMap = moduleToAnnotatedContractClassNamesMapMutable.convertToImmutableMap();
+        this.moduleToAnnotatedImplementationClassNamesMap = moduleToAnnotatedImplementationClassNamesMapMutable.convertToImmutableMap();
+        this.symbolTable = new SymbolTable();
+        this.classNamesSet.forEach(symbolTable::intern);
+        this.classContainsClassIds = new int[classNamesSet.size()][];
+        this.classToDependencyClassIds = new int[classNamesSet.size()][];
+        this.classContainsClassesMap = internNames(classContainsClassesMapMutable, classContainsClassIds);
+        this.classToDependencyClassMap = internNames(classToDependencyClassMapMutable, classToDependencyClassIds);
+    }
 
-                    final CtClass[] nestedClasses = ctClass.getNestedClasses();
-                    if (nestedClasses != null) {
-                        for (final CtClass nestedCtClass : nestedClasses) {
-                            addClassAsNode(nestedCtClass, trackAs);
-                            classContainsClassesMapMutable.get(trackAs.getName()).add(nestedCtClass.getName());
-                        }
-                    }
-                }
+    /**
+     * Filters dependencies to specific annotations.
+     */
+    private static void removeAnnotationDependencies(final Set<String> dependencyClassNames) {
+        dependencyClassNames.remove(Contract.class.getName());
+        dependencyClassNames.remove(Implementation.class.getName());
+    }
 
-                private void addRelations(final CtClass sourceClass, final Iterable refClasses) {
-                    if (refClasses != null) {
-                        final String sourceClassName = sourceClass.getName();
-                        for (final Object classNameObj : refClasses) {
-                            final String refClassName = (String) classNameObj;
-                            classToDependencyClassMapMutable.get(sourceClassName).add(refClassName);
-                        }
-                    }
-                }
-            }.run();
+    private static void removeAnnotationContained(final Set<String> containedClassNames) {
+        containedClassNames.remove(Contract.class.getName());
+    }
+
+    /**
+     * Assigns ids to names of class relations, so both id and name based views share the same name instances.
+     */
+    private ImmutableMap<String, ImmutableSet<String>> internNames(final MapToSet<String, String> classToNamesMap, final int[][] classToIds) {
+        final ImmutableMap.Builder<String, ImmutableSet<String>> result = ImmutableMap.builder();
+        classToNamesMap.forEach((className, names) -> {
+            final int classId = symbolTable.intern(className);
+            final int[] ids = new int[names.size()];
+            final ImmutableSet.Builder<String> canonicalNames = ImmutableSet.builder();
+            int index = 0;
+            for (final String name : names) {
+                ids[index] = symbolTable.intern(name);
+                canonicalNames.add(symbolTable.name(ids[index]));
+                index++;
+            }
+            classToIds[classId] = ids;
+            result.put(symbolTable.name(classId), canonicalNames.build());
+        });
+        for (int classId = 0; classId < classToIds.length; classId++) {
+            if (classToIds[classId] == null) {
+                classToIds[classId] = NO_IDS;
+            }
         }
+        return result.build();
+    }
 
-        { //filter dependencies to specific annotations:
-            final String contractAnnotationClassName = Contract.class.getName();
-            final String implementationAnnotationClassName = Implementation.class.getName();
-            classToDependencyClassMapMutable.values().forEach(dependencyClassesSet -> {
-                dependencyClassesSet.remove(contractAnnotationClassName);
-                dependencyClassesSet.remove(implementationAnnotationClassName);
-            });
-            classContainsClassesMapMutable.values().forEach(containsSet -> {
-                containsSet.remove(contractAnnotationClassName);
-                containsSet.remove(contractAnnotationClassName);
-            });
+    /**
+     * Loads classes without initialization, in loader free scan mode this is the only place classes are loaded.
+     */
+    public <T> ImmutableSet<Class<? extends T>> loadClasses(final Iterable<String> classNames) {
+        final ImmutableSet.Builder<Class<? extends T>> result = ImmutableSet.builder();
+        for (final String className : classNames) {
+            //noinspection unchecked
+            result.add((Class<? extends T>) loadClass(className));
         }
+        return result.build();
+    }
 
-        this.modulesSet = ImmutableSet.copyOf(modulesSetMutable);
-        this.classesSet = ImmutableSet.copyOf(classesSetMutable);
-        this.packageToClassMap = packageToClassMapMutable.convertToImmutableMap();
-        this.moduleToAnnotatedContractClassesMap = moduleToAnnotatedContractClassesMapMutable.convertToImmutableMap();
-        this.moduleToAnnotatedImplementationClassesMap = moduleToAnnotatedImplementationClassesMapMutable.convertToImmutableMap();
-        this.classContainsClassesMap = classContainsClassesMapMutable.convertToImmutableMap();
-        this.classToDependencyClassMap = classToDependencyClassMapMutable.convertToImmutableMap();
+    private Class<?> loadClass(final String className) {
+        try {
+            return Class.forName(className, false, classLoader);
+        } catch (final ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     public ImmutableSet<Class<? extends Module>> getModulesSet() {
         return modulesSet;
     }
 
+    public ScanSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * @return memory statistics of the scan, one line.
+     */
+    public String getScanMemoryReport() {
+        return scanMemoryReport;
+    }
+
+    public ImmutableSet<String> getClassNamesSet() {
+        return classNamesSet;
+    }
+
+    /**
+     * Forces all scanned classes to be loaded, prefer {@link #getClassNamesSet()}.
+     */
     public ImmutableSet<Class<?>> getClassesSet() {
-        return classesSet;
+        return classesSetSupplier.get();
+    }
+
+    /**
+     * @return true if class implements {@link Module} yet it is not a module itself, like {@link Module.Partial}.
+     */
+    public boolean isModuleClass(final String className) {
+        return moduleClassNamesSet.contains(className);
+    }
+
+    public ImmutableSet<String> getPackageToClassNames(final String packageName) {
+        return replaceNullWithEmptySet(packageToClassNamesMap.get(packageName));
     }
 
     public ImmutableSet<Class<?>> getPackageToClasses(final String packageName) {
-        return replaceNullWithEmptySet(packageToClassMap.get(packageName));
+        return loadClasses(getPackageToClassNames(packageName));
+    }
+
+    public ImmutableSet<String> getModuleToAnnotatedContractClassNames(final String moduleClassName) {
+        return replaceNullWithEmptySet(moduleToAnnotatedContractClassNamesMap.get(moduleClassName));
     }
 
     public ImmutableSet<Class<?>> getModuleToAnnotatedContractClasses(final Class<? extends Module> moduleClazz) {
-        return replaceNullWithEmptySet(moduleToAnnotatedContractClassesMap.get(moduleClazz));
+        return loadClasses(getModuleToAnnotatedContractClassNames(moduleClazz.getName()));
+    }
+
+    public ImmutableSet<String> getModuleToAnnotatedImplementationClassNames(final String moduleClassName) {
+        return replaceNullWithEmptySet(moduleToAnnotatedImplementationClassNamesMap.get(moduleClassName));
     }
 
     public ImmutableSet<Class<?>> getModuleToAnnotatedImplementationClasses(final Class<? extends Module> moduleClazz) {
-        return replaceNullWithEmptySet(moduleToAnnotatedImplementationClassesMap.get(moduleClazz));
+        return loadClasses(getModuleToAnnotatedImplementationClassNames(moduleClazz.getName()));
     }
 
     public ImmutableSet<String> getClassContainsClasses(final String className) {
@@ -192,30 +353,46 @@ public class ClasspathRelations {
         return classToDependencyClassMap;
     }
 
-    public String getJarName(final String clazzName) {
-        if (!classToJarCache.containsKey(clazzName)) {
-            final Class clazz;
-            try {
-                clazz = Class.forName(clazzName);
-            } catch (final ClassNotFoundException e) {
-                throw new RuntimeException(e);
-            }
-            final URL resource = clazz.getResource("/" + clazz.getName().replace('.', '/') + ".class");
-            if (resource != null) {
-                final String[] urlItems = resource.toString().split("/");
-                for (final String item : urlItems) {
-                    if (item.endsWith("!")) {
-                        classToJarCache.put(clazzName, item.replaceAll("!", ""));
-                        break;
-                    }
-                }
-            }
+    /**
+     * @return names of scanned classes and their relations; classes of {@link #getClassNamesSet()}
+     * take ids from zero in the same order, so id of a scanned class is below set size.
+     */
+    public SymbolTable getSymbolTable() {
+        return symbolTable;
+    }
 
-            if (!classToJarCache.containsKey(clazzName)) {
-                classToJarCache.put(clazzName, "default");
-            }
+    /**
+     * Id based {@link #getClassToDependencyClassMap()}, names are resolved with {@link #getSymbolTable()}.
+     */
+    public void forEachDependencyClassId(final int classId, final IntConsumer consumer) {
+        for (final int dependencyId : classToDependencyClassIds[classId]) {
+            consumer.accept(dependencyId);
+        }
+    }
+
+    /**
+     * Id based {@link #getClassContainsClasses(String)}, names are resolved with {@link #getSymbolTable()}.
+     */
+    public void forEachContainedClassId(final int classId, final IntConsumer consumer) {
+        for (final int nestedId : classContainsClassIds[classId]) {
+            consumer.accept(nestedId);
         }
-        return classToJarCache.get(clazzName);
+    }
+
+    /**
+     * Jar is resolved through classpath index of dependency scan, class is never loaded.
+     * Resolved names are cached, so it is safe and cheap to call it from concurrent threads.
+     *
+     * @return file name of jar containing class or "default" for classes from directories or unknown ones.
+     */
+    public String getJarName(final String clazzName) {
+        return classToJarCache.computeIfAbsent(clazzName, this::findJarName);
+    }
+
+    private String findJarName(final String clazzName) {
+        final ClasspathEntries.ClassFileLocation location = dependencyClasspathEntries.locate(clazzName);
+        final File jarFile = location != null ? location.getJarFile() : null;
+        return jarFile != null ? jarFile.getName() : "default";
     }
 
 }
@@ -0,0 +1,130 @@
+package org.micromodules.control.scan;
+
+import com.google.common.collect.ImmutableSet;
+import org.micromodules.setup.Contract;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches class directories of classpath, so changed classes could be given to {@link ClasspathRelations#rescan}.
+ * Jars are not watched. Changes are collected until compiler keeps quiet for a moment,
+ * so a single compilation is reported as a single change.
+ */
+@Contract(__modules__.ClasspathModule.class)
+public final class ClasspathWatcher implements Closeable {
+    private static final String CLASS_FILE_EXTENSION = ".class";
+    private static final long QUIET_PERIOD_MILLIS = 100;
+
+    private final WatchService watchService;
+    private final Map<WatchKey, WatchedDirectory> watchedDirectories = new HashMap<>();
+
+    public static ClasspathWatcher open(final ClassLoader classLoader) {
+        checkNotNull(classLoader, "classLoader required");
+        try {
+            final ClasspathWatcher watcher = new ClasspathWatcher(FileSystems.getDefault().newWatchService());
+            for (final Path root : ClasspathEntries.getDirectories(classLoader)) {
+                watcher.register(root, root);
+            }
+            return watcher;
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private ClasspathWatcher(final WatchService watchService) {
+        this.watchService = watchService;
+    }
+
+    private void register(final Path root, final Path directory) throws IOException {
+        try (final Stream<Path> paths = Files.walk(directory)) {
+            for (final Path path : (Iterable<Path>) paths.filter(Files::isDirectory)::iterator) {
+                watchedDirectories.put(path.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), new WatchedDirectory(root, path));
+            }
+        }
+    }
+
+    /**
+     * Blocks until some class files are changed, created or deleted.
+     *
+     * @return names of changed classes.
+     */
+    public ImmutableSet<String> awaitChangedClassNames() throws InterruptedException {
+        final Set<String> changedClassNames = new TreeSet<>();
+        try {
+            for (WatchKey key = watchService.take(); key != null; key = watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS)) {
+                final WatchedDirectory watched = watchedDirectories.get(key);
+                for (final WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        //events are lost, so everything is treated as changed:
+                        for (final WatchedDirectory root : ImmutableSet.copyOf(watchedDirectories.values())) {
+                            addClassNames(root.root, root.root, changedClassNames);
+                        }
+                    } else if (watched != null) {
+                        final Path path = watched.directory.resolve((Path) event.context());
+                        if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                            register(watched.root, path);
+                            addClassNames(watched.root, path, changedClassNames);
+                        } else if (path.getFileName().toString().endsWith(CLASS_FILE_EXTENSION)) {
+                            changedClassNames.add(toClassName(watched.root, path));
+                        }
+                    }
+                }
+                if (!key.reset()) {
+                    watchedDirectories.remove(key);
+                }
+            }
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+        return ImmutableSet.copyOf(changedClassNames);
+    }
+
+    private static void addClassNames(final Path root, final Path directory, final Set<String> classNames) throws IOException {
+        if (Files.isDirectory(directory)) {
+            try (final Stream<Path> paths = Files.walk(directory)) {
+                paths.filter(path -> path.getFileName().toString().endsWith(CLASS_FILE_EXTENSION))
+                        .forEach(path -> classNames.add(toClassName(root, path)));
+            }
+        }
+    }
+
+    private static String toClassName(final Path root, final Path classFile) {
+        final String resourceName = root.relativize(classFile).toString();
+        return resourceName.substring(0, resourceName.length() - CLASS_FILE_EXTENSION.length()).replace(classFile.getFileSystem().getSeparator(), ".");
+    }
+
+    @Override
+    public void close() {
+        try {
+            watchService.close();
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static class WatchedDirectory {
+        private final Path root;
+        private final Path directory;
+
+        private WatchedDirectory(final Path root, final Path directory) {
+            this.root = root;
+            this.directory = directory;
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package org.micromodules.control.scan;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Reads {@link ClassRecord} straight from class file bytes in a single pass.
+ * Constant pool is indexed into reusable arrays of tags and offsets, strings are made
+ * only for names which go into the record, so nothing is allocated per constant.
+ * <p>
+ * Dependencies are exactly the ones javassist reports (see {@link JavassistRecordParser}):
+ * class constants both in internal and java forms, classes of member, name-and-type
+ * and method-type descriptors and classes mentioned by annotations in java form.
+ * Generic signatures are not inspected.
+ * Instance reuses its buffers, so it must be confined to a single thread.
+ */
+class ConstantPoolRecordParser implements ClassRecordParser {
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int ACC_INTERFACE = 0x0200;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELD_REF = 9;
+    private static final int CONSTANT_METHOD_REF = 10;
+    private static final int CONSTANT_INTERFACE_METHOD_REF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private static final String RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations";
+    private static final String RUNTIME_INVISIBLE_ANNOTATIONS = "RuntimeInvisibleAnnotations";
+    private static final String RUNTIME_VISIBLE_PARAMETER_ANNOTATIONS = "RuntimeVisibleParameterAnnotations";
+    private static final String RUNTIME_INVISIBLE_PARAMETER_ANNOTATIONS = "RuntimeInvisibleParameterAnnotations";
+    private static final String CODE = "Code";
+    private static final String INNER_CLASSES = "InnerClasses";
+
+    private ByteBuffer buffer;
+    private byte[] tags = new byte[512];
+    private int[] offsets = new int[512];
+    private int constantsCount;
+    /**
+     * Marks utf8 constants already scanned as descriptors, parse number is used as a mark, so array is never cleared.
+     */
+    private int[] scannedDescriptors = new int[512];
+    private int parseNumber = 0;
+    private char[] chars = new char[256];
+    private Set<String> dependencyClassNames;
+
+    @Override
+    public ClassRecord parse(final ByteBuffer classBytes) throws IOException {
+        try {
+            return parseBuffer(classBytes.slice().order(ByteOrder.BIG_ENDIAN));
+        } catch (final BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Malformed class file", e);
+        } finally {
+            this.buffer = null;
+            this.dependencyClassNames = null;
+        }
+    }
+
+    /**
+     * @param classBuffer big endian buffer with class file starting at zero position.
+     */
+    private ClassRecord parseBuffer(final ByteBuffer classBuffer) throws IOException {
+        this.buffer = classBuffer;
+        this.dependencyClassNames = new LinkedHashSet<>();
+        this.parseNumber++;
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a class file");
+        }
+        buffer.getInt(); //minor and major versions
+        readConstantPool();
+
+        final int accessFlags = readU2();
+        final String name = className(readU2());
+        final int superClassIndex = readU2();
+        final String superClassName = superClassIndex != 0 ? className(superClassIndex) : null;
+        final ImmutableList.Builder<String> interfaceNames = ImmutableList.builder();
+        for (int interfacesCount = readU2(); interfacesCount > 0; interfacesCount--) {
+            interfaceNames.add(className(readU2()));
+        }
+        for (int constantIndex = 1; constantIndex < constantsCount; constantIndex++) {
+            switch (tags[constantIndex]) {
+                case CONSTANT_CLASS:
+                    addClassConstant(buffer.getShort(offsets[constantIndex]) & 0xFFFF);
+                    break;
+                case CONSTANT_NAME_AND_TYPE:
+                    addDescriptor(buffer.getShort(offsets[constantIndex] + 2) & 0xFFFF);
+                    break;
+                case CONSTANT_METHOD_TYPE:
+                    addDescriptor(buffer.getShort(offsets[constantIndex]) & 0xFFFF);
+                    break;
+                default: //no class names
+            }
+        }
+        readMembers(); //fields
+        readMembers(); //methods
+
+        final String[] contractAndImplementation = new String[2];
+        final ImmutableList.Builder<String> nestedClassNames = ImmutableList.builder();
+        for (int attributesCount = readU2(); attributesCount > 0; attributesCount--) {
+            final String attributeName = utf8(readU2());
+            final int attributeLength = buffer.getInt();
+            final int attributeEnd = buffer.position() + attributeLength;
+            if (attributeName.equals(RUNTIME_VISIBLE_ANNOTATIONS)) {
+                ClassHeader.readModuleAnnotations(this::utf8, buffer.duplicate(), contractAndImplementation);
+            }
+            if (attributeName.equals(INNER_CLASSES)) {
+                readNestedClassNames(name + "$", nestedClassNames);
+            } else {
+                readAttributeBody(attributeName);
+            }
+            buffer.position(attributeEnd);
+        }
+        final ClassHeader header = new ClassHeader(name, superClassName, interfaceNames.build(), (accessFlags & ACC_INTERFACE) != 0,
+                contractAndImplementation[0], contractAndImplementation[1]);
+        return new ClassRecord(header, ImmutableSet.copyOf(dependencyClassNames), nestedClassNames.build());
+    }
+
+    private void readConstantPool() throws IOException {
+        constantsCount = readU2();
+        if (tags.length < constantsCount) {
+            final int capacity = Math.max(constantsCount, tags.length * 2);
+            tags = new byte[capacity];
+            offsets = new int[capacity];
+            scannedDescriptors = new int[capacity];
+        }
+        for (int constantIndex = 1; constantIndex < constantsCount; constantIndex++) {
+            final byte tag = buffer.get();
+            tags[constantIndex] = tag;
+            offsets[constantIndex] = buffer.position();
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    final int length = readU2();
+                    buffer.position(buffer.position() + length);
+                    break;
+                case CONSTANT_CLASS:
+                case CONSTANT_STRING:
+                case CONSTANT_METHOD_TYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    buffer.position(buffer.position() + 2);
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    buffer.position(buffer.position() + 3);
+                    break;
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                case CONSTANT_FIELD_REF:
+                case CONSTANT_METHOD_REF:
+                case CONSTANT_INTERFACE_METHOD_REF:
+                case CONSTANT_NAME_AND_TYPE:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKE_DYNAMIC:
+                    buffer.position(buffer.position() + 4);
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    buffer.position(buffer.position() + 8);
+                    constantIndex++; //takes two entries
+                    tags[constantIndex] = 0;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag + " at " + constantIndex);
+            }
+        }
+    }
+
+    private void readMembers() {
+        for (int membersCount = readU2(); membersCount > 0; membersCount--) {
+            buffer.getShort(); //access flags
+            buffer.getShort(); //name
+            addDescriptor(readU2());
+            readAttributes();
+        }
+    }
+
+    private void readAttributes() {
+        for (int attributesCount = readU2(); attributesCount > 0; attributesCount--) {
+            final String attributeName = utf8(readU2());
+            final int attributeLength = buffer.getInt();
+            final int attributeEnd = buffer.position() + attributeLength;
+            readAttributeBody(attributeName);
+            buffer.position(attributeEnd);
+        }
+    }
+
+    /**
+     * Picks class names from attribute at current position, the rest is left to caller to skip.
+     */
+    private void readAttributeBody(final String attributeName) {
+        switch (attributeName) {
+            case RUNTIME_VISIBLE_ANNOTATIONS:
+            case RUNTIME_INVISIBLE_ANNOTATIONS:
+                readAnnotations();
+                break;
+            case RUNTIME_VISIBLE_PARAMETER_ANNOTATIONS:
+            case RUNTIME_INVISIBLE_PARAMETER_ANNOTATIONS:
+                for (int parametersCount = buffer.get() & 0xFF; parametersCount > 0; parametersCount--) {
+                    readAnnotations();
+                }
+                break;
+            case CODE:
+                buffer.getInt(); //max stack and max locals
+                final int codeLength = buffer.getInt();
+                buffer.position(buffer.position() + codeLength);
+                final int exceptionsCount = readU2();
+                buffer.position(buffer.position() + exceptionsCount * 8);
+                readAttributes();
+                break;
+            default: //no class names
+        }
+    }
+
+    private void readAnnotations() {
+        for (int annotationsCount = readU2(); annotationsCount > 0; annotationsCount--) {
+            readAnnotation();
+        }
+    }
+
+    private void readAnnotation() {
+        addDescriptor(readU2());
+        for (int pairsCount = readU2(); pairsCount > 0; pairsCount--) {
+            buffer.getShort(); //element name
+            readElementValue();
+        }
+    }
+
+    private void readElementValue() {
+        final byte tag = buffer.get();
+        switch (tag) {
+            case 'e':
+                addDescriptor(readU2());
+                buffer.getShort(); //constant name
+                break;
+            case 'c':
+                addDescriptor(readU2());
+                break;
+            case '@':
+                readAnnotation();
+                break;
+            case '[':
+                for (int valuesCount = readU2(); valuesCount > 0; valuesCount--) {
+                    readElementValue();
+                }
+                break;
+            default: //constant value
+                buffer.getShort();
+        }
+    }
+
+    /**
+     * Same selection as {@link javassist.CtClass#getNestedClasses()}: only immediate nested classes of this class.
+     */
+    private void readNestedClassNames(final String thisNamePrefix, final ImmutableList.Builder<String> nestedClassNames) {
+        for (int classesCount = readU2(); classesCount > 0; classesCount--) {
+            final int innerClassIndex = readU2();
+            buffer.position(buffer.position() + 6); //outer class, simple name and access flags
+            if (innerClassIndex != 0) {
+                final String innerName = className(innerClassIndex);
+                if (innerName.startsWith(thisNamePrefix) && innerName.lastIndexOf('$') < thisNamePrefix.length()) {
+                    nestedClassNames.add(innerName);
+                }
+            }
+        }
+    }
+
+    /**
+     * Class constant gives its own name in both forms, array class gives its descriptor and element class.
+     * Internal form matters: annotation classes are filtered out of dependencies by java name, so
+     * only annotation usages are dropped while explicit references by class constant are kept.
+     */
+    private void addClassConstant(final int utf8Index) {
+        final int offset = offsets[utf8Index];
+        final int end = offset + 2 + (buffer.getShort(offset) & 0xFFFF);
+        dependencyClassNames.add(decode(offset + 2, end, false));
+        if (end > offset + 2 && buffer.get(offset + 2) == '[') {
+            addDescriptor(utf8Index);
+        } else {
+            dependencyClassNames.add(javaName(offset + 2, end));
+        }
+    }
+
+    /**
+     * Takes every {@code L<name>;} out of descriptor bytes, matching javassist descriptor scan.
+     * Modified utf8 multi-byte sequences never contain ascii bytes, so scanning bytes is safe.
+     */
+    private void addDescriptor(final int utf8Index) {
+        if (scannedDescriptors[utf8Index] == parseNumber) {
+            return;
+        }
+        scannedDescriptors[utf8Index] = parseNumber;
+        final int start = offsets[utf8Index] + 2;
+        final int end = start + (buffer.getShort(offsets[utf8Index]) & 0xFFFF);
+        int position = start;
+        while (position < end) {
+            final int nameStart = indexOf('L', position, end);
+            final int nameEnd = nameStart >= 0 ? indexOf(';', nameStart, end) : -1;
+            if (nameEnd < 0) {
+                break;
+            }
+            dependencyClassNames.add(javaName(nameStart + 1, nameEnd));
+            position = nameEnd + 1;
+        }
+    }
+
+    private int indexOf(final char ch, final int from, final int end) {
+        for (int position = from; position < end; position++) {
+            if (buffer.get(position) == ch) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    private String className(final int classIndex) {
+        final int utf8Index = buffer.getShort(offsets[classIndex]) & 0xFFFF;
+        final int offset = offsets[utf8Index];
+        return javaName(offset + 2, offset + 2 + (buffer.getShort(offset) & 0xFFFF));
+    }
+
+    private String utf8(final int utf8Index) {
+        final int offset = offsets[utf8Index];
+        return decode(offset + 2, offset + 2 + (buffer.getShort(offset) & 0xFFFF), false);
+    }
+
+    private String javaName(final int start, final int end) {
+        return decode(start, end, true);
+    }
+
+    /**
+     * Decodes modified utf8, optionally turning internal name separators into dots.
+     */
+    private String decode(final int start, final int end, final boolean javaName) {
+        if (chars.length < end - start) {
+            chars = new char[Math.max(end - start, chars.length * 2)];
+        }
+        int length = 0;
+        int position = start;
+        while (position < end) {
+            final int first = buffer.get(position++) & 0xFF;
+            final char ch;
+            if (first < 0x80) {
+                ch = (char) first;
+            } else if ((first & 0xE0) == 0xC0) {
+                ch = (char) (((first & 0x1F) << 6) | (buffer.get(position++) & 0x3F));
+            } else {
+                final int second = buffer.get(position++) & 0x3F;
+                ch = (char) (((first & 0x0F) << 12) | (second << 6) | (buffer.get(position++) & 0x3F));
+            }
+            chars[length++] = javaName && ch == '/' ? '.' : ch;
+        }
+        return new String(chars, 0, length);
+    }
+
+    private int readU2() {
+        return buffer.getShort() & 0xFFFF;
+    }
+}
@@ -0,0 +1,240 @@
+package org.micromodules.control.scan;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import org.micromodules.control.util.ClassNames;
+import org.micromodules.control.util.MapToSet;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Byte code dependencies of a list of classes, nested classes are tracked as their top most scanned class.
+ * Classes are split into chunks, every chunk is scanned with its own parser, so chunks are
+ * independent and could be processed concurrently. Chunk results are merged in list order,
+ * so result is the same for any parallelism. Dependency names are interned across chunks,
+ * so retained result grows with distinct names rather than with every reference in byte code.
+ */
+class DependencyScan {
+    private static final int MIN_CHUNK_SIZE = 64;
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int MEMORY_SAMPLE_INTERVAL = 256;
+    private static final int STREAM_QUEUE_CAPACITY = 1024;
+
+    private final MapToSet<String, String> classContainsClassesMap = new MapToSet<>();
+    private final MapToSet<String, String> classToDependencyClassMap = new MapToSet<>();
+    private final Interner<String> names;
+
+    private DependencyScan(final Interner<String> names) {
+        this.names = names;
+    }
+
+    static DependencyScan scan(final ClassRecordSource recordSource, final List<String> classNames, final int parallelism) {
+        checkNotNull(recordSource, "recordSource required");
+        return scan(recordSource, classNames, parallelism, null);
+    }
+
+    /**
+     * Classes are scanned in background, every class is handed to consumer in caller thread as soon as
+     * it is scanned, through a bounded queue, so consumer work overlaps with scan and nothing is retained by scan.
+     */
+    static void stream(final ClassRecordSource recordSource, final List<String> classNames, final int parallelism, final ScannedClassConsumer consumer) {
+        checkNotNull(consumer, "consumer required");
+        final BlockingQueue<ScannedClass> queue = new ArrayBlockingQueue<>(STREAM_QUEUE_CAPACITY);
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final Thread producer = new Thread(() -> {
+            try {
+                scan(recordSource, classNames, parallelism, scannedClass -> {
+                    if (!offer(queue, scannedClass, cancelled)) {
+                        throw new CancellationException();
+                    }
+                });
+            } catch (final Throwable e) {
+                failure.set(e);
+            } finally {
+                offer(queue, ScannedClass.END, cancelled);
+            }
+        }, "micromodules-dependency-scan");
+        producer.setDaemon(true);
+        producer.start();
+        try {
+            for (ScannedClass scannedClass = queue.take(); scannedClass != ScannedClass.END; scannedClass = queue.take()) {
+                consumer.accept(scannedClass.className, scannedClass.dependencyClassNames, scannedClass.containedClassNames);
+            }
+        } catch (final InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            cancelled.set(true);
+            //unblocks producer so it does not hang on a full queue when consumer failed:
+            queue.clear();
+        }
+        if (failure.get() != null) {
+            throw new RuntimeException("Dependency scan failed", failure.get());
+        }
+    }
+
+    /**
+     * @return false if consumer is gone, so there is no reason to wait for free queue space anymore.
+     */
+    private static boolean offer(final BlockingQueue<ScannedClass> queue, final ScannedClass scannedClass, final AtomicBoolean cancelled) {
+        try {
+            while (!cancelled.get()) {
+                if (queue.offer(scannedClass, 100, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (final InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static DependencyScan scan(final ClassRecordSource recordSource, final List<String> classNames, final int parallelism, final Consumer<ScannedClass> emitter) {
+        final ImmutableList<String> classNamesList = ImmutableList.copyOf(classNames);
+        final Interner<String> names = Interners.newStrongInterner();
+        try {
+            if (parallelism <= 1) {
+                return scanChunk(recordSource, classNamesList, names, emitter);
+            } else {
+                final int chunkSize = Math.max(MIN_CHUNK_SIZE, classNamesList.size() / (parallelism * CHUNKS_PER_THREAD));
+                final ForkJoinPool forkJoinPool = new ForkJoinPool(parallelism);
+                try {
+                    return forkJoinPool.invoke(new ChunkTask(recordSource, classNamesList, chunkSize, names, emitter));
+                } finally {
+                    forkJoinPool.shutdown();
+                }
+            }
+        } finally {
+            recordSource.getScanMemory().sample();
+        }
+    }
+
+    /**
+     * @param emitter takes every class as soon as it is scanned, so chunk does not keep it; null to keep all classes.
+     */
+    private static DependencyScan scanChunk(final ClassRecordSource recordSource, final List<String> classNames, final Interner<String> names, final Consumer<ScannedClass> emitter) {
+        final DependencyScan result = new DependencyScan(names);
+        final ClassRecordParser parser = recordSource.createParser();
+        //nested classes follow their top level class in sorted list, so records are kept for current top level class only:
+        final Map<String, ClassRecord> topLevelFamilyRecords = new HashMap<>();
+        String currentTopLevelName = null;
+        int scannedCount = 0;
+        for (final String className : classNames) {
+            if (++scannedCount % MEMORY_SAMPLE_INTERVAL == 0) {
+                recordSource.getScanMemory().sample();
+            }
+            final String topLevelName = ClassNames.topLevelName(className);
+            if (!topLevelName.equals(currentTopLevelName)) {
+                topLevelFamilyRecords.clear();
+                currentTopLevelName = topLevelName;
+            }
+            result.addClassAsNode(className, className, name -> topLevelFamilyRecords.computeIfAbsent(name, key -> recordSource.get(key, parser)));
+            if (emitter != null) {
+                emitter.accept(result.remove(className));
+            }
+        }
+        return result;
+    }
+
+    private void addClassAsNode(final String className, final String trackAs, final Function<String, ClassRecord> records) {
+        final ClassRecord record = records.apply(className);
+        final Set<String> dependencyClassNames = classToDependencyClassMap.get(trackAs);
+        for (final String dependencyClassName : record.getDependencyClassNames()) {
+            dependencyClassNames.add(names.intern(dependencyClassName));
+        }
+        for (final String nestedClassName : record.getNestedClassNames()) {
+            addClassAsNode(nestedClassName, trackAs, records);
+            classContainsClassesMap.get(trackAs).add(nestedClassName);
+        }
+    }
+
+    private ScannedClass remove(final String className) {
+        final Set<String> dependencyClassNames = classToDependencyClassMap.remove(className);
+        final Set<String> containedClassNames = classContainsClassesMap.remove(className);
+        return new ScannedClass(className,
+                dependencyClassNames != null ? dependencyClassNames : new LinkedHashSet<>(),
+                containedClassNames != null ? containedClassNames : new LinkedHashSet<>());
+    }
+
+    /**
+     * Chunks never share top level classes, so merging is a plain append preserving chunks order.
+     */
+    private DependencyScan mergeFrom(final DependencyScan other) {
+        other.classContainsClassesMap.forEach((className, containsSet) -> this.classContainsClassesMap.get(className).addAll(containsSet));
+        other.classToDependencyClassMap.forEach((className, dependencySet) -> this.classToDependencyClassMap.get(className).addAll(dependencySet));
+        return this;
+    }
+
+    MapToSet<String, String> getClassContainsClassesMap() {
+        return classContainsClassesMap;
+    }
+
+    MapToSet<String, String> getClassToDependencyClassMap() {
+        return classToDependencyClassMap;
+    }
+
+    @SuppressWarnings("serial")
+    private static class ChunkTask extends RecursiveTask<DependencyScan> {
+        private final ClassRecordSource recordSource;
+        private final List<String> classNames;
+        private final int chunkSize;
+        private final Interner<String> names;
+        private final Consumer<ScannedClass> emitter;
+
+        private ChunkTask(final ClassRecordSource recordSource, final List<String> classNames, final int chunkSize, final Interner<String> names, final Consumer<ScannedClass> emitter) {
+            this.recordSource = recordSource;
+            this.classNames = classNames;
+            this.chunkSize = chunkSize;
+            this.names = names;
+            this.emitter = emitter;
+        }
+
+        @Override
+        protected DependencyScan compute() {
+            if (classNames.size() <= chunkSize) {
+                return scanChunk(recordSource, classNames, names, emitter);
+            } else {
+                final int middle = classNames.size() / 2;
+                final ChunkTask left = new ChunkTask(recordSource, classNames.subList(0, middle), chunkSize, names, emitter);
+                final ChunkTask right = new ChunkTask(recordSource, classNames.subList(middle, classNames.size()), chunkSize, names, emitter);
+                right.fork();
+                return left.compute().mergeFrom(right.join());
+            }
+        }
+    }
+
+    interface ScannedClassConsumer {
+        void accept(String className, Set<String> dependencyClassNames, Set<String> containedClassNames);
+    }
+
+    private static class ScannedClass {
+        private static final ScannedClass END = new ScannedClass(null, null, null);
+
+        private final String className;
+        private final Set<String> dependencyClassNames;
+        private final Set<String> containedClassNames;
+
+        private ScannedClass(final String className, final Set<String> dependencyClassNames, final Set<String> containedClassNames) {
+            this.className = className;
+            this.dependencyClassNames = dependencyClassNames;
+            this.containedClassNames = containedClassNames;
+        }
+    }
+}
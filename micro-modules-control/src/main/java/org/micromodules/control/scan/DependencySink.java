@@ -0,0 +1,29 @@
+package org.micromodules.control.scan;
+
+import com.google.common.collect.ImmutableSet;
+import org.micromodules.setup.Contract;
+
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Takes byte code dependencies of scanned classes while scan goes on, instead of {@link ClasspathRelations}
+ * keeping them, see {@link ClasspathRelations#createFrom(ScanSettings, ClassLoader, DependencySink, String...)}.
+ * Every call is made from the thread which creates relations.
+ */
+@Contract(__modules__.ClasspathModule.class)
+public interface DependencySink {
+    /**
+     * Called once, before any class dependencies are given.
+     *
+     * @param classNames     all scanned classes.
+     * @param moduleClassTest same as {@link ClasspathRelations#isModuleClass(String)}.
+     * @param jarNames       same as {@link ClasspathRelations#getJarName(String)}.
+     */
+    void start(ImmutableSet<String> classNames, Predicate<String> moduleClassTest, Function<String, String> jarNames);
+
+    /**
+     * Called once per scanned class, in order classes are scanned, which is not defined for parallel scan.
+     */
+    void accept(String className, ImmutableSet<String> dependencyClassNames, ImmutableSet<String> containedClassNames);
+}
@@ -0,0 +1,91 @@
+package org.micromodules.control.scan;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.InnerClassesAttribute;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Builds {@link ClassRecord} using javassist {@link CtClass}.
+ * Holds own {@link ClassPool}, so instance must be confined to a single thread.
+ * Parsed classes are detached from pool right away, pool itself is replaced once parsed class bytes
+ * reach {@link ScanMemory#getParserMemoryLimit()}, so whatever javassist keeps on its own is dropped too.
+ * Dependencies are given in the form javassist reports them: both internal and java names.
+ */
+class JavassistRecordParser implements ClassRecordParser {
+    private final ScanMemory scanMemory;
+    private ClassPool pool = new ClassPool();
+    private long poolBytes = 0;
+
+    JavassistRecordParser(final ScanMemory scanMemory) {
+        this.scanMemory = checkNotNull(scanMemory, "scanMemory required");
+    }
+
+    @Override
+    public ClassRecord parse(final ByteBuffer classBytes) throws IOException {
+        final byte[] classBytesArray = new byte[classBytes.remaining()];
+        classBytes.duplicate().get(classBytesArray);
+        if (poolBytes + classBytesArray.length > scanMemory.getParserMemoryLimit() && poolBytes > 0) {
+            pool = new ClassPool();
+            poolBytes = 0;
+            scanMemory.parserRecycled();
+        }
+        poolBytes += classBytesArray.length;
+        scanMemory.parserRetained(poolBytes);
+        final CtClass ctClass = pool.makeClass(new ByteArrayInputStream(classBytesArray));
+        try {
+            return read(ctClass);
+        } finally {
+            ctClass.detach();
+        }
+    }
+
+    private static ClassRecord read(final CtClass ctClass) {
+        final ClassFile classFile = ctClass.getClassFile();
+        final Set<String> dependencyClassNames = new LinkedHashSet<>();
+        addAll(dependencyClassNames, classFile.getConstPool().getClassNames());
+        addAll(dependencyClassNames, ctClass.getRefClasses());
+        if (classFile.getSuperclass() != null) {
+            dependencyClassNames.add(classFile.getSuperclass());
+        }
+        addAll(dependencyClassNames, ImmutableList.copyOf(classFile.getInterfaces()));
+        return new ClassRecord(ClassHeader.read(classFile), ImmutableSet.copyOf(dependencyClassNames), getNestedClassNames(classFile));
+    }
+
+    private static void addAll(final Set<String> target, final Iterable refClasses) {
+        if (refClasses != null) {
+            for (final Object classNameObj : refClasses) {
+                target.add((String) classNameObj);
+            }
+        }
+    }
+
+    /**
+     * Same selection as {@link CtClass#getNestedClasses()}, but nested classes are not looked up.
+     */
+    private static ImmutableList<String> getNestedClassNames(final ClassFile classFile) {
+        final InnerClassesAttribute innerClasses = (InnerClassesAttribute) classFile.getAttribute(InnerClassesAttribute.tag);
+        if (innerClasses == null) {
+            return ImmutableList.of();
+        }
+        final String thisNamePrefix = classFile.getName() + "$";
+        final ImmutableList.Builder<String> result = ImmutableList.builder();
+        for (int i = 0; i < innerClasses.tableLength(); i++) {
+            final String innerName = innerClasses.innerClass(i);
+            if (innerName != null && innerName.startsWith(thisNamePrefix) && innerName.lastIndexOf('$') < thisNamePrefix.length()) {
+                result.add(innerName);
+            }
+        }
+        return result.build();
+    }
+}
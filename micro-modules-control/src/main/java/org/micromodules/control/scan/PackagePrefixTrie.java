@@ -0,0 +1,60 @@
+package org.micromodules.control.scan;
+
+import com.google.common.base.Splitter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Package prefixes arranged by package name segments, matching takes a walk along package segments
+ * instead of testing every prefix. Prefixes keep plain {@link String#startsWith(String)} meaning:
+ * all segments of a prefix but last must be equal to package segments, last one could be a part of segment,
+ * so {@code org.micro} matches {@code org.micromodules.control}.
+ */
+class PackagePrefixTrie {
+    private static final Splitter SEGMENTS = Splitter.on('.');
+
+    private final Map<String, PackagePrefixTrie> children = new HashMap<>();
+    private final List<String> lastSegments = new ArrayList<>();
+
+    static PackagePrefixTrie of(final Iterable<String> packagePrefixes) {
+        final PackagePrefixTrie root = new PackagePrefixTrie();
+        for (final String packagePrefix : packagePrefixes) {
+            root.add(SEGMENTS.splitToList(packagePrefix), 0);
+        }
+        return root;
+    }
+
+    private PackagePrefixTrie() {
+    }
+
+    private void add(final List<String> segments, final int index) {
+        if (index == segments.size() - 1) {
+            lastSegments.add(segments.get(index));
+        } else {
+            children.computeIfAbsent(segments.get(index), segment -> new PackagePrefixTrie()).add(segments, index + 1);
+        }
+    }
+
+    boolean matches(final String packageName) {
+        PackagePrefixTrie node = this;
+        int segmentStart = 0;
+        while (node != null) {
+            final int dot = packageName.indexOf('.', segmentStart);
+            final int segmentEnd = dot >= 0 ? dot : packageName.length();
+            for (final String lastSegment : node.lastSegments) {
+                if (packageName.startsWith(lastSegment, segmentStart)) {
+                    return true;
+                }
+            }
+            if (dot < 0 || node.children.isEmpty()) {
+                return false;
+            }
+            node = node.children.get(packageName.substring(segmentStart, segmentEnd));
+            segmentStart = dot + 1;
+        }
+        return false;
+    }
+}
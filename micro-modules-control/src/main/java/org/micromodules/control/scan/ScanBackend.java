@@ -0,0 +1,34 @@
+package org.micromodules.control.scan;
+
+import org.micromodules.setup.Contract;
+
+/**
+ * Byte code readers producing scanner input, all of them give the same scan result.
+ */
+@Contract(__modules__.ClasspathModule.class)
+public enum ScanBackend {
+    /**
+     * Single pass class file reader, picks just names scanner needs straight from class bytes.
+     * Keeps no class bytes between classes, so parser memory limit does not apply to it.
+     */
+    ConstantPool {
+        @Override
+        ClassRecordParser createParser(final ScanMemory scanMemory) {
+            return new ConstantPoolRecordParser();
+        }
+    },
+    /**
+     * Full javassist class model, much slower, kept to cross-check results.
+     */
+    Javassist {
+        @Override
+        ClassRecordParser createParser(final ScanMemory scanMemory) {
+            return new JavassistRecordParser(scanMemory);
+        }
+    };
+
+    /**
+     * @return new parser, parsers are not thread safe.
+     */
+    abstract ClassRecordParser createParser(ScanMemory scanMemory);
+}
@@ -0,0 +1,235 @@
+package org.micromodules.control.scan;
+
+import com.google.common.hash.HashCode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Persistent {@link ClassRecord} storage, so byte code is parsed only for new or changed classes.
+ * Records are keyed by class file content hash. Classes from jars are additionally indexed by jar
+ * path and could be taken without reading class bytes at all while jar modification time and size stay the same.
+ * Only records used by the current scan are saved back. Cache made with other {@link ScanBackend} is ignored.
+ */
+class ScanCache {
+    private static final int MAGIC = 0x4D4D5343;
+    private static final int VERSION = 1;
+    private static final int HASH_BYTES = 16;
+
+    private final File file;
+    private final ScanBackend backend;
+    private final Map<HashCode, ClassRecord> storedRecords;
+    private final Map<String, JarState> storedJars;
+    private final ConcurrentMap<HashCode, ClassRecord> usedRecords = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, JarState> usedJars = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, JarStamp> currentJarStamps = new ConcurrentHashMap<>();
+    private final AtomicInteger cachedCount = new AtomicInteger();
+    private final AtomicInteger parsedCount = new AtomicInteger();
+
+    static ScanCache open(final File file, final ScanBackend backend) {
+        final ScanCache scanCache = new ScanCache(file, backend, new HashMap<>(), new HashMap<>());
+        if (file.isFile()) {
+            try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                scanCache.read(in);
+            } catch (final IOException | RuntimeException e) {
+                System.out.println("Scan cache ignored, failed to read " + file + ": " + e);
+                return new ScanCache(file, backend, new HashMap<>(), new HashMap<>());
+            }
+        }
+        return scanCache;
+    }
+
+    private ScanCache(final File file, final ScanBackend backend, final Map<HashCode, ClassRecord> storedRecords, final Map<String, JarState> storedJars) {
+        this.file = checkNotNull(file, "file required");
+        this.backend = checkNotNull(backend, "backend required");
+        this.storedRecords = storedRecords;
+        this.storedJars = storedJars;
+    }
+
+    /**
+     * @return record of class from unchanged jar or null.
+     */
+    ClassRecord findInJar(final File jarFile, final String className) {
+        final JarState storedJar = storedJars.get(jarFile.getPath());
+        if (storedJar != null && storedJar.stamp.equals(getCurrentStamp(jarFile))) {
+            final HashCode hash = storedJar.classes.get(className);
+            final ClassRecord record = hash != null ? storedRecords.get(hash) : null;
+            if (record != null) {
+                cachedCount.incrementAndGet();
+                markUsed(hash, record, jarFile);
+                return record;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param jarFile jar of class or null for classes from directories.
+     * @return cached record or null.
+     */
+    ClassRecord findByHash(final HashCode hash, final File jarFile) {
+        final ClassRecord record = usedRecords.containsKey(hash) ? usedRecords.get(hash) : storedRecords.get(hash);
+        if (record != null) {
+            cachedCount.incrementAndGet();
+            markUsed(hash, record, jarFile);
+        }
+        return record;
+    }
+
+    void put(final HashCode hash, final ClassRecord record, final File jarFile) {
+        parsedCount.incrementAndGet();
+        markUsed(hash, record, jarFile);
+    }
+
+    private void markUsed(final HashCode hash, final ClassRecord record, final File jarFile) {
+        usedRecords.put(hash, record);
+        if (jarFile != null) {
+            usedJars.computeIfAbsent(jarFile.getPath(), path -> new JarState(getCurrentStamp(jarFile)))
+                    .classes.put(record.getName(), hash);
+        }
+    }
+
+    private JarStamp getCurrentStamp(final File jarFile) {
+        return currentJarStamps.computeIfAbsent(jarFile.getPath(), path -> new JarStamp(jarFile.lastModified(), jarFile.length()));
+    }
+
+    void save() {
+        System.out.println("Scan cache: " + cachedCount.get() + " classes cached, " + parsedCount.get() + " parsed, saving " + file);
+        final File parentDir = file.getAbsoluteFile().getParentFile();
+        if (!parentDir.isDirectory() && !parentDir.mkdirs()) {
+            throw new IllegalStateException("Failed to make dir: " + parentDir);
+        }
+        try {
+            final File tempFile = File.createTempFile(file.getName(), ".tmp", parentDir);
+            try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                write(out);
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    int getCachedCount() {
+        return cachedCount.get();
+    }
+
+    int getParsedCount() {
+        return parsedCount.get();
+    }
+
+    private void write(final DataOutputStream out) throws IOException {
+        final Map<String, Integer> strings = new LinkedHashMap<>();
+        usedRecords.values().forEach(record -> ClassRecordFormat.collectStrings(strings, record));
+        usedJars.forEach((path, jarState) -> {
+            ClassRecordFormat.collectString(strings, path);
+            jarState.classes.keySet().forEach(className -> ClassRecordFormat.collectString(strings, className));
+        });
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(backend.name());
+        ClassRecordFormat.writeStringTable(out, strings);
+        out.writeInt(usedRecords.size());
+        for (final Map.Entry<HashCode, ClassRecord> entry : usedRecords.entrySet()) {
+            out.write(entry.getKey().asBytes());
+            ClassRecordFormat.writeRecord(out, strings, entry.getValue());
+        }
+        out.writeInt(usedJars.size());
+        for (final Map.Entry<String, JarState> entry : usedJars.entrySet()) {
+            final JarState jarState = entry.getValue();
+            out.writeInt(strings.get(entry.getKey()));
+            out.writeLong(jarState.stamp.lastModified);
+            out.writeLong(jarState.stamp.size);
+            out.writeInt(jarState.classes.size());
+            for (final Map.Entry<String, HashCode> classEntry : jarState.classes.entrySet()) {
+                out.writeInt(strings.get(classEntry.getKey()));
+                out.write(classEntry.getValue().asBytes());
+            }
+        }
+    }
+
+    private void read(final DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("unsupported format");
+        }
+        final String cacheBackend = in.readUTF();
+        if (!cacheBackend.equals(backend.name())) {
+            throw new IOException("made with " + cacheBackend + " backend");
+        }
+        final String[] strings = ClassRecordFormat.readStringTable(in);
+        final int recordsCount = in.readInt();
+        for (int i = 0; i < recordsCount; i++) {
+            final HashCode hash = readHash(in);
+            storedRecords.put(hash, ClassRecordFormat.readRecord(in, strings));
+        }
+        final int jarsCount = in.readInt();
+        for (int i = 0; i < jarsCount; i++) {
+            final String path = strings[in.readInt()];
+            final JarState jarState = new JarState(new JarStamp(in.readLong(), in.readLong()));
+            final int classesCount = in.readInt();
+            for (int j = 0; j < classesCount; j++) {
+                jarState.classes.put(strings[in.readInt()], readHash(in));
+            }
+            storedJars.put(path, jarState);
+        }
+    }
+
+    private static HashCode readHash(final DataInputStream in) throws IOException {
+        final byte[] hashBytes = new byte[HASH_BYTES];
+        in.readFully(hashBytes);
+        return HashCode.fromBytes(hashBytes);
+    }
+
+    private static final class JarStamp {
+        private final long lastModified;
+        private final long size;
+
+        private JarStamp(final long lastModified, final long size) {
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof JarStamp)) {
+                return false;
+            }
+            final JarStamp jarStamp = (JarStamp) other;
+            return lastModified == jarStamp.lastModified && size == jarStamp.size;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(lastModified) + Long.hashCode(size);
+        }
+    }
+
+    private static final class JarState {
+        private final JarStamp stamp;
+        private final ConcurrentMap<String, HashCode> classes = new ConcurrentHashMap<>();
+
+        private JarState(final JarStamp stamp) {
+            this.stamp = stamp;
+        }
+    }
+}
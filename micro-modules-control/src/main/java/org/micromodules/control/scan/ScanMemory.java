@@ -0,0 +1,63 @@
+package org.micromodules.control.scan;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memory ceiling of byte code parsers and memory statistics of a single scan, shared by concurrent parsers.
+ * Only {@link ScanBackend#Javassist} parser retains class bytes between classes and is bounded by the ceiling,
+ * {@link ScanBackend#ConstantPool} parser keeps nothing but buffers of the largest class it has read.
+ * Heap used is sampled at scan checkpoints and belongs to the whole JVM, not to the scan alone.
+ */
+class ScanMemory {
+    private static final long KILOBYTE = 1024;
+    private static final long MEGABYTE = 1024 * 1024;
+
+    private final long parserMemoryLimit;
+    private final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+    private final AtomicLong peakHeapUsed = new AtomicLong();
+    private final AtomicLong peakParserRetained = new AtomicLong();
+    private final AtomicInteger parserRecycles = new AtomicInteger();
+
+    ScanMemory(final long parserMemoryLimit) {
+        this.parserMemoryLimit = parserMemoryLimit;
+    }
+
+    /**
+     * @return class bytes a parser may retain before it drops its state.
+     */
+    long getParserMemoryLimit() {
+        return parserMemoryLimit;
+    }
+
+    /**
+     * @param retainedBytes class bytes parser holds now.
+     */
+    void parserRetained(final long retainedBytes) {
+        peakParserRetained.accumulateAndGet(retainedBytes, Math::max);
+    }
+
+    void parserRecycled() {
+        parserRecycles.incrementAndGet();
+    }
+
+    void sample() {
+        final long heapUsed = memoryBean.getHeapMemoryUsage().getUsed();
+        peakHeapUsed.accumulateAndGet(heapUsed, Math::max);
+    }
+
+    /**
+     * @param recordsRetained parsed records kept after scan for a rescan, 0 if they are not kept.
+     */
+    String report(final int recordsRetained) {
+        //limit is reported only if parser keeps class bytes, otherwise it is not applied:
+        final String parserMemory = peakParserRetained.get() > 0
+                ? "parser retained up to " + peakParserRetained.get() / KILOBYTE + "K of class bytes " +
+                "at " + parserMemoryLimit / MEGABYTE + "M limit, recycled " + parserRecycles.get() + " times"
+                : "parser retained no class bytes";
+        return "Scan memory: " + parserMemory + ", " +
+                recordsRetained + " parsed records retained; JVM heap used up to " + peakHeapUsed.get() / MEGABYTE + "M";
+    }
+}
@@ -0,0 +1,120 @@
+package org.micromodules.control.scan;
+
+import org.micromodules.setup.Contract;
+
+import java.io.File;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Immutable knobs of classpath scanning, all of them affect speed or memory only, never the scan result.
+ */
+@Contract(__modules__.ClasspathModule.class)
+public final class ScanSettings {
+    private final int parallelism;
+    private final boolean loaderFree;
+    private final File cacheFile;
+    private final ScanBackend backend;
+    private final long parserMemoryLimit;
+    private final boolean recordsRetained;
+
+    public static ScanSettings defaults() {
+        return new ScanSettings(1, false, null, ScanBackend.ConstantPool, 32 * 1024 * 1024, false);
+    }
+
+    private ScanSettings(final int parallelism, final boolean loaderFree, final File cacheFile, final ScanBackend backend, final long parserMemoryLimit, final boolean recordsRetained) {
+        checkArgument(parallelism > 0, "parallelism must be positive: %s", parallelism);
+        checkArgument(parserMemoryLimit > 0, "parserMemoryLimit must be positive: %s", parserMemoryLimit);
+        this.parallelism = parallelism;
+        this.loaderFree = loaderFree;
+        this.cacheFile = cacheFile;
+        this.backend = checkNotNull(backend, "backend required");
+        this.parserMemoryLimit = parserMemoryLimit;
+        this.recordsRetained = recordsRetained;
+    }
+
+    /**
+     * @param parallelism number of threads extracting byte code dependencies and analysing modules of graph,
+     *                    1 means everything is done in caller thread.
+     */
+    public ScanSettings withParallelism(final int parallelism) {
+        return new ScanSettings(parallelism, loaderFree, cacheFile, backend, parserMemoryLimit, recordsRetained);
+    }
+
+    /**
+     * @param loaderFree recognize modules and module annotations from byte code,
+     *                   so only module classes are loaded (for instantiation) instead of every scanned class.
+     */
+    public ScanSettings withLoaderFree(final boolean loaderFree) {
+        return new ScanSettings(parallelism, loaderFree, cacheFile, backend, parserMemoryLimit, recordsRetained);
+    }
+
+    /**
+     * @param cacheFile file to keep parsed byte code between runs, so only new or changed classes are parsed;
+     *                  null disables cache.
+     */
+    public ScanSettings withCacheFile(final File cacheFile) {
+        return new ScanSettings(parallelism, loaderFree, cacheFile, backend, parserMemoryLimit, recordsRetained);
+    }
+
+    /**
+     * @param backend byte code reader, see {@link ScanBackend}.
+     */
+    public ScanSettings withBackend(final ScanBackend backend) {
+        return new ScanSettings(parallelism, loaderFree, cacheFile, backend, parserMemoryLimit, recordsRetained);
+    }
+
+    /**
+     * @param parserMemoryLimit class bytes every parser may retain, parser state is dropped when it is reached;
+     *                          applies to {@link ScanBackend#Javassist} only, which keeps class model in its pool;
+     *                          {@link ScanBackend#ConstantPool}, the default, retains no class bytes between classes
+     *                          and ignores the limit, neither does the limit bound retained records or scan cache.
+     */
+    public ScanSettings withParserMemoryLimit(final long parserMemoryLimit) {
+        return new ScanSettings(parallelism, loaderFree, cacheFile, backend, parserMemoryLimit, recordsRetained);
+    }
+
+    /**
+     * @param recordsRetained keep parsed byte code in memory, so {@link ClasspathRelations#rescan} parses changed classes only.
+     */
+    public ScanSettings withRecordsRetained(final boolean recordsRetained) {
+        return new ScanSettings(parallelism, loaderFree, cacheFile, backend, parserMemoryLimit, recordsRetained);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public boolean isLoaderFree() {
+        return loaderFree;
+    }
+
+    public File getCacheFile() {
+        return cacheFile;
+    }
+
+    public ScanBackend getBackend() {
+        return backend;
+    }
+
+    public long getParserMemoryLimit() {
+        return parserMemoryLimit;
+    }
+
+    public boolean isRecordsRetained() {
+        return recordsRetained;
+    }
+
+    @Override
+    public String toString() {
+        return "ScanSettings{" +
+                "parallelism=" + parallelism +
+                ", loaderFree=" + loaderFree +
+                ", cacheFile=" + cacheFile +
+                ", backend=" + backend +
+                ", parserMemoryLimit=" + parserMemoryLimit +
+                ", recordsRetained=" + recordsRetained +
+                '}';
+    }
+}
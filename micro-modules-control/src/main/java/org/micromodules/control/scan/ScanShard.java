@@ -0,0 +1,124 @@
+package org.micromodules.control.scan;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.micromodules.setup.Contract;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Scan result of a part of classpath: parsed byte code of classes from selected classpath entries,
+ * so every build agent could scan only its own artifact. Shards are merged into complete relations
+ * by {@link ClasspathRelations#createFrom(ScanSettings, ClassLoader, Iterable)}.
+ */
+@Contract(__modules__.ClasspathModule.class)
+public final class ScanShard {
+    private static final int MAGIC = 0x4D4D5353;
+    private static final int VERSION = 1;
+
+    private final ImmutableSet<String> packagePrefixes;
+    private final ImmutableList<String> classNames;
+    private final ClassRecordMemo records;
+
+    /**
+     * @param entries jar files or class directories of classpath to be scanned, other entries are used
+     *                only to look up classes, like it happens in a complete scan.
+     */
+    public static ScanShard scan(final ScanSettings settings, final ClassLoader classLoader, final Iterable<File> entries, final String... packagePrefixes) {
+        checkNotNull(settings, "settings required");
+        checkNotNull(classLoader, "classLoader required");
+        final Set<File> entryFiles = ImmutableSet.copyOf(ImmutableList.copyOf(entries).stream().map(ScanShard::normalize).iterator());
+        final ImmutableSet<String> packagePrefixSet = ImmutableSet.copyOf(packagePrefixes);
+        final ClasspathEntries classpathEntries = ClasspathEntries.open(classLoader);
+        final ImmutableList<String> classNames = classpathEntries.getClassNames(PackagePrefixTrie.of(packagePrefixSet), file -> entryFiles.contains(normalize(file)));
+        final ScanCache scanCache = settings.getCacheFile() != null ? ScanCache.open(settings.getCacheFile(), settings.getBackend()) : null;
+        final ClassRecordMemo records = new ClassRecordMemo();
+        final ClassRecordSource recordSource = new ClassRecordSource(classpathEntries, settings.getBackend(), scanCache,
+                new ScanMemory(settings.getParserMemoryLimit()), records);
+        final ClassRecordParser parser = recordSource.createParser();
+        for (final String className : classNames) {
+            recordSource.get(className, parser);
+        }
+        if (scanCache != null) {
+            scanCache.save();
+        }
+        return new ScanShard(packagePrefixSet, classNames, records);
+    }
+
+    /**
+     * Classpath from manifest of a jar could refer to the same entries by relative paths.
+     */
+    private static File normalize(final File file) {
+        return file.getAbsoluteFile().toPath().normalize().toFile();
+    }
+
+    private ScanShard(final ImmutableSet<String> packagePrefixes, final ImmutableList<String> classNames, final ClassRecordMemo records) {
+        this.packagePrefixes = packagePrefixes;
+        this.classNames = classNames;
+        this.records = records;
+    }
+
+    public ImmutableSet<String> getPackagePrefixes() {
+        return packagePrefixes;
+    }
+
+    /**
+     * @return scanned classes, sorted the way complete scan lists them.
+     */
+    public ImmutableList<String> getClassNames() {
+        return classNames;
+    }
+
+    ClassRecordMemo getRecords() {
+        return records;
+    }
+
+    public void writeTo(final OutputStream outputStream) throws IOException {
+        final Map<String, Integer> strings = new LinkedHashMap<>();
+        packagePrefixes.forEach(prefix -> ClassRecordFormat.collectString(strings, prefix));
+        classNames.forEach(className -> ClassRecordFormat.collectString(strings, className));
+        records.forEach((className, record) -> ClassRecordFormat.collectStrings(strings, record));
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        ClassRecordFormat.writeStringTable(out, strings);
+        ClassRecordFormat.writeStrings(out, strings, packagePrefixes);
+        ClassRecordFormat.writeStrings(out, strings, classNames);
+        final Map<String, ClassRecord> recordsMap = new LinkedHashMap<>();
+        records.forEach(recordsMap::put);
+        out.writeInt(recordsMap.size());
+        for (final ClassRecord record : recordsMap.values()) {
+            ClassRecordFormat.writeRecord(out, strings, record);
+        }
+        out.flush();
+    }
+
+    public static ScanShard readFrom(final InputStream inputStream) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Unsupported scan shard format");
+        }
+        final String[] strings = ClassRecordFormat.readStringTable(in);
+        final ImmutableSet<String> packagePrefixes = ImmutableSet.copyOf(ClassRecordFormat.readStrings(in, strings));
+        final ImmutableList<String> classNames = ImmutableList.copyOf(ClassRecordFormat.readStrings(in, strings));
+        final ClassRecordMemo records = new ClassRecordMemo();
+        final int recordsCount = in.readInt();
+        for (int i = 0; i < recordsCount; i++) {
+            final ClassRecord record = ClassRecordFormat.readRecord(in, strings);
+            records.put(record.getName(), record);
+        }
+        return new ScanShard(packagePrefixes, classNames, records);
+    }
+}
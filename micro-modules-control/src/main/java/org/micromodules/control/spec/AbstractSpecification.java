@@ -4,6 +4,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import org.micromodules.control.scan.ClasspathRelations;
+import org.micromodules.control.util.ClassNames;
 import org.micromodules.setup.ClassesFilter;
 import org.micromodules.setup.ClassesPattern;
 import org.micromodules.setup.DependenciesSetup;
@@ -33,10 +34,10 @@ abstract class AbstractSpecification {
         private String deprecated = null;
         private final List<String> comments = new ArrayList<>();
         private boolean packageMustBeBlank = false;
-        private final Set<Class<?>> contractInclude = new LinkedHashSet<>();
-        private final Set<Class<?>> contractExclude = new LinkedHashSet<>();
-        private final Set<Class<?>> implementationInclude = new LinkedHashSet<>();
-        private final Set<Class<?>> implementationExclude = new LinkedHashSet<>();
+        private final Set<String> contractInclude = new LinkedHashSet<>();
+        private final Set<String> contractExclude = new LinkedHashSet<>();
+        private final Set<String> implementationInclude = new LinkedHashSet<>();
+        private final Set<String> implementationExclude = new LinkedHashSet<>();
         private final Set<Class<? extends Module>> allowedDependencies = new LinkedHashSet<>();
 
         public ModuleSetupImpl(final Class<? extends Module> moduleClass, final ClasspathRelations classpathRelations) {
@@ -44,13 +45,13 @@ abstract class AbstractSpecification {
             this.classpathRelations = checkNotNull(classpathRelations);
             this.name = moduleClass.getName();
 
-            classpathRelations.getModuleToAnnotatedContractClasses(moduleClass).forEach(contractClazz ->
-                    new ClassesFilterImpl(contractClazz.getPackage().getName(), contractInclude, contractExclude)
-                            .include().matchByName(contractClazz.getSimpleName()));
+            classpathRelations.getModuleToAnnotatedContractClassNames(moduleClass.getName()).forEach(contractClazzName ->
+                    new ClassesFilterImpl(ClassNames.packageName(contractClazzName), contractInclude, contractExclude)
+                            .include().matchByName(ClassNames.simpleName(contractClazzName)));
 
-            classpathRelations.getModuleToAnnotatedImplementationClasses(moduleClass).forEach(implementationClazz ->
-                    new ClassesFilterImpl(implementationClazz.getPackage().getName(), implementationInclude, implementationExclude)
-                            .include().matchByName(implementationClazz.getSimpleName()));
+            classpathRelations.getModuleToAnnotatedImplementationClassNames(moduleClass.getName()).forEach(implementationClazzName ->
+                    new ClassesFilterImpl(ClassNames.packageName(implementationClazzName), implementationInclude, implementationExclude)
+                            .include().matchByName(ClassNames.simpleName(implementationClazzName)));
         }
 
         @Override
@@ -68,17 +69,17 @@ abstract class AbstractSpecification {
         public ClassesFilter<ModuleSetup> implementation() {
             return createClassesPattern(implementationInclude, implementationExclude);
         }
-        private ClassesFilter<ModuleSetup> createClassesPattern(final Set<Class<?>> include, final Set<Class<?>> exclude) {
+        private ClassesFilter<ModuleSetup> createClassesPattern(final Set<String> include, final Set<String> exclude) {
             return new ClassesFilterImpl(moduleClass.getPackage().getName(), include, exclude);
 
         }
 
         private class ClassesFilterImpl implements ClassesFilter<ModuleSetup> {
             private final String basePackageName;
-            private final Set<Class<?>> include;
-            private final Set<Class<?>> exclude;
+            private final Set<String> include;
+            private final Set<String> exclude;
 
-            public ClassesFilterImpl(final String basePackageName, final Set<Class<?>> include, final Set<Class<?>> exclude) {
+            public ClassesFilterImpl(final String basePackageName, final Set<String> include, final Set<String> exclude) {
                 this.basePackageName = basePackageName;
                 this.include = include;
                 this.exclude = exclude;
@@ -94,18 +95,18 @@ abstract class AbstractSpecification {
                 return createClassesPattern(exclude);
             }
 
-            private ClassesPattern<ModuleSetup> createClassesPattern(final Set<Class<?>> classesSet) {
+            private ClassesPattern<ModuleSetup> createClassesPattern(final Set<String> classNamesSet) {
                 //noinspection Convert2Lambda
                 return new ClassesPattern<ModuleSetup>() {
                     @Override
                     public ModuleSetup matchByPattern(final Pattern regexp) {
 
-                        final Set<Class<?>> classesInPackage = classpathRelations.getPackageToClasses(basePackageName);
-                        if (classesInPackage != null) {
+                        final Set<String> classNamesInPackage = classpathRelations.getPackageToClassNames(basePackageName);
+                        if (classNamesInPackage != null) {
                             boolean matched = false;
-                            for (final Class<?> clazz : classesInPackage) {
-                                if (regexp.matcher(clazz.getName().replaceAll("^.*[.]","").replaceAll("[$].*","")).matches()) {
-                                    classesSet.add(clazz);
+                            for (final String clazzName : classNamesInPackage) {
+                                if (regexp.matcher(clazzName.replaceAll("^.*[.]","").replaceAll("[$].*","")).matches()) {
+                                    classNamesSet.add(clazzName);
                                     matched = true;
                                 }
                             }
@@ -182,18 +183,19 @@ abstract class AbstractSpecification {
                 private final Class<? extends Module> module = ModuleSetupImpl.this.moduleClass;
                 private final String deprecated = ModuleSetupImpl.this.deprecated;
                 private final ImmutableList<String> comments = ImmutableList.copyOf(ModuleSetupImpl.this.comments);
-                private final ImmutableSet<Class<?>> contractClasses = ImmutableSet.copyOf(Sets.difference(
+                private final ImmutableSet<String> contractClassNames = ImmutableSet.copyOf(Sets.difference(
                         ModuleSetupImpl.this.contractInclude,
                         ModuleSetupImpl.this.contractExclude
                 ));
-                private final ImmutableSet<Class<?>> implementationClasses = ImmutableSet.copyOf(Sets.difference(Sets.difference(
+                private final ImmutableSet<String> implementationClassNames = ImmutableSet.copyOf(Sets.difference(Sets.difference(
                         ModuleSetupImpl.this.implementationInclude,
                         ModuleSetupImpl.this.implementationExclude
-                ), contractClasses));
-                private final ImmutableSet<Class<?>> allClasses = ImmutableSet.copyOf(Sets.union(
-                        this.contractClasses,
-                        this.implementationClasses
+                ), contractClassNames));
+                private final ImmutableSet<String> allClassNames = ImmutableSet.copyOf(Sets.union(
+                        this.contractClassNames,
+                        this.implementationClassNames
                 ));
+                private final ClasspathRelations classpathRelations = ModuleSetupImpl.this.classpathRelations;
 
                 @Override
                 public Class<? extends Module> getModule() {
@@ -210,19 +212,34 @@ abstract class AbstractSpecification {
                     return this.comments;
                 }
 
+                @Override
+                public ImmutableSet<String> getImplementationClassNames() {
+                    return this.implementationClassNames;
+                }
+
+                @Override
+                public ImmutableSet<String> getContractClassNames() {
+                    return this.contractClassNames;
+                }
+
+                @Override
+                public ImmutableSet<String> getAllClassNames() {
+                    return this.allClassNames;
+                }
+
                 @Override
                 public ImmutableSet<Class<?>> getImplementationClasses() {
-                    return this.implementationClasses;
+                    return classpathRelations.loadClasses(this.implementationClassNames);
                 }
 
                 @Override
                 public ImmutableSet<Class<?>> getContractClasses() {
-                    return this.contractClasses;
+                    return classpathRelations.loadClasses(this.contractClassNames);
                 }
 
                 @Override
                 public ImmutableSet<Class<?>> getAllClasses() {
-                    return this.allClasses;
+                    return classpathRelations.loadClasses(this.allClassNames);
                 }
 
                 @Override
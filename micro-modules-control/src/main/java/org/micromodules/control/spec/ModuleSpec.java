@@ -18,6 +18,9 @@ public interface ModuleSpec {
 
     boolean isDeprecated();
     ImmutableList<String> getComments();
+    ImmutableSet<String> getImplementationClassNames();
+    ImmutableSet<String> getContractClassNames();
+    ImmutableSet<String> getAllClassNames();
     ImmutableSet<Class<?>> getImplementationClasses();
     ImmutableSet<Class<?>> getContractClasses();
     ImmutableSet<Class<?>> getAllClasses();
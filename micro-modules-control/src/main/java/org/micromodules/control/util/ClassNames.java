@@ -0,0 +1,40 @@
+package org.micromodules.control.util;
+
+import org.micromodules.setup.Contract;
+
+/**
+ * Class name manipulations which do not require class to be loaded.
+ */
+@Contract(__modules__.UtilModule.class)
+public final class ClassNames {
+    private ClassNames() {
+    }
+
+    /**
+     * @return package name of class, blank for default package.
+     */
+    public static String packageName(final String className) {
+        final int lastDot = className.lastIndexOf('.');
+        return lastDot >= 0 ? className.substring(0, lastDot) : "";
+    }
+
+    /**
+     * @return simple name the same way {@link Class#getSimpleName()} gives it for top level and member classes.
+     */
+    public static String simpleName(final String className) {
+        final String nameInPackage = className.substring(className.lastIndexOf('.') + 1);
+        return nameInPackage.substring(nameInPackage.lastIndexOf('$') + 1);
+    }
+
+    /**
+     * @return name of class which is not nested into any other class, the one which owns source file.
+     */
+    public static String topLevelName(final String className) {
+        final int firstDollar = className.indexOf('$', className.lastIndexOf('.') + 1);
+        return firstDollar >= 0 ? className.substring(0, firstDollar) : className;
+    }
+
+    public static String resourceName(final String className) {
+        return className.replace('.', '/') + ".class";
+    }
+}
@@ -0,0 +1,95 @@
+package org.micromodules.control.util;
+
+import org.micromodules.setup.Contract;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Interned names with dense int ids assigned in order of first appearance, starting from zero.
+ * Every name is kept once, so structures referencing names by id or by canonical instance
+ * do not hold duplicated strings. Ids are kept in open addressing table, without boxing.
+ * Table is filled by a single thread, after that it could be read concurrently.
+ */
+@Contract(__modules__.UtilModule.class)
+public final class SymbolTable {
+    public static final int NO_ID = -1;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private String[] names = new String[INITIAL_CAPACITY];
+    /**
+     * Slot holds id + 1, zero means empty slot.
+     */
+    private int[] slots = new int[INITIAL_CAPACITY * 2];
+    private int size = 0;
+
+    /**
+     * @return id of name, new id is assigned to a name seen first time.
+     */
+    public int intern(final String name) {
+        checkNotNull(name, "name required");
+        final int slot = findSlot(name);
+        if (slots[slot] != 0) {
+            return slots[slot] - 1;
+        }
+        final int id = size++;
+        if (id == names.length) {
+            names = Arrays.copyOf(names, names.length * 2);
+        }
+        names[id] = name;
+        slots[slot] = id + 1;
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        return id;
+    }
+
+    /**
+     * @return id of name or {@link #NO_ID} if name was never interned.
+     */
+    public int find(final String name) {
+        final int slot = findSlot(checkNotNull(name, "name required"));
+        return slots[slot] - 1;
+    }
+
+    public String name(final int id) {
+        checkElementIndex(id, size);
+        return names[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int findSlot(final String name) {
+        final int mask = slots.length - 1;
+        int slot = mix(name.hashCode()) & mask;
+        while (slots[slot] != 0 && !names[slots[slot] - 1].equals(name)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(final int capacity) {
+        final int mask = capacity - 1;
+        final int[] newSlots = new int[capacity];
+        for (int id = 0; id < size; id++) {
+            int slot = mix(names[id].hashCode()) & mask;
+            while (newSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            newSlots[slot] = id + 1;
+        }
+        slots = newSlots;
+    }
+
+    /**
+     * Spreads string hash, class names of one package differ in last characters only.
+     */
+    private static int mix(final int hash) {
+        final int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,64 @@
+package org.micromodules.control.graph;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.micromodules.control.graph.GraphDomain.Node;
+
+import java.lang.reflect.Field;
+
+import static org.micromodules.control.graph.GraphDomain.EdgeType.Dependency;
+import static org.micromodules.control.graph.GraphDomain.EdgeType.UsesClass;
+import static org.micromodules.control.graph.GraphDomain.NodeType.CodeNode;
+
+/**
+ * Frozen graph is package private, so it is tested in its own package.
+ */
+public class CompactGraphTest extends Assert {
+    private final Node first = CodeNode.named("org.example.First");
+    private final Node second = CodeNode.named("org.example.Second");
+
+    @Test
+    public void testTraversalKeepsNoGraph() throws Exception {
+        //traversal buffers live in a thread local, a graph referred by them would never be collected:
+        for (final Field field : Traversal.class.getDeclaredFields()) {
+            assertFalse(field.toString(), CompactGraph.class.isAssignableFrom(field.getType()));
+        }
+    }
+
+    @Test
+    public void testTraversalReleasedAfterWalk() throws Exception {
+        final CompactGraph graph = queriedGraph();
+        assertSame("traversal is left busy", Traversal.ofCurrentThread(), Traversal.ofCurrentThread());
+        try {
+            GraphQuery.start(graph, null).from(first).forward().by(UsesClass).to(node -> {
+                throw new IllegalStateException("filter failed");
+            }).recursive().set();
+            fail("filter is not run");
+        } catch (final IllegalStateException e) {
+            assertEquals("filter failed", e.getMessage());
+        }
+        assertSame("traversal is left busy", Traversal.ofCurrentThread(), Traversal.ofCurrentThread());
+    }
+
+    @Test
+    public void testEdgesComparedByValue() throws Exception {
+        final CompactGraph graph = queriedGraph();
+        assertNotSame(graph.edge(0), graph.edge(0));
+        assertEquals(graph.edge(0), graph.edge(0));
+        assertEquals(graph.edge(0).hashCode(), graph.edge(0).hashCode());
+        final CompactGraph.Builder builder = graph.toBuilder();
+        builder.addEdge(first, Dependency, second);
+        assertNotEquals(graph.edge(0), builder.freeze().edge(0));
+    }
+
+    private CompactGraph queriedGraph() {
+        final CompactGraph.Builder builder = new CompactGraph.Builder();
+        builder.addNode(first);
+        builder.addNode(second);
+        builder.addEdge(first, UsesClass, second);
+        final CompactGraph graph = builder.freeze();
+        assertEquals(ImmutableSet.of(first, second), GraphQuery.start(graph, null).from(first).forward().by(UsesClass).recursive().set());
+        return graph;
+    }
+}
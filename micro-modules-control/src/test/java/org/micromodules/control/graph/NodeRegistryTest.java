@@ -0,0 +1,32 @@
+package org.micromodules.control.graph;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.micromodules.control.graph.GraphDomain.Node;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.micromodules.control.graph.GraphDomain.NodeType.CodeNode;
+
+/**
+ * Registry is package private, so it is tested in its own package.
+ */
+public class NodeRegistryTest extends Assert {
+    @Test
+    public void testOrdinalOfDroppedNodeReused() throws Exception {
+        final Node dropped = CodeNode.named("org.example.Dropped");
+        final int droppedOrdinal = dropped.getOrdinal();
+        NodeRegistry.drop(dropped);
+        final Node registered = CodeNode.named("org.example.Dropped");
+        assertNotSame(dropped, registered);
+        assertSame(registered, CodeNode.named("org/example/Dropped"));
+        //lowest free ordinal is given first, nodes are kept until dropped ordinal is given too:
+        final List<Node> nodes = new ArrayList<>();
+        nodes.add(registered);
+        while (nodes.get(nodes.size() - 1).getOrdinal() != droppedOrdinal) {
+            assertTrue("Ordinal " + droppedOrdinal + " is not reused", nodes.get(nodes.size() - 1).getOrdinal() < droppedOrdinal);
+            nodes.add(CodeNode.named("org.example.Registered" + nodes.size()));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.micromodules.control.scan;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Parser is package private, so it is tested in its own package.
+ */
+public class ConstantPoolRecordParserTest extends Assert {
+    @Test
+    public void testDynamicConstantSkipped() throws Exception {
+        final ClassRecord record = new ConstantPoolRecordParser().parse(ByteBuffer.wrap(classWithDynamicConstant()));
+        assertEquals("test.Condy", record.getName());
+        assertEquals("java.lang.Object", record.getHeader().getSuperClassName());
+        assertTrue(record.getDependencyClassNames().containsAll(ImmutableSet.of("java.util.List", "java.lang.String")));
+    }
+
+    /**
+     * Class file of Java 11 with a CONSTANT_Dynamic entry between other constants, as JaCoCo instrumented classes have.
+     */
+    private static byte[] classWithDynamicConstant() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0); //minor version
+        out.writeShort(55); //major version
+        out.writeShort(11); //constants count
+        utf8(out, "test/Condy"); //#1
+        classConstant(out, 1); //#2
+        utf8(out, "java/lang/Object"); //#3
+        classConstant(out, 3); //#4
+        utf8(out, "x"); //#5
+        utf8(out, "Ljava/lang/String;"); //#6
+        out.writeByte(12); //#7 name and type
+        out.writeShort(5);
+        out.writeShort(6);
+        out.writeByte(17); //#8 dynamic: bootstrap method, name and type
+        out.writeShort(0);
+        out.writeShort(7);
+        utf8(out, "java/util/List"); //#9
+        classConstant(out, 9); //#10
+        out.writeShort(0x0021); //public super
+        out.writeShort(2); //this class
+        out.writeShort(4); //super class
+        out.writeShort(0); //interfaces
+        out.writeShort(0); //fields
+        out.writeShort(0); //methods
+        out.writeShort(0); //attributes
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void utf8(final DataOutputStream out, final String value) throws IOException {
+        out.writeByte(1);
+        out.writeUTF(value);
+    }
+
+    private static void classConstant(final DataOutputStream out, final int nameIndex) throws IOException {
+        out.writeByte(7);
+        out.writeShort(nameIndex);
+    }
+}
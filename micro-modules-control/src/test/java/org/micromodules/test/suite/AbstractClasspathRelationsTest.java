@@ -1,17 +1,44 @@
 package org.micromodules.test.suite;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
+import com.google.common.io.Files;
+import com.google.common.reflect.ClassPath;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.micromodules.control.scan.ClasspathRelations;
+import org.micromodules.control.scan.ClasspathWatcher;
+import org.micromodules.control.scan.ScanBackend;
+import org.micromodules.control.scan.ScanSettings;
+import org.micromodules.control.scan.ScanShard;
+import org.micromodules.control.util.SymbolTable;
 import org.micromodules.setup.Module;
 import org.micromodules.test.project.__module__;
 import org.micromodules.test.project.business.Business1;
 import org.micromodules.test.project.business.Business1Impl;
 import org.micromodules.test.project.business.Business2Impl;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
 import static com.google.common.collect.ImmutableSet.copyOf;
 import static com.google.common.collect.Sets.intersection;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author dmitry.mamonov
@@ -46,6 +73,8 @@ public class AbstractClasspathRelationsTest {
             .add(Business1.SubInterfaceInBusiness1.SubSubInterfaceInBusiness1.SubSubSubClassInBusiness1.class)
             .add(Business1.SubInterfaceInBusiness1.SubSubInterfaceInBusiness1.SubSubSubClassInBusiness1.class)
             .build();
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
     private final ClasspathRelations classpathRelations;
 
     public AbstractClasspathRelationsTest() {
@@ -83,4 +112,291 @@ public class AbstractClasspathRelationsTest {
         assertEquals(true, business1Dependencies.contains(Business2Impl.class.getName()));
 
     }
+
+    @Test
+    public void testClassIdsSameAsClassNames() throws Exception {
+        final SymbolTable symbolTable = classpathRelations.getSymbolTable();
+        int classId = 0;
+        for (final String className : classpathRelations.getClassNamesSet()) {
+            assertEquals(classId, symbolTable.find(className));
+            final ImmutableSet.Builder<String> dependencyNames = ImmutableSet.builder();
+            classpathRelations.forEachDependencyClassId(classId, dependencyId -> dependencyNames.add(symbolTable.name(dependencyId)));
+            assertEquals(classpathRelations.getClassToDependencyClassMap().get(className), dependencyNames.build());
+            final ImmutableSet.Builder<String> nestedNames = ImmutableSet.builder();
+            classpathRelations.forEachContainedClassId(classId, nestedId -> nestedNames.add(symbolTable.name(nestedId)));
+            assertEquals(classpathRelations.getClassContainsClasses(className), nestedNames.build());
+            classId++;
+        }
+        assertEquals(SymbolTable.NO_ID, symbolTable.find("no.such.Clazz"));
+    }
+
+    @Test
+    public void testJarNameResolvedFromClasspath() throws Exception {
+        final String guavaJarName = new File(ImmutableSet.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getName();
+        assertEquals(guavaJarName, classpathRelations.getJarName(ImmutableSet.class.getName()));
+        assertEquals("default", classpathRelations.getJarName(Business1.class.getName()));
+        assertEquals("default", classpathRelations.getJarName("org.micromodules.test.NoSuchClass"));
+    }
+
+    @Test
+    public void testParallelScanSameAsSequential() throws Exception {
+        final ClasspathRelations parallelRelations = ClasspathRelations.createFrom(
+                ScanSettings.defaults().withParallelism(4),
+                Thread.currentThread().getContextClassLoader(),
+                "org.micromodules.test.project", "org.micromodules.control");
+        final ClasspathRelations sequentialRelations = ClasspathRelations.createFrom(
+                Thread.currentThread().getContextClassLoader(),
+                "org.micromodules.test.project", "org.micromodules.control");
+        assertEquals(sequentialRelations.getClassToDependencyClassMap(), parallelRelations.getClassToDependencyClassMap());
+        assertEquals(
+                ImmutableList.copyOf(sequentialRelations.getClassToDependencyClassMap().keySet()),
+                ImmutableList.copyOf(parallelRelations.getClassToDependencyClassMap().keySet()));
+        for (final String className : sequentialRelations.getClassToDependencyClassMap().keySet()) {
+            assertEquals(sequentialRelations.getClassContainsClasses(className), parallelRelations.getClassContainsClasses(className));
+        }
+    }
+
+    @Test
+    public void testLoaderFreeScanSameAsLoadingScan() throws Exception {
+        final ClasspathRelations loaderFreeRelations = ClasspathRelations.createFrom(
+                ScanSettings.defaults().withLoaderFree(true),
+                Thread.currentThread().getContextClassLoader(),
+                "org.micromodules.test.project");
+        assertEquals(classpathRelations.getModulesSet(), loaderFreeRelations.getModulesSet());
+        assertEquals(classpathRelations.getClassNamesSet(), loaderFreeRelations.getClassNamesSet());
+        assertEquals(classpathRelations.getClassToDependencyClassMap(), loaderFreeRelations.getClassToDependencyClassMap());
+        for (final Class<? extends Module> moduleClazz : expectedModules) {
+            assertEquals(
+                    classpathRelations.getModuleToAnnotatedContractClassNames(moduleClazz.getName()),
+                    loaderFreeRelations.getModuleToAnnotatedContractClassNames(moduleClazz.getName()));
+            assertEquals(
+                    classpathRelations.getModuleToAnnotatedImplementationClassNames(moduleClazz.getName()),
+                    loaderFreeRelations.getModuleToAnnotatedImplementationClassNames(moduleClazz.getName()));
+        }
+    }
+
+    @Test
+    public void testScannedClassesSameAsGuavaClassPath() throws Exception {
+        assertScannedClassesSameAsGuavaClassPath("org.micromodules", "javassist", "com.google.common", "org.jgrapht");
+    }
+
+    @Test
+    public void testPartialAndNestedPrefixesMatchAsStartsWith() throws Exception {
+        assertScannedClassesSameAsGuavaClassPath("org.micro", "org.micromodules.control", "com.google.common.co", "com.google.common.collect", "org.jgrapht.alg");
+    }
+
+    private void assertScannedClassesSameAsGuavaClassPath(final String... packagePrefixes) throws IOException {
+        final ImmutableSet.Builder<String> expectedClassNames = ImmutableSet.builder();
+        for (final ClassPath.ClassInfo classInfo : ClassPath.from(Thread.currentThread().getContextClassLoader()).getAllClasses()) {
+            for (final String packagePrefix : packagePrefixes) {
+                if (classInfo.getPackageName().startsWith(packagePrefix)
+                        && !classInfo.getSimpleName().equals("__module__") && !classInfo.getSimpleName().equals("__modules__")) {
+                    expectedClassNames.add(classInfo.getName());
+                    break;
+                }
+            }
+        }
+        final ClasspathRelations relations = ClasspathRelations.createFrom(
+                ScanSettings.defaults().withLoaderFree(true), Thread.currentThread().getContextClassLoader(), packagePrefixes);
+        final ImmutableSet<String> scannedClassNames = ImmutableSet.<String>builder()
+                .addAll(relations.getClassNamesSet())
+                .addAll(Iterables.transform(relations.getModulesSet(), Class::getName))
+                .build();
+        assertEquals(ImmutableSortedSet.copyOf(expectedClassNames.build()), ImmutableSortedSet.copyOf(scannedClassNames));
+    }
+
+    @Test
+    public void testJarScanSameAsDirectoryScan() throws Exception {
+        final File testClassesDir = new File(__module__.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        for (final int method : new int[]{ZipEntry.STORED, ZipEntry.DEFLATED}) {
+            final File jarFile = temporaryFolder.newFile("test-classes-" + method + ".jar");
+            writeJar(jarFile, testClassesDir, method);
+            final List<URL> classpathUrls = new ArrayList<>();
+            classpathUrls.add(jarFile.toURI().toURL());
+            for (final String path : System.getProperty("java.class.path").split(File.pathSeparator)) {
+                if (!new File(path).equals(testClassesDir)) {
+                    classpathUrls.add(new File(path).toURI().toURL());
+                }
+            }
+            try (final TrackingClassLoader classLoader = new TrackingClassLoader(classpathUrls.toArray(new URL[classpathUrls.size()]))) {
+                final ClasspathRelations jarRelations = ClasspathRelations.createFrom(
+                        ScanSettings.defaults().withLoaderFree(true), classLoader, "org.micromodules.test.project");
+                assertEquals(classpathRelations.getClassNamesSet(), jarRelations.getClassNamesSet());
+                assertEquals(classpathRelations.getClassToDependencyClassMap(), jarRelations.getClassToDependencyClassMap());
+                assertEquals(
+                        ImmutableSet.copyOf(Iterables.transform(classpathRelations.getModulesSet(), Class::getName)),
+                        ImmutableSet.copyOf(Iterables.transform(jarRelations.getModulesSet(), Class::getName)));
+            }
+        }
+    }
+
+    private static void writeJar(final File jarFile, final File classesDir, final int method) throws IOException {
+        try (final JarOutputStream out = new JarOutputStream(new FileOutputStream(jarFile))) {
+            for (final File file : Files.fileTreeTraverser().preOrderTraversal(classesDir)) {
+                if (file.isFile()) {
+                    final byte[] bytes = Files.toByteArray(file);
+                    final JarEntry entry = new JarEntry(classesDir.toURI().relativize(file.toURI()).getPath());
+                    entry.setMethod(method);
+                    if (method == ZipEntry.STORED) {
+                        final CRC32 crc = new CRC32();
+                        crc.update(bytes);
+                        entry.setSize(bytes.length);
+                        entry.setCrc(crc.getValue());
+                    }
+                    out.putNextEntry(entry);
+                    out.write(bytes);
+                    out.closeEntry();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testConstantPoolBackendSameAsJavassist() throws Exception {
+        final String[] packagePrefixes = {"org.micromodules", "javassist", "com.google.common.collect"};
+        final ClasspathRelations javassistRelations = ClasspathRelations.createFrom(
+                ScanSettings.defaults().withLoaderFree(true).withBackend(ScanBackend.Javassist),
+                Thread.currentThread().getContextClassLoader(), packagePrefixes);
+        final ClasspathRelations constantPoolRelations = ClasspathRelations.createFrom(
+                ScanSettings.defaults().withLoaderFree(true).withBackend(ScanBackend.ConstantPool),
+                Thread.currentThread().getContextClassLoader(), packagePrefixes);
+        assertEquals(javassistRelations.getModulesSet(), constantPoolRelations.getModulesSet());
+        assertEquals(javassistRelations.getClassNamesSet(), constantPoolRelations.getClassNamesSet());
+        for (final String className : javassistRelations.getClassNamesSet()) {
+            assertEquals(className,
+                    javassistRelations.getClassToDependencyClassMap().get(className),
+                    constantPoolRelations.getClassToDependencyClassMap().get(className));
+            assertEquals(className, javassistRelations.getClassContainsClasses(className), constantPoolRelations.getClassContainsClasses(className));
+        }
+        for (final Class<? extends Module> moduleClazz : javassistRelations.getModulesSet()) {
+            assertEquals(
+                    javassistRelations.getModuleToAnnotatedContractClassNames(moduleClazz.getName()),
+                    constantPoolRelations.getModuleToAnnotatedContractClassNames(moduleClazz.getName()));
+            assertEquals(
+                    javassistRelations.getModuleToAnnotatedImplementationClassNames(moduleClazz.getName()),
+                    constantPoolRelations.getModuleToAnnotatedImplementationClassNames(moduleClazz.getName()));
+        }
+    }
+
+    @Test
+    public void testRecycledJavassistParserSameAsUnbounded() throws Exception {
+        final ScanSettings settings = ScanSettings.defaults().withLoaderFree(true).withBackend(ScanBackend.Javassist);
+        final ClasspathRelations unboundedRelations = ClasspathRelations.createFrom(
+                settings.withParserMemoryLimit(Long.MAX_VALUE), Thread.currentThread().getContextClassLoader(), "org.micromodules");
+        final ClasspathRelations recycledRelations = ClasspathRelations.createFrom(
+                settings.withParserMemoryLimit(1), Thread.currentThread().getContextClassLoader(), "org.micromodules");
+        assertEquals(unboundedRelations.getClassNamesSet(), recycledRelations.getClassNamesSet());
+        assertEquals(unboundedRelations.getClassToDependencyClassMap(), recycledRelations.getClassToDependencyClassMap());
+        for (final String className : unboundedRelations.getClassNamesSet()) {
+            assertEquals(className, unboundedRelations.getClassContainsClasses(className), recycledRelations.getClassContainsClasses(className));
+        }
+    }
+
+    @Test
+    public void testRescanSameAsScan() throws Exception {
+        final ClasspathRelations relations = ClasspathRelations.createFrom(
+                ScanSettings.defaults().withLoaderFree(true).withRecordsRetained(true), Thread.currentThread().getContextClassLoader(), "org.micromodules.test.project");
+        final ClasspathRelations rescannedRelations = relations.rescan(ImmutableSet.of(Business1Impl.class.getName(), Business1.SubInterfaceInBusiness1.class.getName()));
+        assertEquals(classpathRelations.getModulesSet(), rescannedRelations.getModulesSet());
+        assertEquals(classpathRelations.getClassNamesSet(), rescannedRelations.getClassNamesSet());
+        assertEquals(classpathRelations.getClassToDependencyClassMap(), rescannedRelations.getClassToDependencyClassMap());
+        for (final String className : classpathRelations.getClassNamesSet()) {
+            assertEquals(className, classpathRelations.getClassContainsClasses(className), rescannedRelations.getClassContainsClasses(className));
+        }
+    }
+
+    @Test
+    public void testMergedShardsSameAsScan() throws Exception {
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        final ImmutableSet<File> entries = ImmutableSet.of(new File(__module__.class.getProtectionDomain().getCodeSource().getLocation().toURI()));
+        final ScanSettings settings = ScanSettings.defaults().withLoaderFree(true);
+        final List<ScanShard> shards = new ArrayList<>();
+        for (final ScanShard shard : ImmutableList.of(
+                ScanShard.scan(settings, classLoader, entries, "org.micromodules.test.project.business"),
+                ScanShard.scan(settings, classLoader, entries, "org.micromodules.test.project"))) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            shard.writeTo(bytes);
+            final ScanShard readShard = ScanShard.readFrom(new ByteArrayInputStream(bytes.toByteArray()));
+            assertEquals(shard.getPackagePrefixes(), readShard.getPackagePrefixes());
+            assertEquals(shard.getClassNames(), readShard.getClassNames());
+            shards.add(readShard);
+        }
+        final ClasspathRelations mergedRelations = ClasspathRelations.createFrom(settings, classLoader, shards);
+        assertEquals(classpathRelations.getModulesSet(), mergedRelations.getModulesSet());
+        assertEquals(classpathRelations.getClassNamesSet(), mergedRelations.getClassNamesSet());
+        assertEquals(classpathRelations.getClassToDependencyClassMap(), mergedRelations.getClassToDependencyClassMap());
+        for (final String className : classpathRelations.getClassNamesSet()) {
+            assertEquals(className, classpathRelations.getClassContainsClasses(className), mergedRelations.getClassContainsClasses(className));
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testWatcherReportsChangedClasses() throws Exception {
+        final File root = temporaryFolder.newFolder("watched");
+        final File packageDirectory = new File(root, "org/example");
+        assertTrue(packageDirectory.mkdirs());
+        try (final URLClassLoader classLoader = new URLClassLoader(new URL[]{root.toURI().toURL()}, null);
+             final ClasspathWatcher watcher = ClasspathWatcher.open(classLoader)) {
+            Files.write(new byte[]{1}, new File(packageDirectory, "Example.class"));
+            assertTrue(watcher.awaitChangedClassNames().contains("org.example.Example"));
+            final File nestedDirectory = new File(packageDirectory, "nested");
+            assertTrue(nestedDirectory.mkdirs());
+            Files.write(new byte[]{1}, new File(nestedDirectory, "Nested.class"));
+            ImmutableSet<String> changedClassNames = watcher.awaitChangedClassNames();
+            while (!changedClassNames.contains("org.example.nested.Nested")) {
+                changedClassNames = watcher.awaitChangedClassNames();
+            }
+        }
+    }
+
+    @Test
+    public void testCachedScanSameAsUncached() throws Exception {
+        final File cacheFile = new File(temporaryFolder.getRoot(), "scan-cache");
+        for (int run = 0; run < 2; run++) {
+            final ClasspathRelations cachedRelations = ClasspathRelations.createFrom(
+                    ScanSettings.defaults().withLoaderFree(true).withCacheFile(cacheFile),
+                    Thread.currentThread().getContextClassLoader(),
+                    "org.micromodules.test.project");
+            assertEquals(true, cacheFile.isFile());
+            assertEquals(classpathRelations.getModulesSet(), cachedRelations.getModulesSet());
+            assertEquals(classpathRelations.getClassToDependencyClassMap(), cachedRelations.getClassToDependencyClassMap());
+            for (final String className : classpathRelations.getClassToDependencyClassMap().keySet()) {
+                assertEquals(classpathRelations.getClassContainsClasses(className), cachedRelations.getClassContainsClasses(className));
+            }
+            for (final Class<? extends Module> moduleClazz : expectedModules) {
+                assertEquals(
+                        classpathRelations.getModuleToAnnotatedContractClassNames(moduleClazz.getName()),
+                        cachedRelations.getModuleToAnnotatedContractClassNames(moduleClazz.getName()));
+                assertEquals(
+                        classpathRelations.getModuleToAnnotatedImplementationClassNames(moduleClazz.getName()),
+                        cachedRelations.getModuleToAnnotatedImplementationClassNames(moduleClazz.getName()));
+            }
+        }
+    }
+
+    @Test
+    public void testLoaderFreeScanLoadsModulesOnly() throws Exception {
+        final List<URL> classpathUrls = new ArrayList<>();
+        for (final String path : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            classpathUrls.add(new File(path).toURI().toURL());
+        }
+        try (final TrackingClassLoader classLoader = new TrackingClassLoader(classpathUrls.toArray(new URL[classpathUrls.size()]))) {
+            final ClasspathRelations loaderFreeRelations = ClasspathRelations.createFrom(
+                    ScanSettings.defaults().withLoaderFree(true), classLoader, "org.micromodules.test.project");
+            assertEquals(expectedModules.size(), loaderFreeRelations.getModulesSet().size());
+            assertEquals(true, classLoader.isLoaded(org.micromodules.test.project.business.__module__.Business1Module.class.getName()));
+            assertEquals(false, classLoader.isLoaded(Business1Impl.class.getName()));
+            assertEquals(false, classLoader.isLoaded(Business1.class.getName()));
+        }
+    }
+
+    private static class TrackingClassLoader extends URLClassLoader {
+        private TrackingClassLoader(final URL[] urls) {
+            super(urls, null);
+        }
+
+        boolean isLoaded(final String className) {
+            return findLoadedClass(className) != null;
+        }
+    }
 }
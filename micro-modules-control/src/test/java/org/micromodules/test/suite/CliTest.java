@@ -1,15 +1,43 @@
 package org.micromodules.test.suite;
 
+import org.junit.Assert;
 import org.junit.Test;
 import org.micromodules.control.Main;
 
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
 /**
  * @author dmitry.mamonov
  *         Created: 2014-12-30 7:00 PM
  */
-public class CliTest {
+public class CliTest extends Assert {
     @Test
     public void testCliReport() throws Exception {
         Main.main("org.micromodules.test.project");
+        checkCyclesWellFormed(new File(System.getProperty("micromodules.output_dir", ".micro-report"), "index.html"));
+    }
+
+    /**
+     * Every cycles section is a title followed by a list, which must be closed before the next section starts.
+     */
+    private static void checkCyclesWellFormed(final File indexFile) throws Exception {
+        final String index = new String(Files.readAllBytes(indexFile.toPath()), StandardCharsets.UTF_8);
+        int sectionsCount = 0;
+        for (int start = index.indexOf("<h2>"); start >= 0; start = index.indexOf("<h2>", start + 1)) {
+            final int titleEnd = index.indexOf("</h2>", start);
+            if (!index.substring(start, titleEnd).trim().endsWith("Cycles")) {
+                continue;
+            }
+            final int listEnd = index.indexOf("</ol>", titleEnd);
+            assertTrue("No list of " + index.substring(start, titleEnd), listEnd > 0);
+            final String section = "<div>" + index.substring(start, listEnd + "</ol>".length()) + "</div>";
+            DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(section.getBytes(StandardCharsets.UTF_8)));
+            sectionsCount++;
+        }
+        assertTrue("No cycles listed in report", sectionsCount > 0);
     }
 }
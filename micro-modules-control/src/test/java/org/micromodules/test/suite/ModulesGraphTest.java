@@ -1,23 +1,56 @@
 package org.micromodules.test.suite;
 
 import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Sets;
 import org.junit.Assert;
+import org.jgrapht.DirectedGraph;
 import org.junit.Test;
+import org.micromodules.control.analyze.ModulesAnalyzer;
+import org.micromodules.control.graph.GraphDomain.EdgeType;
+import org.micromodules.control.graph.GraphDomain.EdgeTypeFilter;
 import org.micromodules.control.graph.GraphDomain.Node;
 import org.micromodules.control.graph.GraphDomain.NodeEdge;
+import org.micromodules.control.graph.GraphDomain.NodeType;
+import org.micromodules.control.graph.GraphQuery.GraphPathDirection;
+import org.micromodules.control.graph.GraphQuery.GraphPathEdgeFilter;
+import org.micromodules.control.graph.GraphQuery.GraphPathFinish;
 import org.micromodules.control.graph.ModulesGraph;
+import org.micromodules.control.graph.QueryPlan;
 import org.micromodules.control.scan.ClasspathRelations;
+import org.micromodules.control.scan.ScanSettings;
+import org.micromodules.control.spec.ModuleSpec;
 import org.micromodules.control.spec.ModulesSpecification;
 import org.micromodules.test.project.standalone.Standalone1ContractByName;
 import org.micromodules.test.project.standalone.Standalone2;
 import org.micromodules.test.project.standalone.__module__;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static com.google.common.base.Predicates.not;
 import static org.micromodules.control.graph.GraphDomain.EdgeType.*;
 import static org.micromodules.control.graph.GraphDomain.Node.classNode;
 import static org.micromodules.control.graph.GraphDomain.NodeType.CodeNode;
+import static org.micromodules.control.graph.GraphDomain.NodeType.JarNode;
 import static org.micromodules.control.graph.GraphDomain.NodeType.ModuleNode;
+import static org.micromodules.control.graph.GraphDomain.NodeType.PackageNode;
+import static org.micromodules.control.util.Predicates2.and;
 
 /**
  * @author dmitry.mamonov
@@ -49,6 +82,297 @@ public class ModulesGraphTest extends Assert {
         this.modulesGraph = ModulesGraph.createFrom(classpathRelations, modulesSpecification);
     }
 
+    @Test
+    public void testStreamingGraphSameAsStaged() throws Exception {
+        final ImmutableSet<String> expectedEdges = describeEdges(modulesGraph);
+        assertTrue(expectedEdges.stream().anyMatch(edge -> edge.contains("-UsesClass->")));
+        for (final int parallelism : new int[]{1, 4}) {
+            final ModulesGraph streamingGraph = ModulesGraph.createStreaming(ScanSettings.defaults().withParallelism(parallelism),
+                    Thread.currentThread().getContextClassLoader(), "org.micromodules.test.project");
+            assertEquals(expectedEdges, describeEdges(streamingGraph));
+        }
+    }
+
+    @Test
+    public void testQueryGraphHoldsFoundPathOnly() throws Exception {
+        final DirectedGraph<Node, NodeEdge> graph = modulesGraph.query().from(standalone2Module).forward().by(Dependency).to(ModuleNode).single().graph();
+        assertEquals(ImmutableSet.of(standalone2Module, standalone1Module), graph.vertexSet());
+        assertEquals(1, graph.edgeSet().size());
+        assertTrue(graph.getEdge(standalone2Module, standalone1Module).getTypes().containsAll(ImmutableSet.of(Dependency, NotAllowed)));
+    }
+
+    @Test
+    public void testEdgeTypeCombinationsCompiledToMasks() throws Exception {
+        final EdgeTypeFilter contractOrImplementation = EdgeTypeFilter.compile(ContractClass.or(ImplementationClass));
+        final EdgeTypeFilter dependencyAndNotAllowed = EdgeTypeFilter.compile(Dependency.and(NotAllowed));
+        final EdgeTypeFilter dependencyButAllowed = EdgeTypeFilter.compile(Dependency.andNot(NotAllowed.or(Granted)));
+        assertNotNull(contractOrImplementation);
+        assertNotNull(dependencyAndNotAllowed);
+        assertNotNull(dependencyButAllowed);
+        for (int typeMask = 0; typeMask < 1 << EdgeType.values().length; typeMask++) {
+            final Set<EdgeType> types = EdgeType.typesOf(typeMask);
+            assertEquals(types.contains(ContractClass) || types.contains(ImplementationClass), contractOrImplementation.test(typeMask));
+            assertEquals(types.contains(Dependency) && types.contains(NotAllowed), dependencyAndNotAllowed.test(typeMask));
+            assertEquals(types.contains(Dependency) && !types.contains(NotAllowed) && !types.contains(Granted), dependencyButAllowed.test(typeMask));
+        }
+    }
+
+    @Test
+    public void testNodesInternedByTypeAndName() throws Exception {
+        final Node codeNode = CodeNode.named("org.example.Interned");
+        assertSame(codeNode, CodeNode.named("org/example/Interned"));
+        assertEquals("org.example.Interned", codeNode.getName());
+        final Node moduleNode = ModuleNode.named("org.example.Interned");
+        assertNotEquals(codeNode, moduleNode);
+        assertNotEquals(codeNode.getOrdinal(), moduleNode.getOrdinal());
+    }
+
+    @Test
+    public void testIndexedModuleDependenciesSameAsQueried() throws Exception {
+        for (final Node module : modulesGraph.query().from(ModuleNode).getStartSet()) {
+            final ImmutableSet<Node> queriedSet = modulesGraph.query().from(module).forward().by(ContractClass).by(ImplementationClass).to(CodeNode).single()
+                    .useFinish().then().forward().by(UsesClass).to(CodeNode).single()
+                    .useFinish().then().backward().by(ContractClass).by(ImplementationClass).to(and(ModuleNode, not(module))).single()
+                    .useFinish().set();
+            assertEqualsSet(queriedSet, modulesGraph.query().from(module).forward().by(Dependency).to(ModuleNode).single().useFinish().set());
+        }
+    }
+
+    @Test
+    public void testUpdatedGraphSameAsCreated() throws Exception {
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        final ClasspathRelations fullRelations = ClasspathRelations.createFrom(classLoader, "org.micromodules.test.project");
+        final ClasspathRelations partialRelations = ClasspathRelations.createFrom(classLoader,
+                "org.micromodules.test.project.standalone", "org.micromodules.test.project.common", "org.micromodules.test.project.ui");
+        final ModulesGraph partialGraph = ModulesGraph.createFrom(partialRelations, ModulesSpecification.createFrom(partialRelations));
+        final ImmutableSet<String> changedClassNames = ImmutableSet.copyOf(Sets.symmetricDifference(fullRelations.getClassNamesSet(), partialRelations.getClassNamesSet()));
+        assertFalse(changedClassNames.isEmpty());
+        assertNotEquals(describeEdges(modulesGraph), describeEdges(partialGraph));
+        assertEquals(describeEdges(modulesGraph), describeEdges(partialGraph.update(fullRelations, ModulesSpecification.createFrom(fullRelations), changedClassNames)));
+        assertEquals(describeEdges(partialGraph), describeEdges(modulesGraph.update(partialRelations, ModulesSpecification.createFrom(partialRelations), changedClassNames)));
+        assertEquals(describeEdges(modulesGraph), describeEdges(modulesGraph.update(fullRelations, ModulesSpecification.createFrom(fullRelations), fullRelations.getClassNamesSet())));
+    }
+
+    @Test
+    public void testIndexedRecursiveQuerySameAsWalked() throws Exception {
+        for (final EdgeType edgeType : new EdgeType[]{SubModule, Dependency}) {
+            //filter which is not made of edge types only is never answered by index:
+            final Predicate<NodeEdge> walkedEdgeType = and(edgeType, Predicates.<NodeEdge>alwaysTrue());
+            for (final Node module : modulesGraph.query().from(ModuleNode).getStartSet()) {
+                assertEquals(modulesGraph.query().from(module).forward().by(walkedEdgeType).to(ModuleNode).recursive().set(),
+                        modulesGraph.query().from(module).forward().by(edgeType).to(ModuleNode).recursive().set());
+                assertEquals(modulesGraph.query().from(module).backward().by(walkedEdgeType).recursive().graph().edgeSet(),
+                        modulesGraph.query().from(module).backward().by(edgeType).recursive().graph().edgeSet());
+                assertEquals(modulesGraph.query().from(module).forward().by(walkedEdgeType).to(ModuleNode).recursive().then().forward().by(Granted).single().set(),
+                        modulesGraph.query().from(module).forward().by(edgeType).to(ModuleNode).recursive().then().forward().by(Granted).single().set());
+            }
+        }
+    }
+
+    @Test
+    public void testPlanSameAsQuery() throws Exception {
+        final Predicate<NodeEdge> walkedSubModule = and(SubModule, Predicates.<NodeEdge>alwaysTrue());
+        final QueryPlan subModules = QueryPlan.start().forward().by(SubModule).to(ModuleNode).recursive().compile();
+        final QueryPlan walkedSuperModules = QueryPlan.start().backward().by(walkedSubModule).recursive().compile();
+        final QueryPlan hierarchyDependencies = QueryPlan.start().forward().by(SubModule).to(ModuleNode).recursive()
+                .then().forward().by(Dependency).to(ModuleNode).single().compile();
+        final QueryPlan usedClasses = QueryPlan.start().forward().by(ContractClass).by(ImplementationClass).to(CodeNode).single()
+                .useFinish().then().forward().by(UsesClass).to(CodeNode).to(JarNode).single()
+                .useFinish().then().backward().by(ContractClass).to(ModuleNode).single().backtrace().filterStart(ModuleNode).compile();
+        for (final Node module : modulesGraph.query().from(ModuleNode).getStartSet()) {
+            checkPlan(modulesGraph.query().from(module).forward().by(SubModule).to(ModuleNode).recursive(),
+                    modulesGraph.query().from(module).execute(subModules));
+            checkPlan(modulesGraph.query().from(module).backward().by(walkedSubModule).recursive(),
+                    modulesGraph.query().from(module).execute(walkedSuperModules));
+            checkPlan(modulesGraph.query().from(module).forward().by(SubModule).to(ModuleNode).recursive()
+                            .then().forward().by(Dependency).to(ModuleNode).single(),
+                    modulesGraph.query().from(module).execute(hierarchyDependencies));
+            checkPlan(modulesGraph.query().from(module).forward().by(ContractClass).by(ImplementationClass).to(CodeNode).single()
+                            .useFinish().then().forward().by(UsesClass).to(CodeNode).to(JarNode).single()
+                            .useFinish().then().backward().by(ContractClass).to(ModuleNode).single().backtrace().filterStart(ModuleNode),
+                    modulesGraph.query().from(module).execute(usedClasses));
+            assertEquals(modulesGraph.query().from(module).forward().by(SubModule).to(ModuleNode).recursive().useFinish().then().getStartSet(),
+                    modulesGraph.query().from(module).execute(subModules).useFinish().then().getStartSet());
+        }
+    }
+
+    @Test
+    public void testEachPlanSameAsSingle() throws Exception {
+        final ImmutableList<QueryPlan> plans = ImmutableList.of(
+                QueryPlan.start().backward().by(SubModule).to(ModuleNode).recursive().backtrace().compile(),
+                QueryPlan.start().forward().by(and(Dependency, Predicates.<NodeEdge>alwaysTrue())).recursive().useFinish().compile(),
+                QueryPlan.start().forward().by(SubModule).to(ModuleNode).recursive()
+                        .then().forward().by(Granted).to(ModuleNode).single().useFinish().compile(),
+                QueryPlan.start().forward().by(ContractClass).by(ImplementationClass).to(CodeNode).single()
+                        .useFinish().then().forward().by(UsesClass).recursive().filterPath(CodeNode).compile());
+        final ImmutableSet<Node> modules = modulesGraph.query().from(ModuleNode).getStartSet();
+        for (final QueryPlan plan : plans) {
+            final ImmutableMap<Node, GraphPathFinish> each = modulesGraph.query().executeEach(modules, plan);
+            assertEquals(modules, each.keySet());
+            for (final Node module : modules) {
+                final GraphPathFinish single = modulesGraph.query().from(module).execute(plan);
+                assertEquals(single.graph().edgeSet(), each.get(module).graph().edgeSet());
+                assertEquals(single.set(), each.get(module).set());
+                assertEquals(single.useStart().set(), each.get(module).useStart().set());
+            }
+        }
+    }
+
+    @Test
+    public void testQueryInsideFilterOfQuery() throws Exception {
+        //filter runs a query of its own while outer query walks, both walk the same graph on the same thread:
+        final Predicate<Node> hasSuperModule = node -> modulesGraph.query().from(node).backward().by(SubModule).single().useFinish().set().size() > 0;
+        for (final Node module : modulesGraph.query().from(ModuleNode).getStartSet()) {
+            assertEquals(modulesGraph.query().from(module).forward().by(SubModule).to(ModuleNode).recursive().set(),
+                    modulesGraph.query().from(module).forward().by(SubModule).to(hasSuperModule).recursive().set());
+        }
+        final Predicate<Node> isUsed = node -> modulesGraph.query().from(node).backward().by(UsesClass).single().useFinish().set().size() > 0;
+        for (final Node code : modulesGraph.query().from(CodeNode).getStartSet()) {
+            assertEquals(modulesGraph.query().from(code).forward().by(UsesClass).recursive().set(),
+                    modulesGraph.query().from(code).forward().by(UsesClass).to(isUsed).recursive().set());
+        }
+    }
+
+    private void checkPlan(final GraphPathFinish queried, final GraphPathFinish executed) {
+        assertEquals(queried.graph().edgeSet(), executed.graph().edgeSet());
+        assertEquals(queried.set(), executed.set());
+    }
+
+    @Test
+    public void testQueryStagesReusable() throws Exception {
+        final GraphPathEdgeFilter subModules = modulesGraph.query().from(entireApplication).forward().by(SubModule);
+        final GraphPathFinish layers = subModules.to(ModuleNode).single();
+        final GraphPathFinish allModules = subModules.recursive();
+        assertEquals(ImmutableSet.of(entireApplication, standaloneLayer, commonLayer, businessLayer, uiLayer), layers.set());
+        assertEquals(layers.set(), layers.set());
+        assertEquals(ImmutableSet.of(entireApplication), layers.useStart().set());
+        assertEquals(layers.set(), layers.graph().vertexSet());
+        assertTrue(allModules.set().containsAll(ImmutableSet.of(standalone1Module, business1Module, ui1Module)));
+        assertEquals(layers.set(), subModules.to(ModuleNode).single().set());
+    }
+
+    @Test
+    public void testQueriesFromManyThreads() throws Exception {
+        final ModulesAnalyzer analyzer = ModulesAnalyzer.createFrom(modulesGraph);
+        final ImmutableList<Node> modules = modulesGraph.query().from(ModuleNode).getStartSet().asList();
+        final GraphPathDirection fromAll = modulesGraph.query().from(modules);
+        final ImmutableList<ImmutableSet<Node>> expected = ImmutableList.copyOf(modules.stream()
+                .map(module -> analyzer.getModuleHierarchyDependencies(module).set()).iterator());
+        final ImmutableSet<Node> expectedUsed = fromAll.forward().by(UsesClass).recursive().set();
+        final ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                futures.add(executorService.submit(() -> {
+                    for (int m = 0; m < modules.size(); m++) {
+                        if (!expected.get(m).equals(analyzer.getModuleHierarchyDependencies(modules.get(m)).set())) {
+                            return false;
+                        }
+                    }
+                    return expectedUsed.equals(fromAll.forward().by(UsesClass).recursive().set()) && analyzer.getViolations().size() > 0;
+                }));
+            }
+            for (final Future<Boolean> future : futures) {
+                assertTrue(future.get());
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void testCyclesAreMutuallyReachableNodes() throws Exception {
+        assertEquals(modulesGraph.findCycles(ModuleNode, Dependency), modulesGraph.findCycles(ModuleNode, UsesClass));
+        checkCycles(modulesGraph.findCycles(ModuleNode, Dependency), ModuleNode, Dependency);
+        checkCycles(modulesGraph.findCycles(CodeNode, UsesClass), CodeNode, UsesClass);
+        for (final ImmutableSet<Node> cycle : modulesGraph.findCycles(PackageNode, UsesClass)) {
+            assertTrue(cycle.stream().allMatch(PackageNode));
+        }
+    }
+
+    private void checkCycles(final ImmutableList<ImmutableSet<Node>> cycles, final NodeType level, final EdgeType edgeType) {
+        final Set<ImmutableSet<Node>> expectedCycles = new HashSet<>();
+        for (final Node node : modulesGraph.query().from(level).getStartSet()) {
+            final ImmutableSet<Node> cycle = ImmutableSet.copyOf(Sets.filter(Sets.intersection(
+                    modulesGraph.query().from(node).forward().by(edgeType).to(level).recursive().set(),
+                    modulesGraph.query().from(node).backward().by(edgeType).to(level).recursive().set()), level::test));
+            if (cycle.size() > 1) {
+                expectedCycles.add(cycle);
+            }
+        }
+        assertEquals(expectedCycles, cycles.stream().map(ImmutableSet::copyOf).collect(Collectors.toSet()));
+    }
+
+    @Test
+    public void testSnapshotSameAsGraph() throws Exception {
+        final File snapshotFile = File.createTempFile("modules-graph", ".snapshot");
+        try {
+            modulesGraph.writeSnapshot(snapshotFile);
+            final ModulesGraph snapshotGraph = ModulesGraph.openSnapshot(snapshotFile, Thread.currentThread().getContextClassLoader());
+            assertEquals(describeEdges(modulesGraph), describeEdges(snapshotGraph));
+            assertEquals(ModulesAnalyzer.createFrom(modulesGraph).getViolations(), ModulesAnalyzer.createFrom(snapshotGraph).getViolations());
+            for (final Node module : modulesGraph.query().from(ModuleNode).getStartSet()) {
+                final ModuleSpec spec = modulesGraph.getModuleSpecByNode(module);
+                final ModuleSpec snapshotSpec = snapshotGraph.getModuleSpecByNode(module);
+                if (spec == null) {
+                    assertNull(snapshotSpec);
+                } else {
+                    assertEquals(spec.getModule(), snapshotSpec.getModule());
+                    assertEquals(spec.isDeprecated(), snapshotSpec.isDeprecated());
+                    assertEquals(spec.getComments(), snapshotSpec.getComments());
+                    assertEquals(spec.getContractClasses(), snapshotSpec.getContractClasses());
+                    assertEquals(spec.getImplementationClasses(), snapshotSpec.getImplementationClasses());
+                    assertEquals(spec.getAllowedDependencies(), snapshotSpec.getAllowedDependencies());
+                }
+            }
+        } finally {
+            assertTrue(snapshotFile.delete());
+        }
+    }
+
+    @Test
+    public void testBrokenSnapshotRejected() throws Exception {
+        final File snapshotFile = File.createTempFile("modules-graph", ".snapshot");
+        try {
+            modulesGraph.writeSnapshot(snapshotFile);
+            final byte[] snapshot = Files.readAllBytes(snapshotFile.toPath());
+            for (int length = 0; length < snapshot.length; length += Math.max(1, snapshot.length / 50)) {
+                checkSnapshotRejected(snapshotFile, Arrays.copyOf(snapshot, length));
+            }
+            checkSnapshotRejected(snapshotFile, Arrays.copyOf(snapshot, snapshot.length - 1));
+            //type of first node, right after header:
+            final byte[] badNodeType = snapshot.clone();
+            ByteBuffer.wrap(badNodeType).putInt(6 * 4, NodeType.values().length);
+            checkSnapshotRejected(snapshotFile, badNodeType);
+        } finally {
+            assertTrue(snapshotFile.delete());
+        }
+    }
+
+    private static void checkSnapshotRejected(final File snapshotFile, final byte[] snapshot) throws Exception {
+        Files.write(snapshotFile.toPath(), snapshot);
+        try {
+            ModulesGraph.openSnapshot(snapshotFile, Thread.currentThread().getContextClassLoader());
+            fail("Broken snapshot of " + snapshot.length + " bytes is opened");
+        } catch (final RuntimeException e) {
+            assertTrue(String.valueOf(e), e.getCause() instanceof IOException);
+            assertTrue(e.getMessage(), e.getCause().getMessage().startsWith("Unsupported graph snapshot format"));
+        }
+    }
+
+    private static ImmutableSet<String> describeEdges(final ModulesGraph graph) {
+        final ImmutableSet.Builder<String> result = ImmutableSet.builder();
+        for (final Node node : ImmutableSortedSet.copyOf(graph.query().from(Predicates.<Node>alwaysTrue()).getStartSet())) {
+            result.add(node.toString());
+            for (final EdgeType edgeType : EdgeType.values()) {
+                for (final Node target : graph.query().from(node).forward().by(edgeType).single().useFinish().set()) {
+                    result.add(node + " -" + edgeType + "-> " + target);
+                }
+            }
+        }
+        return result.build();
+    }
+
     private void assertEqualsSet(final ImmutableSet<Node> expected, final ImmutableSet<Node> actual) {
         if (!expected.equals(actual)){
             throw new IllegalStateException(String.format("Sets assertion failed:\n" +